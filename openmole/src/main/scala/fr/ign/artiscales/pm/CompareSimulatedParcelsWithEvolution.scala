@@ -1,10 +1,12 @@
 package fr.ign.artiscales.pm
 
 import fr.ign.artiscales.pm.analysis.SingleParcelStat
+import fr.ign.artiscales.pm.scenario.SimulationContext
 import fr.ign.artiscales.pm.usecase.CompareSimulatedWithRealParcelsOM
-import fr.ign.artiscales.pm.workflow.{Workflow, ZoneDivision}
+import fr.ign.artiscales.pm.workflow.ZoneDivision
 import fr.ign.artiscales.tools.parameter.ProfileUrbanFabric
 import fr.ign.artiscales.pm.division.DivisionType
+import org.geotools.data.simple.SimpleFeatureCollection
 
 import java.io.File
 
@@ -41,8 +43,11 @@ object compSimuParcel {
     val profile = new ProfileUrbanFabric("calibration", maximalArea, minimalArea, minimalWidthContactRoad,
       laneWidth, streetWidth, streetLane, blockShape, lenDriveway,
       maxDepth, maxDistanceForNearestRoad, maxWidth, approxNumberParcelPerBlock, harmonyCoeff, irregularityCoeff)
-    CompareSimulatedWithRealParcelsOM.setProcess(processType)
-    val parcelSimuled = (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, buildingFile: File)
+    // the process is only set in the context of this run, so replications can be run concurrently
+    val parcelSimuled = SimulationContext.get().call[SimpleFeatureCollection, Exception](() => {
+      CompareSimulatedWithRealParcelsOM.setProcess(processType)
+      (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, buildingFile: File)
+    })
 
     //todo Check those return and add other?
     val hausdorfDistance = SingleParcelStat.hausdorffDistance(parcelSimuled, parcelEvolved)
@@ -68,8 +73,8 @@ object compSimuParcel {
     //             ) : (Int, Double) = {
     val profile = new ProfileUrbanFabric("calibration", minimalArea, maxDepth, maxDistanceForNearestRoad,
       minimalWidthContactRoad, maxWidth, laneWidth, irregularityCoeff)
-    Workflow.PROCESS = DivisionType.SS
-    val parcelSimuled = (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, buildingFile: File)
+    val parcelSimuled = SimulationContext.get().withProcess(DivisionType.SS).call[SimpleFeatureCollection, Exception](() =>
+      (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, buildingFile: File))
 
     //todo Check those return and add other?
     val hausdorfDistance = SingleParcelStat.hausdorffDistance(parcelSimuled, parcelEvolved)
@@ -101,8 +106,8 @@ object compSimuParcel {
     val profile = new ProfileUrbanFabric("calibration", maximalArea, minimalArea, minimalWidthContactRoad,
       laneWidth, streetWidth, streetLane, blockShape, 0,
       maxDepth, maxDistanceForNearestRoad, maxWidth, approxNumberParcelPerBlock, harmonyCoeff, irregularityCoeff)
-    Workflow.PROCESS = DivisionType.OBBThenSS
-    val parcelSimuled = (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, buildingFile: File)
+    val parcelSimuled = SimulationContext.get().withProcess(DivisionType.OBBThenSS).call[SimpleFeatureCollection, Exception](() =>
+      (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, buildingFile: File))
 
     //todo Check those return and add other?
     val hausdorfDistance = SingleParcelStat.hausdorffDistance(parcelSimuled, parcelEvolved)
@@ -129,8 +134,8 @@ object compSimuParcel {
     //             ) : (Int, Double) = {
     val profile = new ProfileUrbanFabric("calibration", maximalArea, minimalArea,
       minimalWidthContactRoad, streetWidth, streetLane, laneWidth, blockShape, harmonyCoeff, irregularityCoeff)
-    Workflow.PROCESS = DivisionType.OBB
-    val parcelSimuled = (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, null)
+    val parcelSimuled = SimulationContext.get().withProcess(DivisionType.OBB).call[SimpleFeatureCollection, Exception](() =>
+      (new ZoneDivision()).zoneDivision(initialZone: File, parcelFile: File, outFolder: File, profile: ProfileUrbanFabric, roadFile: File, null))
 
     val hausdorfDistance = SingleParcelStat.hausdorffDistance(parcelSimuled, parcelEvolved)
     val nbParcelDiff = SingleParcelStat.diffNumberOfParcel(parcelSimuled, parcelEvolved)
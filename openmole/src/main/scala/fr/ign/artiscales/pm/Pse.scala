@@ -3,7 +3,8 @@ package fr.ign.artiscales.pm
 import fr.ign.artiscales.pm.analysis.SingleParcelStat
 import fr.ign.artiscales.pm.division.DivisionType
 import fr.ign.artiscales.pm.parcelFunction.{MarkParcelAttributeFromPosition, ParcelIndicator}
-import fr.ign.artiscales.pm.workflow.{ConsolidationDivision, Workflow}
+import fr.ign.artiscales.pm.scenario.SimulationContext
+import fr.ign.artiscales.pm.workflow.ConsolidationDivision
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt
 import fr.ign.artiscales.tools.parameter.ProfileUrbanFabric
 import org.geotools.data.simple.SimpleFeatureCollection
@@ -42,12 +43,13 @@ object Pse extends App {
     val profile = new ProfileUrbanFabric("calibration", maximalArea, minimalArea, minimalWidthContactRoad,
       laneWidth, streetWidth, 0, 0, lenDriveway,
       maxDepth, maxDistanceForNearestRoad, maxWidth, approxNumberParcelPerBlock, harmonyCoeff, irregularityCoeff)
-    Workflow.PROCESS = DivisionType.OBBThenSS
     val dsParcelEv = CollecMgmt.getDataStore(parcelFile)
     val parcel = dsParcelEv.getFeatureSource(dsParcelEv.getTypeNames()(0)).getFeatures
     print("marked parcels : "+MarkParcelAttributeFromPosition.countMarkedParcels(parcel))
 print(profile)
-    val parcelSimuled = MarkParcelAttributeFromPosition.getOnlySimulatedParcels(new ConsolidationDivision().consolidationDivision(parcel, roadFile, null, profile))
+    // the process is only set for this run, so replications can be run concurrently
+    val parcelSimuled = SimulationContext.get().withProcess(DivisionType.OBBThenSS).call[SimpleFeatureCollection, Exception](() =>
+      MarkParcelAttributeFromPosition.getOnlySimulatedParcels(new ConsolidationDivision().consolidationDivision(parcel, roadFile, null, profile)))
 
     val aspectRatio: Double = ParcelIndicator.meanAspectRatio(parcelSimuled)
     val nbParcel: Int = parcelSimuled.size()
@@ -73,10 +75,10 @@ print(profile)
              irregularityCoeff: Double,
             ): (Double, Int, Double, Double) = {
     val profile = new ProfileUrbanFabric("pseOBB", maximalArea, minimalArea, minimalWidthContactRoad, streetWidth, streetLane, laneWidth, blockShape, harmonyCoeff, irregularityCoeff)
-    Workflow.PROCESS = DivisionType.OBB
     val dsParcelEv = CollecMgmt.getDataStore(parcelFile)
     val parcel = dsParcelEv.getFeatureSource(dsParcelEv.getTypeNames()(0)).getFeatures
-    val parcelSimuled = MarkParcelAttributeFromPosition.getOnlySimulatedParcels(new ConsolidationDivision().consolidationDivision(parcel, roadFile, null, profile))
+    val parcelSimuled = SimulationContext.get().withProcess(DivisionType.OBB).call[SimpleFeatureCollection, Exception](() =>
+      MarkParcelAttributeFromPosition.getOnlySimulatedParcels(new ConsolidationDivision().consolidationDivision(parcel, roadFile, null, profile)))
       //    CollecMgmt.exportSFC(parcelSimuled, new File("/tmp/obb.gpkg"))
 
     val aspectRatio: Double = ParcelIndicator.meanAspectRatio(parcelSimuled)
@@ -0,0 +1,192 @@
+package fr.ign.artiscales.pm.benchmark;
+
+import fr.ign.artiscales.pm.division.Division;
+import fr.ign.artiscales.pm.division.DivisionType;
+import fr.ign.artiscales.pm.division.FlagDivision;
+import fr.ign.artiscales.pm.division.OBBDivision;
+import fr.ign.artiscales.pm.division.OBBThenSS;
+import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
+import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
+import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
+import fr.ign.artiscales.pm.usecase.GenerateSyntheticParcel;
+import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
+import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecTransform;
+import fr.ign.artiscales.tools.geometryGeneration.CityGeneration;
+import fr.ign.artiscales.tools.parameter.ProfileUrbanFabric;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the division processes. Each invocation divides every marked parcel of the input once. The <i>parcels</i> counter gives the number of produced parcels per
+ * second and the <i>-prof gc</i> profiler (enabled by default in the <i>benchmark</i> Maven profile) gives the allocation rate.
+ * <p>
+ * Inputs are either the synthetic zone of {@link GenerateSyntheticParcel#createInitialZone()} or the big parcels of the bundled test scenario (with their roads and buildings),
+ * scaled by the <i>scale</i> parameter. The urban fabric profile sets the size of the produced parcels, hence their count. The bundled data folder can be changed with the
+ * <i>pm.benchmark.data</i> system property.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DivisionBenchmark {
+
+    @Benchmark
+    public int divide(DivisionState state, ParcelCounter counter) {
+        int nb = state.divide().size();
+        counter.parcels += nb;
+        return nb;
+    }
+
+    /**
+     * Number of parcels produced, reported by JMH as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ParcelCounter {
+        public long parcels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            parcels = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class DivisionState {
+        /**
+         * Division process (MS is not implemented).
+         */
+        @Param({"OBB", "SS", "SSoffset", "OBBThenSS", "FlagDivision"})
+        public String division;
+        /**
+         * <i>synthetic</i> for the zone of {@link GenerateSyntheticParcel}, <i>block</i> for the bundled parcels.
+         */
+        @Param({"synthetic", "block"})
+        public String input;
+        /**
+         * Scale factor applied to the input geometries.
+         */
+        @Param({"0.25", "1"})
+        public double scale;
+        /**
+         * Urban fabric profile of the bundled test scenario.
+         */
+        @Param({"smallHouse", "mediumCollective"})
+        public String profileName;
+
+        DivisionType type;
+        ProfileUrbanFabric profile;
+        SimpleFeatureCollection parcels, roads, buildings;
+        List<LineString> ext;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            File data = new File(System.getProperty("pm.benchmark.data", "src/main/resources/TestScenario"));
+            type = DivisionType.valueOf(division);
+            profile = ProfileUrbanFabric.convertJSONtoProfile(new File(data, "profileUrbanFabric/" + profileName + ".json"));
+            Division.setSeed(42);
+            if (input.equals("synthetic")) {
+                Geometry zone = GenerateSyntheticParcel.createInitialZone();
+                AffineTransformation scaling = scaling(zone.getEnvelopeInternal());
+                DefaultFeatureCollection sfc = new DefaultFeatureCollection();
+                SimpleFeatureBuilder builder = ParcelSchema.getSFBMinParcelSplit();
+                for (int i = 0; i < zone.getNumGeometries(); i++) {
+                    builder.set(CollecMgmt.getDefaultGeomName(), scaling.transform(zone.getGeometryN(i)));
+                    builder.set(ParcelSchema.getParcelSectionField(), "S");
+                    builder.set(ParcelSchema.getParcelNumberField(), String.valueOf(i));
+                    builder.set(ParcelSchema.getParcelCommunityField(), "00000");
+                    builder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), 1);
+                    sfc.add(builder.buildFeature(null));
+                }
+                parcels = sfc;
+                roads = new DefaultFeatureCollection();
+                buildings = new DefaultFeatureCollection();
+            } else {
+                SimpleFeatureCollection allParcels = read(new File(data, "InputData/parcel.gpkg"));
+                AffineTransformation scaling = scaling(allParcels.getBounds());
+                parcels = transform(MarkParcelAttributeFromPosition.getOnlyMarkedParcels(MarkParcelAttributeFromPosition.markParcelsSup(allParcels, profile.getMaximalArea() * 5)), scaling);
+                roads = transform(read(new File(data, "InputData/road.gpkg")), scaling);
+                buildings = transform(read(new File(data, "InputData/building.gpkg")), scaling);
+            }
+            ext = CollecTransform.fromPolygonSFCtoListRingLines(CityGeneration.createUrbanBlock(parcels));
+        }
+
+        SimpleFeatureCollection divide() {
+            switch (type) {
+                case OBB:
+                    return OBBDivision.splitParcels(parcels, roads, profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getHarmonyCoeff(),
+                            profile.getIrregularityCoeff(), ext, profile.getLaneWidth(), profile.getStreetLane(), profile.getStreetWidth(), true, profile.getBlockShape());
+                case SS:
+                case SSoffset:
+                    return StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(parcels, roads, "NOM_VOIE_G", "IMPORTANCE",
+                            type == DivisionType.SSoffset ? profile.getMaxDepth() : 0, profile.getMaxDistanceForNearestRoad(), profile.getMinimalArea(),
+                            profile.getMinimalWidthContactRoad(), profile.getMaxWidth(), profile.getIrregularityCoeff() == 0 ? 0.1 : profile.getIrregularityCoeff(),
+                            profile.getLaneWidth(), "benchmark");
+                default:
+                    DefaultFeatureCollection result = new DefaultFeatureCollection();
+                    try (SimpleFeatureIterator it = parcels.features()) {
+                        while (it.hasNext()) {
+                            SimpleFeature feat = it.next();
+                            if (type == DivisionType.OBBThenSS)
+                                result.addAll(OBBThenSS.applyOBBThenSS(feat, roads, profile, ext));
+                            else
+                                result.addAll(FlagDivision.doFlagDivision(feat, roads, buildings, profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
+                                        profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getDrivewayWidth(), ext, null));
+                        }
+                    }
+                    return result;
+            }
+        }
+
+        private AffineTransformation scaling(Envelope env) {
+            return AffineTransformation.scaleInstance(scale, scale, env.centre().x, env.centre().y);
+        }
+
+        private static SimpleFeatureCollection read(File file) throws IOException {
+            DataStore ds = CollecMgmt.getDataStore(file);
+            SimpleFeatureCollection sfc = DataUtilities.collection(ds.getFeatureSource(ds.getTypeNames()[0]).getFeatures());
+            ds.dispose();
+            return sfc;
+        }
+
+        private static SimpleFeatureCollection transform(SimpleFeatureCollection sfc, AffineTransformation transformation) {
+            DefaultFeatureCollection result = new DefaultFeatureCollection();
+            try (SimpleFeatureIterator it = sfc.features()) {
+                while (it.hasNext()) {
+                    SimpleFeature feat = SimpleFeatureBuilder.copy(it.next());
+                    feat.setDefaultGeometry(transformation.transform((Geometry) feat.getDefaultGeometry()));
+                    result.add(feat);
+                }
+            }
+            return result;
+        }
+    }
+}
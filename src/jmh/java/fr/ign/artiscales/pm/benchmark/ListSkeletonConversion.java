@@ -0,0 +1,81 @@
+package fr.ign.artiscales.pm.benchmark;
+
+import fr.ign.artiscales.pm.division.CampSkeleton;
+import fr.ign.artiscales.tools.graph.Edge;
+import fr.ign.artiscales.tools.graph.Face;
+import fr.ign.artiscales.tools.graph.Node;
+import fr.ign.artiscales.tools.graph.TopologicalGraph;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.twak.camp.Output;
+import org.twak.camp.Output.SharedEdge;
+import org.twak.utils.collections.Loop;
+import org.twak.utils.collections.LoopL;
+
+import javax.vecmath.Point3d;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Former conversion of a straight skeleton to a {@link TopologicalGraph}, with linear lookups of the known edges and vertices in lists. Kept as the reference of
+ * {@link CampSkeleton#convertOutPut(Output)} in {@link SkeletonConversionBenchmark}.
+ */
+final class ListSkeletonConversion {
+    private ListSkeletonConversion() {
+    }
+
+    static TopologicalGraph convertOutPut(Output out) {
+        GeometryFactory factory = new GeometryFactory();
+        TopologicalGraph graph = new TopologicalGraph();
+        List<SharedEdge> lSharedEdges = new ArrayList<>();
+        List<Point3d> lPoints = new ArrayList<>();
+        for (Output.Face f : new HashSet<>(out.faces.values())) {
+            Face fTopo = new Face();
+            fTopo.setPolygon(CampSkeleton.convertFace(f.points, factory));
+            LoopL<SharedEdge> lSE = f.edges;
+            // the loops of the face are walked as many times as the face has loops, as in the former conversion
+            int nbSE = lSE.size();
+            for (int i = 0; i < nbSE; i++) {
+                for (Loop<SharedEdge> loopSE : lSE) {
+                    for (SharedEdge se : loopSE) {
+                        int indexArc = lSharedEdges.indexOf(se);
+                        if (indexArc == -1) {
+                            Point3d p = CampSkeleton.getStart(se, f);
+                            Point3d p2 = CampSkeleton.getEnd(se, f);
+                            if (p == null || p2 == null)
+                                continue;
+                            lSharedEdges.add(se);
+                            int indexP1 = lPoints.indexOf(p);
+                            int indexP2 = lPoints.indexOf(p2);
+                            if (indexP1 == -1) {
+                                lPoints.add(p);
+                                indexP1 = lPoints.size() - 1;
+                                graph.getNodes().add(new Node(new Coordinate(p.x, p.y)));
+                            }
+                            if (indexP2 == -1) {
+                                lPoints.add(p2);
+                                indexP2 = lPoints.size() - 1;
+                                graph.getNodes().add(new Node(new Coordinate(p2.x, p2.y)));
+                            }
+                            Node n1 = graph.getNodes().get(indexP1), n2 = graph.getNodes().get(indexP2);
+                            graph.getEdges().add(new Edge(n1, n2, factory.createLineString(new Coordinate[]{n1.getCoordinate(), n2.getCoordinate()})));
+                            indexArc = lSharedEdges.size() - 1;
+                        }
+                        Edge a = graph.getEdges().get(indexArc);
+                        if (f.equals(se.right))
+                            a.setRight(fTopo);
+                        else if (f.equals(se.left))
+                            a.setLeft(fTopo);
+                        else if (se.right == null)
+                            a.setRight(fTopo);
+                        else if (se.left == null)
+                            a.setLeft(fTopo);
+                    }
+                }
+            }
+            graph.getFaces().add(fTopo);
+        }
+        return graph;
+    }
+}
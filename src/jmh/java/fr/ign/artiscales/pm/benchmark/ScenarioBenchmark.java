@@ -0,0 +1,140 @@
+package fr.ign.artiscales.pm.benchmark;
+
+import com.opencsv.CSVWriter;
+import fr.ign.artiscales.pm.division.Division;
+import fr.ign.artiscales.pm.scenario.PMScenario;
+import fr.ign.artiscales.pm.scenario.PMStep;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * End-to-end benchmark of {@link PMScenario}s. Every scenario JSON file of a folder is executed a few times to warm the JVM up, then measured. For each measured iteration, the
+ * wall time of every {@link PMStep} and of its phases (see {@link PMStep#PHASES}) is written in a CSV file, with a last row for the whole scenario containing its peak heap and
+ * GC time. Steps are always executed on the input parcels of the scenario, so iterations are comparable.
+ * <p>
+ * Run from the project root with:
+ * <pre>mvn -P benchmark compile exec:java -Dexec.mainClass=fr.ign.artiscales.pm.benchmark.ScenarioBenchmark -Dexec.args="src/main/resources/TestScenario target/scenarioBenchmark.csv 1 3"</pre>
+ */
+public class ScenarioBenchmark {
+
+    /**
+     * @param args folder of scenario JSON files, output CSV file, number of warm-up iterations (1 by default) and number of measured iterations (3 by default)
+     * @throws IOException reading and writing geo files
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: ScenarioBenchmark scenarioFolder result.csv [warmupIterations] [measuredIterations]");
+            return;
+        }
+        int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int measured = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        benchmark(new File(args[0]), new File(args[1]), warmup, measured);
+    }
+
+    /**
+     * Benchmark every scenario of a folder.
+     *
+     * @param scenarioFolder folder containing the scenario JSON files
+     * @param csvFile        output CSV file
+     * @param warmup         number of iterations of each scenario before measuring
+     * @param measured       number of measured iterations of each scenario
+     * @throws IOException reading and writing geo files
+     */
+    public static void benchmark(File scenarioFolder, File csvFile, int warmup, int measured) throws IOException {
+        File[] scenarios = Objects.requireNonNull(scenarioFolder.listFiles((dir, name) -> name.endsWith(".json")), scenarioFolder + " is not a folder");
+        Arrays.sort(scenarios);
+        if (csvFile.getParentFile() != null)
+            csvFile.getParentFile().mkdirs();
+        List<String> header = new ArrayList<>(Arrays.asList("scenario", "iteration", "step", "description", "wallTimeMs"));
+        for (String phase : PMStep.PHASES)
+            header.add(phase + "Ms");
+        header.addAll(Arrays.asList("peakHeapMb", "gcTimeMs"));
+        try (CSVWriter csv = new CSVWriter(new FileWriter(csvFile, false))) {
+            csv.writeNext(header.toArray(new String[0]));
+            for (File json : scenarios) {
+                PMScenario scenario = new PMScenario(json);
+                SimulationContext initial = scenario.getContext();
+                for (int i = 0; i < warmup; i++) {
+                    System.out.println("warm-up " + i + " of " + json.getName());
+                    run(scenario, initial);
+                }
+                for (int i = 0; i < measured; i++) {
+                    System.out.println("iteration " + i + " of " + json.getName());
+                    resetPeakHeap();
+                    long gcStart = getGcTime();
+                    long start = System.nanoTime();
+                    run(scenario, initial);
+                    long wallTime = System.nanoTime() - start;
+                    long gcTime = getGcTime() - gcStart;
+                    long[] total = new long[PMStep.PHASES.length];
+                    int s = 0;
+                    for (PMStep step : scenario.getStepList()) {
+                        List<String> line = new ArrayList<>(Arrays.asList(json.getName(), String.valueOf(i), String.valueOf(s++), step.getZoneStudied(), ms(step.getExecutionTime())));
+                        for (int p = 0; p < PMStep.PHASES.length; p++) {
+                            long time = step.getPhaseTimes().get(PMStep.PHASES[p]);
+                            total[p] += time;
+                            line.add(ms(time));
+                        }
+                        line.addAll(Arrays.asList("", ""));
+                        csv.writeNext(line.toArray(new String[0]));
+                    }
+                    List<String> line = new ArrayList<>(Arrays.asList(json.getName(), String.valueOf(i), "total", "", ms(wallTime)));
+                    for (long time : total)
+                        line.add(ms(time));
+                    line.addAll(Arrays.asList(String.valueOf(getPeakHeap() / (1024 * 1024)), String.valueOf(gcTime)));
+                    csv.writeNext(line.toArray(new String[0]));
+                    csv.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute a scenario from its initial state: same input files, same seed and no zone considered as already simulated.
+     */
+    private static void run(PMScenario scenario, SimulationContext initial) throws IOException {
+        scenario.setContext(initial);
+        scenario.flushCachePlacesSimulates();
+        Division.setSeed(42);
+        scenario.executeStep();
+    }
+
+    private static String ms(long nano) {
+        return String.valueOf(nano / 1000000.0);
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(gc.getCollectionTime(), 0);
+        return time;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * Sum of the peak usage of the heap memory pools since the last reset. Pools don't peak at the same time, so it is an upper bound of the real peak.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+}
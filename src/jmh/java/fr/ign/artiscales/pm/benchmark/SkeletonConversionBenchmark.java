@@ -0,0 +1,83 @@
+package fr.ign.artiscales.pm.benchmark;
+
+import fr.ign.artiscales.pm.division.CampSkeleton;
+import fr.ign.artiscales.tools.graph.TopologicalGraph;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.twak.camp.Output;
+import org.twak.camp.Skeleton;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the conversion of a straight skeleton to a {@link TopologicalGraph}: {@link CampSkeleton#convertOutPut(Output)} against the former conversion with list
+ * lookups ({@link ListSkeletonConversion}). The skeleton is computed once per trial on a star-shaped block with the given number of vertices, so only the
+ * conversion is measured. The <i>graph</i> state checks that both conversions give the same number of nodes, edges and faces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SkeletonConversionBenchmark {
+
+    @Benchmark
+    public TopologicalGraph hashed(SkeletonState state) {
+        return CampSkeleton.convertOutPut(state.output);
+    }
+
+    @Benchmark
+    public TopologicalGraph lists(SkeletonState state) {
+        return ListSkeletonConversion.convertOutPut(state.output);
+    }
+
+    @State(Scope.Benchmark)
+    public static class SkeletonState {
+        @Param({"50", "200", "800"})
+        public int vertices;
+
+        Output output;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Polygon block = createBlock(vertices);
+            Skeleton skeleton = CampSkeleton.buildSkeleton(block, null);
+            skeleton.skeleton();
+            output = skeleton.output;
+            TopologicalGraph hashed = CampSkeleton.convertOutPut(output);
+            TopologicalGraph lists = ListSkeletonConversion.convertOutPut(output);
+            if (hashed.getNodes().size() != lists.getNodes().size() || hashed.getEdges().size() != lists.getEdges().size()
+                    || hashed.getFaces().size() != lists.getFaces().size())
+                throw new IllegalStateException("Conversions of the skeleton differ");
+        }
+
+        /**
+         * Create a star-shaped block: vertices on a circle of 200 meters with a random radius variation, so the skeleton has as many faces as the block has edges.
+         */
+        static Polygon createBlock(int vertices) {
+            MersenneTwister random = new MersenneTwister(42);
+            Coordinate[] coords = new Coordinate[vertices + 1];
+            for (int i = 0; i < vertices; i++) {
+                double angle = 2 * Math.PI * i / vertices;
+                double radius = 200 * (0.85 + 0.15 * random.nextDouble());
+                coords[i] = new Coordinate(radius * Math.cos(angle), radius * Math.sin(angle));
+            }
+            coords[vertices] = new Coordinate(coords[0]);
+            return new GeometryFactory().createPolygon(coords);
+        }
+    }
+}
@@ -6,7 +6,6 @@ import fr.ign.artiscales.pm.fields.french.FrenchParcelFields;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
 import fr.ign.artiscales.pm.parcelFunction.ParcelState;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecTransform;
@@ -94,7 +93,7 @@ public class RoadRatioParcels {
             } catch (Exception problem) {
                 problem.printStackTrace();
             }
-            zone.add(sfBuilderZone.buildFeature(Attribute.makeUniqueId()));
+            zone.add(sfBuilderZone.buildFeature(ParcelSchema.makeUniqueId()));
         }
         roadRatioZone(zone, cutParcel, legend, folderOutStat, overwrite, roadFile);
     }
@@ -3,6 +3,7 @@ package fr.ign.artiscales.pm.analysis;
 import com.opencsv.CSVWriter;
 import fr.ign.artiscales.pm.fields.GeneralFields;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
+import fr.ign.artiscales.pm.parcelFunction.ParcelAdjacencyGraph;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
 import fr.ign.artiscales.pm.parcelFunction.ParcelState;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -23,6 +24,8 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static fr.ign.artiscales.pm.fields.GeneralFields.makeParcelCode;
 
@@ -145,9 +148,12 @@ public class SingleParcelStat {
                 "DisHausDst", "CodeAppar", "AspectRatio"};
         csv.writeNext(firstLine);
         SimpleFeatureCollection block = CityGeneration.createUrbanBlock(parcels, true);
-        Arrays.stream(parcels.toArray(new SimpleFeature[0]))
-                .filter(p -> (int) p.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) == 1).forEach(parcel -> {
+        SimpleFeature[] parcelArray = parcels.toArray(new SimpleFeature[0]);
+        ParcelAdjacencyGraph graph = new ParcelAdjacencyGraph(Arrays.stream(parcelArray).map(p -> (Geometry) p.getDefaultGeometry()).collect(Collectors.toList()));
+        IntStream.range(0, parcelArray.length)
+                .filter(i -> (int) parcelArray[i].getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) == 1).forEach(i -> {
                     // if parcel is marked to be analyzed
+                    SimpleFeature parcel = parcelArray[i];
                     Geometry parcelGeom = (Geometry) parcel.getDefaultGeometry();
                     double widthRoadContact = ParcelState.getParcelFrontSideWidth(Polygons.getPolygon(parcelGeom),
                             CollecTransform.selectIntersection(roads, parcelGeom.buffer(7)), Lines.fromMultiToLineString(
@@ -172,7 +178,7 @@ public class SingleParcelStat {
                                     + parcel.getAttribute(ParcelSchema.getParcelNumberField()),
                             String.valueOf(parcelGeom.getArea()), String.valueOf(parcelGeom.getLength()), String.valueOf(widthRoadContact != 0),
                             String.valueOf(widthRoadContact),
-                            String.valueOf(ParcelState.countParcelNeighborhood(parcelGeom, CollecTransform.selectIntersection(parcels, parcelGeom.buffer(2)))),
+                            String.valueOf(graph.getDegree(i)),
                             HausDist, DisHausDst, CodeAppar, String.valueOf(aspectRatio(parcelGeom))};
                     csv.writeNext(line);
                 });
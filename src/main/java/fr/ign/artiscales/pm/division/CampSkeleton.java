@@ -1,8 +1,10 @@
 package fr.ign.artiscales.pm.division;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.vecmath.Point3d;
@@ -120,104 +122,92 @@ public class CampSkeleton {
   }
 
   /**
-   * Convertit la sortie de l'algorithme de squelette droit.
+   * Convertit la sortie de l'algorithme de squelette droit. Les arrêtes et les sommets déjà rencontrés sont retrouvés dans des tables de hachage et les boucles de chaque face ne
+   * sont parcourues qu'une fois. Le résultat est le même que celui de l'ancienne conversion avec des listes (voir <i>SkeletonConversionBenchmark</i>).
    * 
    * TODO : il subsite un problème, parfois, 2 arrêtes de 2 faces sont équivalentes à 1 arrête d'une autre face.
-   * @param out
-   * @return
+   * @param out sortie du squelette droit
+   * @return la carte topo
    */
-  private static TopologicalGraph convertOutPut(Output out) {
+  public static TopologicalGraph convertOutPut(Output out) {
     GeometryFactory factory = new GeometryFactory();
     // On créer la carte Toppo
     TopologicalGraph graph = new TopologicalGraph();
-    // Liste des arrêtes rencontrées
-    List<SharedEdge> lSharedEdges = new ArrayList<SharedEdge>();
-    List<Point3d> lPoints = new ArrayList<Point3d>();
+    // Arrêtes rencontrées et leur arc
+    Map<SharedEdge, fr.ign.artiscales.tools.graph.Edge> sharedEdges = new HashMap<>();
+    // Sommets rencontrés et leur noeud
+    Map<Point3d, Node> points = new HashMap<>();
     // Pour chaque face du squelette
     for (Face f : new HashSet<>(out.faces.values())) {
       // On créer une face de la carte topo
-    	fr.ign.artiscales.tools.graph.Face fTopo = new fr.ign.artiscales.tools.graph.Face();
+      fr.ign.artiscales.tools.graph.Face fTopo = new fr.ign.artiscales.tools.graph.Face();
       fTopo.setPolygon(convertFace(f.points, factory));
-      // On récupère les arrête de la face
-      LoopL<SharedEdge> lSE = f.edges;
-      // On parcourt les arrêtes
-      int nbSE = lSE.size();
-      for (int i = 0; i < nbSE; i++) {
-        for (Loop<SharedEdge> loopSE : lSE) {
-          for (SharedEdge se : loopSE) {
-            // Est ce une arrête déjà rencontrée ?
-            int indexArc = lSharedEdges.indexOf(se);
-            if (indexArc == -1) {
-              // Non : on doit générer les informations add hoc
-              // On récupère les sommets initiaux et finaux
-              Point3d p = getStart(se, f);
-              Point3d p2 = getEnd(se, f);
-              if (p == null || p2 == null) {
-                continue;
-              }
-              // On la rajoute à la liste des arrêtes existants
-              lSharedEdges.add(se);
-              // S'agit il de sommets déjà rencontrés ?
-              int indexP1 = lPoints.indexOf(p);
-              int indexP2 = lPoints.indexOf(p2);
-              // Non ! on génère la sommet
-              if (indexP1 == -1) {
-                // On l'ajoute à la liste des sommets rencontrés
-                lPoints.add(p);
-                // On met à jour le sommet considéré
-                indexP1 = lPoints.size() - 1;
-                // On génère un noeud
-                Node n = new Node(pointToCoordinate(p));
-                // On l'ajoute à la liste des noeuds et à la carte topo
-                // lNoeuds.add(n);
-                graph.getNodes().add(n);
-              }
-              // idem avec le second sommet
-              if (indexP2 == -1) {
-                lPoints.add(p2);
-                indexP2 = lPoints.size() - 1;
-                Node n = new Node(pointToCoordinate(p2));
-                // lNoeuds.add(n);
-                graph.getNodes().add(n);
-              }
-              // On génère l'arc
-              fr.ign.artiscales.tools.graph.Edge a = new fr.ign.artiscales.tools.graph.Edge(graph.getNodes().get(indexP1), graph.getNodes().get(indexP2),
-                  factory.createLineString(new Coordinate[] { graph.getNodes().get(indexP1).getCoordinate(), graph.getNodes().get(indexP2).getCoordinate() }));
-              // On ajoute l'arc
-              graph.getEdges().add(a);
-              // cT.addArc(a);
-              indexArc = lSharedEdges.size() - 1;
+      // On parcourt les arrêtes de la face
+      for (Loop<SharedEdge> loopSE : f.edges) {
+        for (SharedEdge se : loopSE) {
+          // Est ce une arrête déjà rencontrée ?
+          fr.ign.artiscales.tools.graph.Edge a = sharedEdges.get(se);
+          if (a == null) {
+            // Non : on récupère les sommets initiaux et finaux
+            Point3d p = getStart(se, f);
+            Point3d p2 = getEnd(se, f);
+            if (p == null || p2 == null) {
+              continue;
+            }
+            // S'agit il de sommets déjà rencontrés ? Les deux sont cherchés avant d'ajouter le premier, comme dans la conversion avec listes
+            Point3d k1 = pointKey(p);
+            Point3d k2 = pointKey(p2);
+            Node n1 = points.get(k1);
+            Node n2 = points.get(k2);
+            // Non ! on génère les noeuds
+            if (n1 == null) {
+              n1 = new Node(pointToCoordinate(p));
+              graph.getNodes().add(n1);
+              points.put(k1, n1);
             }
-            // On affecte le côté d'où se trouve la face
-            // Normalement la carte topo met ça à jour du côté de la face
-            fr.ign.artiscales.tools.graph.Edge a = graph.getEdges().get(indexArc);
-            boolean isOnRight = (f.equals(se.right));
-            boolean isOnLeft = (f.equals(se.left));
-            if (isOnRight) {
-              a.setRight(fTopo);
-            } else if (isOnLeft) {
-              a.setLeft(fTopo);
-            } else {
-              System.out.println("QUICK FIX APPLIED: face is neither at the right or the left of a polygon");
-              if (se.right == null) {
-                a.setRight(fTopo);
-              } else if (se.left == null) {
-                a.setLeft(fTopo);
-              } else {
-                System.out.println("Null both side");
-              }
+            if (n2 == null) {
+              n2 = new Node(pointToCoordinate(p2));
+              graph.getNodes().add(n2);
+              points.putIfAbsent(k2, n2);
             }
+            // On génère l'arc
+            a = new fr.ign.artiscales.tools.graph.Edge(n1, n2, factory.createLineString(new Coordinate[] { n1.getCoordinate(), n2.getCoordinate() }));
+            graph.getEdges().add(a);
+            sharedEdges.put(se, a);
           }
+          // On affecte le côté d'où se trouve la face
+          setSide(a, se, f, fTopo);
         }
       }
       // On ajoute la faces à la carte topo
       graph.getFaces().add(fTopo);
     }
-    // cT.fusionNoeuds(0.2);
-    // cT.rendPlanaire(0.5);
     return graph;
   }
 
+  private static Point3d pointKey(Point3d p) {
+    // -0.0 et 0.0 sont égaux pour Point3d.equals mais n'ont pas le même hashCode
+    return new Point3d(p.x + 0.0, p.y + 0.0, p.z + 0.0);
+  }
+
+  private static void setSide(fr.ign.artiscales.tools.graph.Edge a, SharedEdge se, Face f, fr.ign.artiscales.tools.graph.Face fTopo) {
+    // Normalement la carte topo met ça à jour du côté de la face
+    if (f.equals(se.right)) {
+      a.setRight(fTopo);
+    } else if (f.equals(se.left)) {
+      a.setLeft(fTopo);
+    } else {
+      System.out.println("QUICK FIX APPLIED: face is neither at the right or the left of a polygon");
+      if (se.right == null) {
+        a.setRight(fTopo);
+      } else if (se.left == null) {
+        a.setLeft(fTopo);
+      } else {
+        System.out.println("Null both side");
+      }
+    }
+  }
+
   public static Polygon convertFace(LoopL<Point3d> points, GeometryFactory factory) {
     LinearRing exterior = null;
     List<LinearRing> interior = new ArrayList<>();
@@ -1,6 +1,12 @@
 package fr.ign.artiscales.pm.division;
 
+import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import org.apache.commons.math3.random.MersenneTwister;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * SuperClass for every Division profiles.
@@ -11,12 +17,166 @@ public abstract class Division {
      */
     private static boolean DEBUG;
     private static MersenneTwister random = new MersenneTwister();
+    /**
+     * Global seed from which every parcel's random stream is derived (see {@link #streamSeed(String)}). Use {@link #getSeed()} to read it, as it can be overridden by a
+     * {@link SimulationContext}.
+     */
+    private static long seed = random.nextLong();
+    /**
+     * Generator bound to the current thread while a parcel task is running (see {@link #withRandom(long, Supplier)}).
+     */
+    private static final ThreadLocal<MersenneTwister> taskRandom = new ThreadLocal<>();
 
+    /**
+     * Get the random generator to use. If the current thread is running a parcel task, its own generator is returned; otherwise, the shared one.
+     *
+     * @return the random generator
+     */
     public static MersenneTwister getRandom() {
-        return random;
+        MersenneTwister r = taskRandom.get();
+        return r != null ? r : random;
+    }
+
+    /**
+     * Run a task with its own random generator, seeded with the given value. Every call to {@link #getRandom()} made by the current thread during the task uses that
+     * generator, which makes the result of the task independent of the execution order of the other tasks.
+     *
+     * @param seed seed of the task's generator
+     * @param task task to run
+     * @param <T>  type of the task's result
+     * @return the result of the task
+     */
+    public static <T> T withRandom(long seed, Supplier<T> task) {
+        return callWithRandom(seed, task::get);
     }
 
+    /**
+     * Run a task that can throw a checked exception with its own random generator. See {@link #withRandom(long, Supplier)}.
+     *
+     * @param seed seed of the task's generator
+     * @param task task to run
+     * @param <T>  type of the task's result
+     * @param <E>  type of the exception thrown by the task
+     * @return the result of the task
+     * @throws E exception thrown by the task
+     */
+    public static <T, E extends Exception> T callWithRandom(long seed, SimulationContext.Task<T, E> task) throws E {
+        MersenneTwister previous = taskRandom.get();
+        taskRandom.set(new MersenneTwister(seed));
+        try {
+            return task.run();
+        } finally {
+            if (previous == null)
+                taskRandom.remove();
+            else
+                taskRandom.set(previous);
+        }
+    }
+
+    /**
+     * Run a task and bind the random generator of the current thread back once it is over, even if the task has changed it with {@link #setSeed(long)}.
+     *
+     * @param task task to run
+     * @param <T>  type of the task's result
+     * @param <E>  type of the exception thrown by the task
+     * @return the result of the task
+     * @throws E exception thrown by the task
+     */
+    public static <T, E extends Exception> T callKeepingRandom(SimulationContext.Task<T, E> task) throws E {
+        MersenneTwister previous = taskRandom.get();
+        try {
+            return task.run();
+        } finally {
+            if (previous == null)
+                taskRandom.remove();
+            else
+                taskRandom.set(previous);
+        }
+    }
+
+    /**
+     * Run a task with the random stream of the given key. See {@link #streamSeed(String)}.
+     *
+     * @param key  stable key of the task (usually a parcel ID)
+     * @param task task to run
+     * @param <T>  type of the task's result
+     * @return the result of the task
+     */
+    public static <T> T withRandom(String key, Supplier<T> task) {
+        return withRandom(streamSeed(key), task);
+    }
+
+    /**
+     * Derive the seed of a random stream from the global seed and a stable key. The same key always gets the same stream for a given global seed, whatever the
+     * number of threads or the order in which the tasks are run.
+     *
+     * @param key stable key of the stream (usually a parcel ID)
+     * @return the seed of the stream
+     */
+    public static long streamSeed(String key) {
+        // FNV-1a hash of the key
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // SplitMix64 finalizer to spread the bits
+        long z = (getSeed() ^ h) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Get the key of a parcel's random stream. It is the {@link ParcelSchema#getParcelID(SimpleFeature)} of the parcel, suffixed with its rank of occurrence if
+     * the ID has already been met in the same collection.
+     *
+     * @param feat        parcel
+     * @param occurrences number of times each ID has been met so far. Updated by this method.
+     * @return the key of the parcel's stream
+     */
+    public static String streamKey(SimpleFeature feat, Map<String, Integer> occurrences) {
+        String id = ParcelSchema.getParcelID(feat);
+        int nb = occurrences.merge(id, 1, Integer::sum);
+        return nb == 1 ? id : id + '#' + nb;
+    }
+
+    /**
+     * Get the key of a feature's random stream within a scope. Features that don't have a parcel ID of their own (i.e. zones, whose ID is made of null values) get the same
+     * {@link #streamKey(SimpleFeature, Map)} in every call: the scope tells the calls apart.
+     *
+     * @param scope       identity of the collection of the feature
+     * @param feat        feature
+     * @param occurrences number of times each ID has been met so far in the scope. Updated by this method.
+     * @return the key of the feature's stream
+     */
+    public static String streamKey(String scope, SimpleFeature feat, Map<String, Integer> occurrences) {
+        return scope + '/' + streamKey(feat, occurrences);
+    }
+
+    /**
+     * Get the seed from which every random stream is derived. If a {@link SimulationContext} with a seed is bound to the current thread, its seed is returned.
+     *
+     * @return the seed from which every random stream is derived
+     */
+    public static long getSeed() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null && ctx.getSeed() != null ? ctx.getSeed() : seed;
+    }
+
+    /**
+     * Set the seed from which every random stream is derived. If a {@link SimulationContext} is bound to the current thread, only the seed of that context is changed and the
+     * current thread gets a new generator seeded with it, until the end of the task that bound the context (see {@link SimulationContext#call(SimulationContext.Task)}).
+     * Otherwise, the global seed is set and the shared generator is reset.
+     *
+     * @param seed new seed
+     */
     public static void setSeed(long seed) {
+        if (SimulationContext.update(ctx -> ctx.withSeed(seed))) {
+            taskRandom.set(new MersenneTwister(seed));
+            return;
+        }
+        Division.seed = seed;
         random = new MersenneTwister(seed);
     }
 
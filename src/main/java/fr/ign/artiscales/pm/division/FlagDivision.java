@@ -1,9 +1,9 @@
 package fr.ign.artiscales.pm.division;
 
+import fr.ign.artiscales.pm.metrics.Metrics;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
-import fr.ign.artiscales.pm.parcelFunction.ParcelState;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
+import fr.ign.artiscales.pm.parcelFunction.RoadAccessIndex;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -180,13 +180,14 @@ public class FlagDivision extends Division {
         building = CollecTransform.selectIntersection(building, p, 30);
         road = CollecTransform.selectIntersection(road, p, 30);
         extLines = (List<LineString>) CollecTransform.selectIntersection(extLines, p, 30);
+        RoadAccessIndex roadAccess = new RoadAccessIndex(road, extLines, exclusionZone);
         // test end condition
         SimpleFeatureBuilder builder = ParcelSchema.addSimulatedField(sf.getFeatureType());
         if ((sf.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) != null && !sf.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()).equals(1))
-                || endCondition(p.getArea(), frontSideWidth(p, road, extLines), maximalArea, minimalWidthContactRoad)) {
+                || endCondition(p.getArea(), roadAccess.getParcelFrontSideWidth(p), maximalArea, minimalWidthContactRoad)) {
             Schemas.setFieldsToSFB(builder, sf);
             builder.set("SIMULATED", 0);
-            result.add(builder.buildFeature(Attribute.makeUniqueId()));
+            result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             return result;
         }
         if (isDEBUG())
@@ -195,15 +196,15 @@ public class FlagDivision extends Division {
         // Split into polygon
         List<Polygon> splitPolygon = OBBDivision.split(p, OBBDivision.computeSplittingPolygon(p, extLines, true, harmony, irregularityCoeff, 0.0, 0, 0.0, 0, 0));
         // If a parcel has no road access, there is a probability to make a flag split
-        if (hasRoadAccess(splitPolygon, road, extLines, exclusionZone)) {
-            Pair<List<Polygon>, List<Polygon>> polGeneratedParcel = flagParcel(splitPolygon, road, building, extLines, exclusionZone, drivewayWidth);
+        if (hasRoadAccess(splitPolygon, roadAccess)) {
+            Pair<List<Polygon>, List<Polygon>> polGeneratedParcel = flagParcel(splitPolygon, roadAccess, building, extLines, drivewayWidth);
             // We check if both parcels have road access, if false we abort the decomposition (that may be useless here...)
             for (Polygon pol1 : polGeneratedParcel.getLeft())
                 for (Polygon pol2 : polGeneratedParcel.getRight())
-                    if (!hasRoadAccess(pol2, road, extLines, exclusionZone) || !hasRoadAccess(pol1, road, extLines, exclusionZone)) {
+                    if (!roadAccess.hasRoadAccess(pol2) || !roadAccess.hasRoadAccess(pol1)) {
                         Schemas.setFieldsToSFB(builder, sf);
                         builder.set("SIMULATED", 0);
-                        result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                        result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
                         return result;
                     }
             splitPolygon = polGeneratedParcel.getLeft(); //we'll continue to split this part
@@ -211,14 +212,14 @@ public class FlagDivision extends Division {
                 Schemas.setFieldsToSFB(builder, sf);
                 builder.set(sf.getFeatureType().getGeometryDescriptor().getLocalName(), pol);
                 builder.set("SIMULATED", 1);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         }
         // All split polygons are split and results added to the output
         for (Polygon pol : splitPolygon) {
             Schemas.setFieldsToSFB(builder, sf);
             builder.set(sf.getFeatureType().getGeometryDescriptor().getLocalName(), pol);
-            result.addAll(doFlagDivision(builder.buildFeature(Attribute.makeUniqueId()), road, building, harmony, irregularityCoeff, maximalArea, minimalWidthContactRoad, drivewayWidth, extLines, exclusionZone));
+            result.addAll(doFlagDivision(builder.buildFeature(ParcelSchema.makeUniqueId()), road, building, harmony, irregularityCoeff, maximalArea, minimalWidthContactRoad, drivewayWidth, extLines, exclusionZone));
         }
         return result;
     }
@@ -227,26 +228,27 @@ public class FlagDivision extends Division {
      * Generate flag parcels: check if parcels have access to road and if not, try to generate a road throughout other parcels.
      *
      * @param splitPolygon  Polygon to split
-     * @param road          input road
+     * @param roadAccess    index of the road space (input road, outside block and void not to be counted as a road)
      * @param building      input building
      * @param ext           outside block
-     * @param exclusionZone void to not be counted as a road
      * @param drivewayWidth width of the simulated driveway
      * @return The output is a pair:<ul>
      * <li> the left part contains parcel with an initial road access and may continue to be decomposed</li>
      * <li> the right part contains parcel with added road access</li>
      * </ul>
      */
-    private static Pair<List<Polygon>, List<Polygon>> flagParcel(List<Polygon> splitPolygon, SimpleFeatureCollection road, SimpleFeatureCollection building, List<LineString> ext, Geometry exclusionZone, double drivewayWidth) {
+    private static Pair<List<Polygon>, List<Polygon>> flagParcel(List<Polygon> splitPolygon, RoadAccessIndex roadAccess, SimpleFeatureCollection building, List<LineString> ext, double drivewayWidth) {
+        Metrics.increment("FlagDivision.flagParcel.calls");
         List<Polygon> right = new ArrayList<>();
 
         // We get the two geometries with and without road access
-        List<Polygon> lPolygonWithRoadAccess = splitPolygon.stream().filter(x -> hasRoadAccess(x, road, ext, exclusionZone)).collect(Collectors.toList());
-        List<Polygon> lPolygonWithNoRoadAccess = splitPolygon.stream().filter(x -> !hasRoadAccess(x, road, ext, exclusionZone)).collect(Collectors.toList());
+        List<Polygon> lPolygonWithRoadAccess = splitPolygon.stream().filter(roadAccess::hasRoadAccess).collect(Collectors.toList());
+        List<Polygon> lPolygonWithNoRoadAccess = splitPolygon.stream().filter(x -> !roadAccess.hasRoadAccess(x)).collect(Collectors.toList());
 
         bouclepoly:
         for (Polygon currentPoly : lPolygonWithNoRoadAccess) {
-            List<Pair<MultiLineString, Polygon>> listMap = generateCandidateForCreatingRoad(currentPoly, lPolygonWithRoadAccess, ext, road);
+            List<Pair<MultiLineString, Polygon>> listMap = generateCandidateForCreatingRoad(currentPoly, lPolygonWithRoadAccess, ext, roadAccess);
+            Metrics.record("FlagDivision.flagParcel.candidates", listMap.size());
             // We order the proposition according to the length (we will try at first to build the road on the shortest side
             listMap.sort(Comparator.comparingDouble(o -> o.getKey().getLength()));
             loopSide:
@@ -270,10 +272,10 @@ public class FlagDivision extends Division {
 
                     // We check if there is a road access for all, if not we abort
                     for (Polygon pol : lPolygonsOut1)
-                        if (!hasRoadAccess(pol, road, ext, exclusionZone))
+                        if (!roadAccess.hasRoadAccess(pol))
                             continue loopSide;
                     for (Polygon pol : lPolygonsOut2)
-                        if (!hasRoadAccess(pol, road, ext, exclusionZone))
+                        if (!roadAccess.hasRoadAccess(pol))
                             continue loopSide;
 
                     // We directly add the result from polygon 2 to the results
@@ -307,7 +309,7 @@ public class FlagDivision extends Division {
      * <li> the right part contains the rest of the polygon</li>
      * </ul>
      */
-    private static List<Pair<MultiLineString, Polygon>> generateCandidateForCreatingRoad(Polygon currentPoly, List<Polygon> lPolygonWithRoadAcces, List<LineString> ext, SimpleFeatureCollection roads) {
+    private static List<Pair<MultiLineString, Polygon>> generateCandidateForCreatingRoad(Polygon currentPoly, List<Polygon> lPolygonWithRoadAcces, List<LineString> ext, RoadAccessIndex roadAccess) {
         // A buffer to get the sides of the polygon with no road access
         Geometry curretPolyBuffered = currentPoly.buffer(0.1);
         Geometry extBuffered = Lines.getListLineStringAsMultiLS(ext, currentPoly.getFactory()).buffer(0.1);
@@ -319,7 +321,7 @@ public class FlagDivision extends Division {
             // We list the segments of the polygon with road access and keep the ones that does not intersect the buffer of new no-road-access polygon and the
             // Then regroup the lines according to their connectivity. We finally add elements to list the correspondence between pears
             Lines.regroupLineStrings(Lines.getSegments(polyWithRoadAcces.getExteriorRing()).stream()
-                            .filter(x -> !curretPolyBuffered.contains(x) && !extBuffered.contains(x) && !isRoadPolygonIntersectsLine(roads, x))
+                            .filter(x -> !curretPolyBuffered.contains(x) && !extBuffered.contains(x) && !roadAccess.isRoadPolygonContains(x))
                             .collect(Collectors.toList()),
                     currentPoly.getFactory()).forEach(x -> listMap.add(new ImmutablePair<>(x, polyWithRoadAcces)));
         }
@@ -342,33 +344,8 @@ public class FlagDivision extends Division {
         return OBBDivision.endCondition(area, frontSideWidth, maximalArea, minimalWidthContactRoad);
     }
 
-    /**
-     * Determine the width of the parcel on road
-     *
-     * @param p input {@link Polygon}
-     * @return the length of contact between parcel and road
-     */
-    private static double frontSideWidth(Polygon p, SimpleFeatureCollection roads, List<LineString> ext) {
-        return ParcelState.getParcelFrontSideWidth(p, roads, ext);
-    }
-
-    private static boolean hasRoadAccess(List<Polygon> splitPolygon, SimpleFeatureCollection road, List<LineString> extLines, Geometry exclusionZone) {
-        return splitPolygon.stream().anyMatch(x -> !hasRoadAccess(x, road, extLines, exclusionZone));
-    }
-
-    /**
-     * Indicate if the given polygon is near the {@link org.locationtech.jts.geom.Polygon#getExteriorRing()} shell of a given Polygon object. This object is the ext parameter,
-     * or if not set, the bounds of the input polygon.
-     * If no roads have been found and a road Geopacakge has been set, we look if a road Geopacakge has been set and if the given road is nearby
-     *
-     * @param poly parcel's polygon
-     */
-    private static boolean hasRoadAccess(Polygon poly, SimpleFeatureCollection roads, List<LineString> ext, Geometry exclusionZone) {
-        return ParcelState.isParcelHasRoadAccess(poly, roads, poly.getFactory().createMultiLineString(ext.toArray(new LineString[0])), exclusionZone);
-    }
-
-    static boolean isRoadPolygonIntersectsLine(SimpleFeatureCollection roads, LineString ls) {
-        return roads != null && Geom.unionGeom(ParcelState.getRoadPolygon(roads)).contains(ls);
+    private static boolean hasRoadAccess(List<Polygon> splitPolygon, RoadAccessIndex roadAccess) {
+        return splitPolygon.stream().anyMatch(x -> !roadAccess.hasRoadAccess(x));
     }
 
 }
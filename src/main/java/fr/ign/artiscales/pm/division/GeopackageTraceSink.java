@@ -0,0 +1,145 @@
+package fr.ign.artiscales.pm.division;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureStore;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geopkg.GeoPkgDataStoreFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write the traced features as layers of a single GeoPackage. Features are written by a dedicated thread, so tracing doesn't wait for the disk unless {@link #MAX_PENDING_LAYERS}
+ * layers are already waiting to be written. Layer names are cleaned up to be valid table names and suffixed with a number if they have already been used.
+ */
+public class GeopackageTraceSink implements TraceSink {
+    /**
+     * Maximal number of layers waiting to be written. Tracing threads wait for the writer beyond that, so pending features don't fill the memory.
+     */
+    public static final int MAX_PENDING_LAYERS = 64;
+    private final File file;
+    private final Semaphore pending = new Semaphore(MAX_PENDING_LAYERS);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pm-trace-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Number of layers written with each name. Only used by the writer thread.
+     */
+    private final Map<String, Integer> layerNames = new HashMap<>();
+    /**
+     * GeoPackage store, opened with the first layer. Only used by the writer thread.
+     */
+    private DataStore store;
+
+    /**
+     * @param file GeoPackage to write. Its parent folders are created with the first layer.
+     */
+    public GeopackageTraceSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void trace(String layer, SimpleFeatureCollection features) {
+        if (features == null || features.isEmpty())
+            return;
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            // a task that timed out is interrupted
+            Thread.currentThread().interrupt();
+            System.out.println("GeopackageTraceSink: interrupted, layer " + layer + " not written");
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    write(layer, features);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            // a task that timed out can still trace after the end of its run
+            System.out.println("GeopackageTraceSink: " + file + " closed, layer " + layer + " not written");
+        }
+    }
+
+    private void write(String layer, SimpleFeatureCollection features) {
+        try {
+            if (store == null) {
+                if (file.getParentFile() != null)
+                    file.getParentFile().mkdirs();
+                Map<String, Object> params = new HashMap<>();
+                params.put(GeoPkgDataStoreFactory.DBTYPE.key, "geopkg");
+                params.put(GeoPkgDataStoreFactory.DATABASE.key, file.getPath());
+                store = new GeoPkgDataStoreFactory().createDataStore(params);
+            }
+            String name = layer.replaceAll("[^A-Za-z0-9_]", "_");
+            int nb = layerNames.merge(name, 1, Integer::sum);
+            if (nb > 1)
+                name = name + "_" + nb;
+            SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+            typeBuilder.init(features.getSchema());
+            typeBuilder.setName(name);
+            SimpleFeatureType type = typeBuilder.buildFeatureType();
+            store.createSchema(type);
+            List<SimpleFeature> retyped = new ArrayList<>();
+            try (SimpleFeatureIterator it = features.features()) {
+                while (it.hasNext())
+                    retyped.add(DataUtilities.reType(type, it.next()));
+            }
+            ((SimpleFeatureStore) store.getFeatureSource(name)).addFeatures(DataUtilities.collection(retyped));
+        } catch (IOException | RuntimeException e) {
+            // errors are reported with the layer instead of being lost in the writer thread
+            System.out.println("GeopackageTraceSink: cannot write layer " + layer + " in " + file);
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.MINUTES)) {
+                System.out.println("GeopackageTraceSink: traces still pending in " + file);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (store != null)
+            store.dispose();
+    }
+
+    /**
+     * Get the GeoPackage the layers are written in. It may not exist yet, as it is created with the first layer.
+     *
+     * @return the GeoPackage file
+     */
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,138 @@
+package fr.ign.artiscales.pm.division;
+
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateArrays;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Clip a polygon by a convex polygon (i.e. the half of an oriented bounding box used by {@link OBBDivision}), one half-plane after the other (Sutherland-Hodgman algorithm). It is a
+ * lot faster than a full overlay, but it is only exact if the boundary of the clipped polygon crosses each edge line of the convex polygon at most twice. That is always the case
+ * for convex parcels and often for near-rectangular ones. Otherwise (or if a polygon has holes), the clipper gives up and the overlay must be used.
+ * <p>
+ * The clipped polygon is expected to be valid, as parcels are.
+ */
+public class HalfPlaneClipper {
+    /**
+     * Distance to a line under which a point is considered on the line
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    /**
+     * Intersect a polygon with a convex polygon.
+     *
+     * @param subject polygon to clip
+     * @param clip    convex polygon
+     * @return the intersection (a single polygon or nothing), or null if the case can't be handled exactly and an overlay is needed
+     */
+    public static List<Polygon> clip(Polygon subject, Polygon clip) {
+        if (subject.isEmpty() || clip.isEmpty() || subject.getNumInteriorRing() > 0 || clip.getNumInteriorRing() > 0)
+            return null;
+        Coordinate[] clipRing = CoordinateArrays.removeRepeatedPoints(clip.getExteriorRing().getCoordinates());
+        if (clipRing.length < 4 || !isConvex(clipRing))
+            return null;
+        if (!subject.getEnvelopeInternal().intersects(clip.getEnvelopeInternal()))
+            return Collections.emptyList();
+        boolean ccw = Orientation.isCCW(clipRing);
+        Coordinate[] subjectRing = subject.getExteriorRing().getCoordinates();
+        // open ring
+        List<Coordinate> ring = new ArrayList<>(Arrays.asList(subjectRing).subList(0, subjectRing.length - 1));
+        for (int i = 0; i < clipRing.length - 1; i++) {
+            ring = clipByHalfPlane(ring, clipRing[i], clipRing[i + 1], ccw);
+            if (ring == null)
+                return null;
+            if (ring.size() < 3)
+                return Collections.emptyList();
+        }
+        List<Coordinate> coords = new ArrayList<>(ring.size() + 1);
+        for (Coordinate c : ring)
+            if (coords.isEmpty() || coords.get(coords.size() - 1).distance(c) > TOLERANCE)
+                coords.add(c);
+        while (coords.size() > 1 && coords.get(coords.size() - 1).distance(coords.get(0)) <= TOLERANCE)
+            coords.remove(coords.size() - 1);
+        if (coords.size() < 3)
+            return Collections.emptyList();
+        coords.add(new Coordinate(coords.get(0)));
+        Coordinate[] shell = coords.toArray(new Coordinate[0]);
+        // same orientation than the overlay results (clockwise shell)
+        if (Orientation.isCCW(shell))
+            CoordinateArrays.reverse(shell);
+        Polygon result = subject.getFactory().createPolygon(shell);
+        if (result.getArea() <= TOLERANCE)
+            return Collections.emptyList();
+        return Collections.singletonList(result);
+    }
+
+    /**
+     * Keep the part of an open ring that is on the inner side of the line (a, b).
+     *
+     * @return the clipped ring, or null if the ring crosses the line more than twice
+     */
+    private static List<Coordinate> clipByHalfPlane(List<Coordinate> ring, Coordinate a, Coordinate b, boolean ccw) {
+        int n = ring.size();
+        double length = a.distance(b);
+        double[] dist = new double[n];
+        boolean allInside = true;
+        for (int i = 0; i < n; i++) {
+            Coordinate p = ring.get(i);
+            double d = ((b.x - a.x) * (p.y - a.y) - (b.y - a.y) * (p.x - a.x)) / length;
+            if (!ccw)
+                d = -d;
+            if (Math.abs(d) < TOLERANCE)
+                d = 0;
+            dist[i] = d;
+            if (d < 0)
+                allInside = false;
+        }
+        if (allInside)
+            return ring;
+        int exits = 0;
+        for (int i = 0; i < n; i++)
+            if (dist[i] >= 0 && dist[(i + 1) % n] < 0)
+                exits++;
+        // more than one exit means that the result would be made of several polygons (or of a polygon with a degenerated bridge)
+        if (exits > 1)
+            return null;
+        List<Coordinate> out = new ArrayList<>(n + 2);
+        for (int i = 0; i < n; i++) {
+            Coordinate cur = ring.get(i);
+            Coordinate next = ring.get((i + 1) % n);
+            double dc = dist[i];
+            double dn = dist[(i + 1) % n];
+            if (dc >= 0)
+                out.add(cur);
+            if ((dc > 0 && dn < 0) || (dc < 0 && dn > 0)) {
+                double t = dc / (dc - dn);
+                out.add(new Coordinate(cur.x + t * (next.x - cur.x), cur.y + t * (next.y - cur.y)));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Check if a closed ring without repeated points is convex (collinear points are accepted).
+     */
+    static boolean isConvex(Coordinate[] ring) {
+        int n = ring.length - 1;
+        int sign = 0;
+        for (int i = 0; i < n; i++) {
+            Coordinate a = ring[i];
+            Coordinate b = ring[(i + 1) % n];
+            Coordinate c = ring[(i + 2) % n];
+            double cross = (b.x - a.x) * (c.y - b.y) - (b.y - a.y) * (c.x - b.x);
+            if (Math.abs(cross) < TOLERANCE)
+                continue;
+            int s = cross > 0 ? 1 : -1;
+            if (sign == 0)
+                sign = s;
+            else if (s != sign)
+                return false;
+        }
+        return sign != 0;
+    }
+}
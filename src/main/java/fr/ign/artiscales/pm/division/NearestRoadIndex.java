@@ -0,0 +1,154 @@
+package fr.ign.artiscales.pm.division;
+
+import fr.ign.artiscales.pm.parcelFunction.FeatureIndex;
+import fr.ign.artiscales.tools.graph.analysis.FindObjectInDirection;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Road lookup of the frontage definition of {@link StraightSkeletonDivision}. Roads are read once and stored in a {@link FeatureIndex}: the search of the road in front of an edge is
+ * only made among the roads whose envelope is closer than the search distance, in the order of the input collection. Name and importance of the roads are parsed once.
+ * <p>
+ * An index belongs to its caller, which builds it once for the parcels of a step and passes it to every decomposition. Once built, an index can be queried concurrently. The
+ * road collection must not be changed while it is indexed.
+ */
+public class NearestRoadIndex {
+    private final SimpleFeatureType schema;
+    private final String nameAttribute;
+    private final String importanceAttribute;
+    private final FeatureIndex roads;
+    /**
+     * Name and importance of each road, parsed at their first use
+     */
+    private final Pair<String, Double>[] attributes;
+    /**
+     * Index whose roads come before the roads of this one. Can be null.
+     */
+    private final NearestRoadIndex base;
+
+    /**
+     * Read and index a road collection.
+     *
+     * @param roads               road collection (can be null)
+     * @param nameAttribute       attribute setting the name of a street
+     * @param importanceAttribute attribute setting the importance of a street
+     */
+    public NearestRoadIndex(SimpleFeatureCollection roads, String nameAttribute, String importanceAttribute) {
+        this(null, roads == null ? null : roads.getSchema(), new FeatureIndex(roads), nameAttribute, importanceAttribute);
+    }
+
+    @SuppressWarnings("unchecked")
+    private NearestRoadIndex(NearestRoadIndex base, SimpleFeatureType schema, FeatureIndex roads, String nameAttribute, String importanceAttribute) {
+        this.base = base;
+        this.schema = schema;
+        this.nameAttribute = nameAttribute;
+        this.importanceAttribute = importanceAttribute;
+        this.roads = roads;
+        this.attributes = new Pair[roads.size()];
+    }
+
+    /**
+     * Get an index with additional roads (i.e. generated peripheral roads). This index is reused and not modified.
+     *
+     * @param added roads to add. Must have the schema of the indexed roads
+     * @return an index of the roads of this index followed by the added roads
+     */
+    public NearestRoadIndex withRoads(List<SimpleFeature> added) {
+        return new NearestRoadIndex(this, schema, new FeatureIndex(new ArrayList<>(added)), nameAttribute, importanceAttribute);
+    }
+
+    /**
+     * Find the road in front of a line (see {@link FindObjectInDirection}) and get its name and importance.
+     *
+     * @param l           line (usually an exterior edge of a straight skeleton)
+     * @param polygon     polygon the line belongs to
+     * @param maxDistance maximal distance of the road
+     * @return the name (<i>unknown</i> if not set) and the importance of the road, or an empty optional if no road has been found
+     */
+    public Optional<Pair<String, Double>> findAttributes(LineString l, Polygon polygon, double maxDistance) {
+        if (schema == null)
+            return Optional.empty();
+        Envelope env = new Envelope(l.getEnvelopeInternal());
+        env.expandBy(maxDistance);
+        List<SimpleFeature> candidates = new ArrayList<>();
+        List<Pair<NearestRoadIndex, Integer>> positions = new ArrayList<>();
+        collect(env, candidates, positions);
+        Optional<SimpleFeature> road = FindObjectInDirection.find(l, polygon, new ListFeatureCollection(schema, candidates), maxDistance, importanceAttribute);
+        if (road.isEmpty())
+            return Optional.empty();
+        for (int i = 0; i < candidates.size(); i++)
+            if (candidates.get(i) == road.get())
+                return Optional.of(positions.get(i).getLeft().getAttributes(positions.get(i).getRight()));
+        return Optional.of(parseAttributes(road.get()));
+    }
+
+    /**
+     * @return every indexed road, in the order of the input collections
+     */
+    public SimpleFeatureCollection getRoads() {
+        List<SimpleFeature> all = new ArrayList<>();
+        addRoads(all);
+        return new ListFeatureCollection(schema, all);
+    }
+
+    private void addRoads(List<SimpleFeature> all) {
+        if (base != null)
+            base.addRoads(all);
+        all.addAll(roads.getFeatures());
+    }
+
+    /**
+     * Select the roads whose envelope intersects the given one, in the order of the input collections.
+     *
+     * @param env envelope
+     * @return the roads
+     */
+    public List<SimpleFeature> select(Envelope env) {
+        List<SimpleFeature> result = new ArrayList<>();
+        collect(env, result, new ArrayList<>());
+        return result;
+    }
+
+    /**
+     * @return schema of the roads, or null if no road collection was given
+     */
+    public SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    private void collect(Envelope env, List<SimpleFeature> result, List<Pair<NearestRoadIndex, Integer>> positions) {
+        if (base != null)
+            base.collect(env, result, positions);
+        for (int i : roads.candidates(env)) {
+            result.add(roads.get(i));
+            positions.add(new ImmutablePair<>(this, i));
+        }
+    }
+
+    private Pair<String, Double> getAttributes(int i) {
+        Pair<String, Double> a = attributes[i];
+        if (a == null) {
+            // immutable pairs can be published without synchronization: a race only parses the attributes twice
+            a = parseAttributes(roads.get(i));
+            attributes[i] = a;
+        }
+        return a;
+    }
+
+    private Pair<String, Double> parseAttributes(SimpleFeature road) {
+        String name = (String) road.getAttribute(nameAttribute);
+        String impo = (String) road.getAttribute(importanceAttribute);
+        return new ImmutablePair<>(name == null ? "unknown" : name, Double.parseDouble(impo.replaceAll(",", ".")));
+    }
+}
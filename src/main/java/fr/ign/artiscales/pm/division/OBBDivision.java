@@ -1,16 +1,16 @@
 package fr.ign.artiscales.pm.division;
 
+import fr.ign.artiscales.pm.metrics.Metrics;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
-import fr.ign.artiscales.pm.parcelFunction.ParcelState;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
+import fr.ign.artiscales.pm.parcelFunction.RoadAccessIndex;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.MinimalBoundingRectangle;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Tree;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecTransform;
-import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Lines;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Polygons;
 import fr.ign.artiscales.tools.geometryGeneration.CityGeneration;
 import fr.ign.artiscales.tools.parameter.ProfileUrbanFabric;
@@ -18,30 +18,43 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.geotools.data.DataStore;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Polygon;
 import org.opengis.feature.simple.SimpleFeature;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Oriented Bounding Box algorithm implementation with methods to generate road network
  */
 public class OBBDivision extends Division {
 
+    /**
+     * Number of workers used by the parallel split.
+     */
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
 //    public static void main(String[] args) throws Exception {
 //        setDEBUG(true);
 //        File rootFolder = new File("src/main/resources/TestScenario/");
@@ -78,6 +91,11 @@ public class OBBDivision extends Division {
     /**
      * Split the parcels into sub parcels. The parcel that are going to be cut must have a field matching the {@link MarkParcelAttributeFromPosition#getMarkFieldName()} field or
      * "SPLIT" by default with the value of 1. Add a <i>SIMULATED</i> field.
+     * <p>
+     * Since version 1.3, each parcel is decomposed with its own random stream (see {@link Division#streamSeed(String)}) and its own copy of <i>extBlock</i>: the lanes generated
+     * in a parcel aren't seen by the next parcels anymore. The result is the one of
+     * {@link #splitParcelsParallel(SimpleFeatureCollection, SimpleFeatureCollection, double, double, double, double, List, double, int, double, boolean, int)}, but differs from
+     * the one of the previous versions for the same seed.
      *
      * @param inputCollection         {@link SimpleFeatureCollection} of parcels. Must have been marked in order to be simulated
      * @param roads                   Road layer (can be null)
@@ -101,14 +119,87 @@ public class OBBDivision extends Division {
             return inputCollection;
         }
         DefaultFeatureCollection result = new DefaultFeatureCollection();
+        Map<String, Integer> occurrences = new HashMap<>();
         try (SimpleFeatureIterator featIt = inputCollection.features()) {
-            while (featIt.hasNext())
-                result.addAll(splitParcel(featIt.next(), roads, maximalArea, minimalWidthContactRoad, harmony, irregularityCoeff, extBlock,
-                        laneWidth, streetLane, streetWidth, forceStreetAccess, blockShape));
+            while (featIt.hasNext()) {
+                SimpleFeature feat = featIt.next();
+                addParcelParts(result, feat, withRandom(streamKey(feat, occurrences), () -> decomposeParcel(feat, roads, maximalArea, minimalWidthContactRoad, harmony, irregularityCoeff,
+                        extBlock != null ? new ArrayList<>(extBlock) : null, laneWidth, streetLane, streetWidth, forceStreetAccess, blockShape)));
+            }
         }
         return result;
     }
 
+    /**
+     * Split the parcels into sub parcels using a {@link ForkJoinPool} of {@link #getParallelism()} workers. See
+     * {@link #splitParcelsParallel(SimpleFeatureCollection, SimpleFeatureCollection, double, double, double, double, List, double, int, double, boolean, int, ForkJoinPool)}.
+     */
+    public static SimpleFeatureCollection splitParcelsParallel(SimpleFeatureCollection inputCollection, SimpleFeatureCollection roads, double maximalArea, double minimalWidthContactRoad, double harmony, double irregularityCoeff,
+                                                               List<LineString> extBlock, double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int blockShape) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return splitParcelsParallel(inputCollection, roads, maximalArea, minimalWidthContactRoad, harmony, irregularityCoeff, extBlock, laneWidth, streetLane, streetWidth,
+                    forceStreetAccess, blockShape, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Split the parcels into sub parcels, each parcel being decomposed in a separate task of the given pool. Each task gets its own random stream, derived from the
+     * global seed and the parcel's ID (see {@link Division#streamSeed(String)}), and its own copy of the exterior lines. Results are merged back in the input order, so the output is the same as
+     * {@link #splitParcels(SimpleFeatureCollection, SimpleFeatureCollection, double, double, double, double, List, double, int, double, boolean, int)} for a given seed.
+     *
+     * @param inputCollection         {@link SimpleFeatureCollection} of parcels. Must have been marked in order to be simulated
+     * @param roads                   Road layer (can be null)
+     * @param maximalArea             Area of the parcel under which the parcel won't be anymore cut
+     * @param minimalWidthContactRoad Width of the parcel under which the parcel won't be anymore cut
+     * @param harmony                 intensity of the forcing of a parcel to be connected with a road
+     * @param irregularityCoeff       irregularity into parcel shape
+     * @param extBlock                Exterior boundaries of the parcel plan (representing road or public space)
+     * @param laneWidth               Width of the small streets
+     * @param streetLane              Level of decomposition in which large streets are generated
+     * @param streetWidth             Width of the large streets
+     * @param forceStreetAccess       Is the polygon should be turned in order to assure the connection with the road ? Also regarding the <i>harmony coeff</i>. Most of cases, it's yes
+     * @param blockShape              Number of last iteration row for which no street network is generated
+     * @param pool                    pool running the decomposition tasks
+     * @return a collection of subdivised parcels
+     * @throws IllegalStateException if a decomposition failed or if the calling thread has been interrupted
+     */
+    public static SimpleFeatureCollection splitParcelsParallel(SimpleFeatureCollection inputCollection, SimpleFeatureCollection roads, double maximalArea, double minimalWidthContactRoad, double harmony, double irregularityCoeff,
+                                                               List<LineString> extBlock, double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int blockShape, ForkJoinPool pool) {
+        if (!CollecMgmt.isCollecContainsAttribute(inputCollection, MarkParcelAttributeFromPosition.getMarkFieldName()) || MarkParcelAttributeFromPosition.isNoParcelMarked(inputCollection)) {
+            if (isDEBUG())
+                System.out.println("splitParcelsParallel: no parcel marked");
+            return inputCollection;
+        }
+        SimpleFeature[] feats = inputCollection.toArray(new SimpleFeature[0]);
+        Map<String, Integer> occurrences = new HashMap<>();
+        long[] seeds = new long[feats.length];
+        for (int i = 0; i < feats.length; i++)
+            seeds[i] = streamSeed(streamKey(feats[i], occurrences));
+        // roads are loaded in memory to be read concurrently
+        SimpleFeatureCollection roadsInMemory = roads != null ? DataUtilities.collection(roads) : null;
+        // the context isn't inherited by the workers
+        SimulationContext ctx = SimulationContext.current();
+        List<List<Polygon>> parts;
+        try {
+            parts = pool.submit(() -> IntStream.range(0, feats.length).parallel()
+                    .mapToObj(i -> SimulationContext.callWith(ctx, () -> withRandom(seeds[i], () -> decomposeParcel(feats[i], roadsInMemory, maximalArea, minimalWidthContactRoad,
+                            harmony, irregularityCoeff, extBlock != null ? new ArrayList<>(extBlock) : null, laneWidth, streetLane, streetWidth, forceStreetAccess, blockShape))))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("splitParcelsParallel: interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("splitParcelsParallel: parcel decomposition failed", e.getCause());
+        }
+        DefaultFeatureCollection result = new DefaultFeatureCollection();
+        for (int i = 0; i < feats.length; i++)
+            addParcelParts(result, feats[i], parts.get(i));
+        return result;
+    }
+
     /**
      * Split the parcels into sub parcels. The parcel that are going to be cut must have a field matching the {@link MarkParcelAttributeFromPosition#getMarkFieldName()} field or
      * "SPLIT" by default with the value of 1. Add a <i>SIMULATED</i> field.
@@ -155,33 +246,90 @@ public class OBBDivision extends Division {
     public static SimpleFeatureCollection splitParcel(SimpleFeature featToSplit, SimpleFeatureCollection roads, double maximalArea, double minimalWidthContactRoad, double harmonyCoeff, double irregularityCoeff,
                                                       List<LineString> extBlock, double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int blockShape) {
         DefaultFeatureCollection result = new DefaultFeatureCollection();
+        addParcelParts(result, featToSplit, decomposeParcel(featToSplit, roads, maximalArea, minimalWidthContactRoad, harmonyCoeff, irregularityCoeff, extBlock, laneWidth,
+                streetLane, streetWidth, forceStreetAccess, blockShape));
+        return result;
+    }
+
+    /**
+     * Decompose a single parcel with the OBB algorithm. Parameters are the same than
+     * {@link #splitParcel(SimpleFeature, SimpleFeatureCollection, double, double, double, double, List, double, int, double, boolean, int)}.
+     *
+     * @return the polygons of the decomposition, or null if the parcel isn't marked to be split
+     */
+    private static List<Polygon> decomposeParcel(SimpleFeature featToSplit, SimpleFeatureCollection roads, double maximalArea, double minimalWidthContactRoad, double harmonyCoeff,
+                                                 double irregularityCoeff, List<LineString> extBlock, double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int blockShape) {
+        if (featToSplit.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) == null
+                || (int) featToSplit.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) != 1)
+            return null;
+        if (isDEBUG())
+            System.out.println("OBB division of " + featToSplit);
+        Polygon polygon = Polygons.getPolygon((Geometry) featToSplit.getDefaultGeometry());
+        SimpleFeatureCollection parcelRoads = (roads != null && !roads.isEmpty()) ? CollecTransform.selectIntersection(roads, (Geometry) featToSplit.getDefaultGeometry()) : null;
+        // the first pass never generates roads and is only used to get the median decomposition level. It draws from the current stream, and the second pass from a stream
+        // derived from it: the second pass doesn't replay the draws of the first one
+        List<Polygon> firstPass = new ArrayList<>();
+        DescriptiveStatistics dS = new DescriptiveStatistics();
+        decomposeIterative(polygon, extBlock, new RoadAccessIndex(parcelRoads, extBlock), maximalArea, minimalWidthContactRoad, irregularityCoeff, harmonyCoeff, laneWidth,
+                streetLane, streetWidth, forceStreetAccess, 0, blockShape, (leaf, level) -> firstPass.add(leaf), dS::addValue);
+        long secondPassSeed = getRandom().nextLong();
+        int decompositionLevelWithLane = (int) dS.getPercentile(50) - blockShape;
+        int decompositionLevelWithStreet = (int) dS.getPercentile(50) - streetLane;
+        // without irregularity, splits don't depend on the random numbers. If no lane is generated from the first level either, the second pass would give the exact same leaves
+        if (decompositionLevelWithLane <= blockShape && irregularityCoeff == 0)
+            return firstPass;
+        List<Polygon> decomposition = new ArrayList<>();
+        withRandom(secondPassSeed, () -> {
+            decomposeIterative(polygon, extBlock, new RoadAccessIndex(parcelRoads, extBlock), maximalArea, minimalWidthContactRoad, irregularityCoeff, harmonyCoeff, laneWidth,
+                    decompositionLevelWithStreet, streetWidth, forceStreetAccess, decompositionLevelWithLane, blockShape, (leaf, level) -> decomposition.add(leaf), null);
+            return null;
+        });
+        return decomposition;
+    }
+
+    /**
+     * Add the result of a parcel decomposition to a collection, with a <i>SIMULATED</i> field.
+     *
+     * @param result      collection to fill
+     * @param featToSplit initial parcel
+     * @param parts       polygons of the decomposition. If null, the initial parcel is added unchanged.
+     */
+    private static void addParcelParts(DefaultFeatureCollection result, SimpleFeature featToSplit, List<Polygon> parts) {
         SimpleFeatureBuilder builder = ParcelSchema.addSimulatedField(featToSplit.getFeatureType());
         // if the parcel is not to be split, we add it on the final result and continue to iterate through the parcels.
-        if (featToSplit.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) == null
-                || (int) featToSplit.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) != 1) {
+        if (parts == null) {
             Schemas.setFieldsToSFB(builder, featToSplit);
             builder.set("SIMULATED", 0);
-            result.add(builder.buildFeature(Attribute.makeUniqueId()));
-        } else {
-            if (isDEBUG())
-                System.out.println("OBB division of " + featToSplit);
-            Polygon polygon = Polygons.getPolygon((Geometry) featToSplit.getDefaultGeometry());
-            DescriptiveStatistics dS = new DescriptiveStatistics();
-            OBBDivision.decompose(polygon, extBlock, (roads != null && !roads.isEmpty()) ? CollecTransform.selectIntersection(roads, (Geometry) featToSplit.getDefaultGeometry()) : null,
-                            maximalArea, minimalWidthContactRoad, irregularityCoeff, harmonyCoeff, laneWidth, streetLane, streetWidth, forceStreetAccess, 0, blockShape)
-                    .stream().forEach(c -> dS.addValue(c.getValue()));
-            int decompositionLevelWithLane = (int) dS.getPercentile(50) - blockShape;
-            int decompositionLevelWithStreet = (int) dS.getPercentile(50) - streetLane;
-            OBBDivision.decompose(polygon, extBlock, (roads != null && !roads.isEmpty()) ? CollecTransform.selectIntersection(roads, (Geometry) featToSplit.getDefaultGeometry()) : null,
-                            maximalArea, minimalWidthContactRoad, irregularityCoeff, harmonyCoeff, laneWidth, decompositionLevelWithStreet, streetWidth, forceStreetAccess, decompositionLevelWithLane, blockShape)
-                    .childrenStream().forEach(p -> {
-                        Schemas.setFieldsToSFB(builder, featToSplit);
-                        builder.set("SIMULATED", 1);
-                        builder.set(featToSplit.getFeatureType().getGeometryDescriptor().getLocalName(), p.getKey());
-                        result.add(builder.buildFeature(Attribute.makeUniqueId()));
-                    });
+            result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
+            return;
         }
-        return result;
+        for (Polygon p : parts) {
+            Schemas.setFieldsToSFB(builder, featToSplit);
+            builder.set("SIMULATED", 1);
+            builder.set(featToSplit.getFeatureType().getGeometryDescriptor().getLocalName(), p);
+            result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
+        }
+    }
+
+    /**
+     * Get the number of workers used by
+     * {@link #splitParcelsParallel(SimpleFeatureCollection, SimpleFeatureCollection, double, double, double, double, List, double, int, double, boolean, int)}.
+     *
+     * @return number of workers
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of workers used by
+     * {@link #splitParcelsParallel(SimpleFeatureCollection, SimpleFeatureCollection, double, double, double, double, List, double, int, double, boolean, int)}.
+     * Default is the number of available processors.
+     *
+     * @param parallelism number of workers
+     */
+    public static void setParallelism(int parallelism) {
+        OBBDivision.parallelism = parallelism;
     }
 
     /**
@@ -260,13 +408,20 @@ public class OBBDivision extends Division {
     }
 
     /**
-     * Split the input polygon by another.
+     * Split the input polygon by another. If the second polygon is convex (the half of an oriented bounding box) and the first one crosses its edges at most twice, the result is
+     * directly computed with the {@link HalfPlaneClipper}. Otherwise, a full overlay is made.
      *
      * @param poly1 first polygon
      * @param poly2 second polygon
      * @return The splitting of Polygon1 with Polygon2
      */
     static List<Polygon> split(Polygon poly1, Polygon poly2) {
+        List<Polygon> clipped = HalfPlaneClipper.clip(poly1, poly2);
+        if (clipped != null) {
+            Metrics.increment("OBBDivision.split.halfPlane");
+            return clipped;
+        }
+        Metrics.increment("OBBDivision.split.overlay");
         Geometry intersection = Geom.safeIntersection(Arrays.asList(poly1, poly2));
         if (intersection instanceof Polygon)
             return Collections.singletonList((Polygon) intersection);
@@ -319,8 +474,22 @@ public class OBBDivision extends Division {
      */
     public static Tree<Pair<Polygon, Integer>> decompose(Polygon polygon, List<LineString> ext, SimpleFeatureCollection roads, double maximalArea, double minimalWidthContactRoad, double irregularityCoeff, double harmony,
                                                          double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int decompositionLevelWithLane, int currentDecompositionLevel) {
+        return decompose(polygon, ext, new RoadAccessIndex(roads, ext), maximalArea, minimalWidthContactRoad, irregularityCoeff, harmony, laneWidth, streetLane, streetWidth,
+                forceStreetAccess, decompositionLevelWithLane, currentDecompositionLevel);
+    }
+
+    /**
+     * Main method for OBB decomposition, with the road space already indexed.
+     *
+     * @param roadAccess index of the roads and of the <i>ext</i> lines. Roads generated by the decomposition are added to <i>ext</i> and picked up by the index.
+     * @see #decompose(Polygon, List, SimpleFeatureCollection, double, double, double, double, double, int, double, boolean, int, int)
+     */
+    static Tree<Pair<Polygon, Integer>> decompose(Polygon polygon, List<LineString> ext, RoadAccessIndex roadAccess, double maximalArea, double minimalWidthContactRoad, double irregularityCoeff, double harmony,
+                                                  double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int decompositionLevelWithLane, int currentDecompositionLevel) {
+        Metrics.increment("OBBDivision.decompose.calls");
+        Metrics.record("OBBDivision.decompose.depth", currentDecompositionLevel);
         double area = polygon.getArea();
-        double frontSideWidth = ParcelState.getParcelFrontSideWidth(polygon, roads, ext);
+        double frontSideWidth = roadAccess.getParcelFrontSideWidth(polygon);
         if (endCondition(area, frontSideWidth, maximalArea, minimalWidthContactRoad))
             return new Tree<>(new ImmutablePair<>(polygon, currentDecompositionLevel));
         // Determination of splitting polygon (it is a splitting line in the article)
@@ -329,13 +498,62 @@ public class OBBDivision extends Division {
         List<Polygon> splitPolygons = split(polygon, splittingPolygon);
         // If a parcel has no road access, there is a probability to make a perpendicular split
         // Probability to make a perpendicular split if no road access or ratio between larger and smaller size of OBB higher than Epsilon
-        if ((forceStreetAccess && ((!ParcelState.isParcelHasRoadAccess(splitPolygons.get(0), null, Lines.getListLineStringAsMultiLS(ext, new GeometryFactory()))
-                || !ParcelState.isParcelHasRoadAccess(splitPolygons.get(1), null, Lines.getListLineStringAsMultiLS(ext, new GeometryFactory())))))) {
+        if ((forceStreetAccess && ((!roadAccess.isNearExterior(splitPolygons.get(0)) || !roadAccess.isNearExterior(splitPolygons.get(1)))))) {
             // Same steps but with different splitting geometries
             splittingPolygon = computeSplittingPolygon(polygon, ext, false, harmony, irregularityCoeff, laneWidth, streetLane, streetWidth, decompositionLevelWithLane, currentDecompositionLevel);
             splitPolygons = split(polygon, splittingPolygon);
         }
         // All split polygons are split and results added to the output
-        return new Tree<>(new ImmutablePair<>(polygon, currentDecompositionLevel), splitPolygons.stream().map(pol -> decompose(pol, ext, roads, maximalArea, minimalWidthContactRoad, irregularityCoeff, harmony, laneWidth, streetLane, streetWidth, forceStreetAccess, decompositionLevelWithLane, currentDecompositionLevel + 1)).collect(Collectors.toList()));
+        return new Tree<>(new ImmutablePair<>(polygon, currentDecompositionLevel), splitPolygons.stream().map(pol -> decompose(pol, ext, roadAccess, maximalArea, minimalWidthContactRoad, irregularityCoeff, harmony, laneWidth, streetLane, streetWidth, forceStreetAccess, decompositionLevelWithLane, currentDecompositionLevel + 1)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Iterative OBB decomposition. Instead of building a {@link Tree}, polygons waiting to be decomposed are kept in a work stack and final polygons are given to a consumer as soon as
+     * they are found. Polygons are split in the same order than with the recursive
+     * {@link #decompose(Polygon, List, RoadAccessIndex, double, double, double, double, double, int, double, boolean, int, int)} (depth first, children in order): random numbers
+     * are drawn and lanes are added to <i>ext</i> in the same order, so the leaves are the same than the ones of {@link Tree#childrenStream()}, in the same order.
+     *
+     * @param leafConsumer  receives every final polygon with its decomposition level
+     * @param levelConsumer receives the decomposition level of every polygon of the decomposition, final or not (the values of {@link Tree#stream()}). Can be null
+     * @see #decompose(Polygon, List, SimpleFeatureCollection, double, double, double, double, double, int, double, boolean, int, int)
+     */
+    static void decomposeIterative(Polygon polygon, List<LineString> ext, RoadAccessIndex roadAccess, double maximalArea, double minimalWidthContactRoad, double irregularityCoeff,
+                                   double harmony, double laneWidth, int streetLane, double streetWidth, boolean forceStreetAccess, int decompositionLevelWithLane,
+                                   int currentDecompositionLevel, ObjIntConsumer<Polygon> leafConsumer, IntConsumer levelConsumer) {
+        ArrayDeque<Polygon> pending = new ArrayDeque<>();
+        // decomposition level of the pending polygons, levels[i] being the one of the i-th polygon from the bottom of the stack
+        int[] levels = new int[16];
+        pending.push(polygon);
+        levels[0] = currentDecompositionLevel;
+        while (!pending.isEmpty()) {
+            int level = levels[pending.size() - 1];
+            Polygon pol = pending.pop();
+            Metrics.increment("OBBDivision.decompose.calls");
+            Metrics.record("OBBDivision.decompose.depth", level);
+            if (levelConsumer != null)
+                levelConsumer.accept(level);
+            if (endCondition(pol.getArea(), roadAccess.getParcelFrontSideWidth(pol), maximalArea, minimalWidthContactRoad)) {
+                leafConsumer.accept(pol, level);
+                continue;
+            }
+            List<Polygon> splitPolygons = split(pol, computeSplittingPolygon(pol, ext, true, harmony, irregularityCoeff, laneWidth, streetLane, streetWidth,
+                    decompositionLevelWithLane, level));
+            if ((forceStreetAccess && ((!roadAccess.isNearExterior(splitPolygons.get(0)) || !roadAccess.isNearExterior(splitPolygons.get(1))))))
+                splitPolygons = split(pol, computeSplittingPolygon(pol, ext, false, harmony, irregularityCoeff, laneWidth, streetLane, streetWidth,
+                        decompositionLevelWithLane, level));
+            // a polygon that can't be split is a leaf of the tree
+            if (splitPolygons.isEmpty()) {
+                leafConsumer.accept(pol, level);
+                continue;
+            }
+            // children are pushed in reverse order so that the first one is decomposed first
+            for (int i = splitPolygons.size() - 1; i >= 0; i--) {
+                int depth = pending.size();
+                if (depth == levels.length)
+                    levels = Arrays.copyOf(levels, depth * 2);
+                levels[depth] = level + 1;
+                pending.push(splitPolygons.get(i));
+            }
+        }
     }
 }
@@ -1,6 +1,6 @@
 package fr.ign.artiscales.pm.division;
 
-import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecTransform;
 import fr.ign.artiscales.tools.geometryGeneration.CityGeneration;
@@ -74,15 +74,18 @@ public class OBBThenSS extends Division {
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        MarkParcelAttributeFromPosition.setMarkFieldName("SIMULATED");
-        StraightSkeletonDivision.setGeneratePeripheralRoad(true);
-        try (SimpleFeatureIterator it = obbSplit.features()) {
-            while (it.hasNext())
-                result.addAll(StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(it.next(), roads, "NOM_VOIE_G", "IMPORTANCE", 0,
-                        profile.getMaxDistanceForNearestRoad(), profile.getMinimalArea(), 12, profile.getMaxWidth(),
-                        (profile.getIrregularityCoeff() == 0) ? 0.1 : profile.getIrregularityCoeff(), profile.getLaneWidth(), "finalState"));
-        }
-        MarkParcelAttributeFromPosition.setMarkFieldName("SPLIT");
+        // parcels created by the OBB are marked with the SIMULATED field. The configuration change only lasts for the straight skeleton decomposition.
+        // roads are indexed once for every OBB parcel
+        NearestRoadIndex roadIndex = new NearestRoadIndex(roads, "NOM_VOIE_G", "IMPORTANCE");
+        SimulationContext.get().withMarkFieldName("SIMULATED").withGeneratePeripheralRoad(true).call(() -> {
+            try (SimpleFeatureIterator it = obbSplit.features()) {
+                while (it.hasNext())
+                    result.addAll(StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(it.next(), roadIndex, "NOM_VOIE_G", "IMPORTANCE", 0,
+                            profile.getMaxDistanceForNearestRoad(), profile.getMinimalArea(), 12, profile.getMaxWidth(),
+                            (profile.getIrregularityCoeff() == 0) ? 0.1 : profile.getIrregularityCoeff(), profile.getLaneWidth(), "finalState"));
+            }
+            return result;
+        });
         return result;
     }
 }
@@ -0,0 +1,296 @@
+package fr.ign.artiscales.pm.division;
+
+import fr.ign.artiscales.pm.metrics.Metrics;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.WKBWriter;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of the Straight Skeleton decompositions (skeleton graph and β-strips). The width, area and irregularity parameters of a simulation are only used when the β-strips are
+ * sliced into parcels, so a zone decomposed again with the same geometry, depth, precision and roads (i.e. in the replications of a calibration) goes straight to slicing.
+ * <p>
+ * Entries are addressed by a SHA-256 hash of the normalized WKB of the polygon, of the decomposition parameters and of the roads close enough to be found by the frontage
+ * definition. Decompositions are kept in memory (least recently used are evicted first) and optionally written in a folder, to be shared by several JVMs or runs. Files of the
+ * folder must be removed when the decomposition code changes. Failed decompositions are only remembered in memory. The cache is disabled by default.
+ * <p>
+ * The cache keeps serialized snapshots of the decompositions, which are never modified: every call gets its own decomposition, read from the snapshot, that it can slice
+ * without synchronization.
+ */
+public class SkeletonCache {
+    /**
+     * Version of the files written in the cache folder
+     */
+    private static final int FORMAT = 1;
+    /**
+     * Value of a decomposition that failed
+     */
+    private static final byte[] FAILED = new byte[0];
+    /**
+     * Maximal number of decompositions kept in memory. 0 disables the memory cache.
+     */
+    private static int cacheSize = 0;
+    /**
+     * Folder where decompositions are written. Null disables the disk cache.
+     */
+    private static File folder;
+    private static final Map<String, byte[]> memory = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > getCacheSize();
+        }
+    });
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the decomposition of a polygon until its β-strips, from the cache if it has already been computed. See
+     * {@link StraightSkeletonDivision#StraightSkeletonDivision(Polygon, SimpleFeatureCollection, String, String, double, double, int, double, boolean, double, String)} for the
+     * parameters. The returned decomposition belongs to the caller: it is never shared with other threads.
+     *
+     * @return the decomposition of the polygon
+     * @throws StraightSkeletonException if straight skeleton has problems to be generated (or had problems when it was cached)
+     * @throws EdgeException             if edges have problems
+     */
+    public static StraightSkeletonDivision decompose(Polygon p, SimpleFeatureCollection roads, String roadNameAttribute, String roadImportanceAttribute, double maxDepth,
+                                                     double maxDistanceForNearestRoad, int numberOfDigits, double toleranceLevel, boolean generatePeripheralRoad,
+                                                     double widthRoad, String name) throws StraightSkeletonException, EdgeException {
+        return decompose(p, new NearestRoadIndex(roads, roadNameAttribute, roadImportanceAttribute), roadNameAttribute, roadImportanceAttribute, maxDepth,
+                maxDistanceForNearestRoad, numberOfDigits, toleranceLevel, generatePeripheralRoad, widthRoad, name);
+    }
+
+    static StraightSkeletonDivision decompose(Polygon p, NearestRoadIndex roads, String roadNameAttribute, String roadImportanceAttribute, double maxDepth,
+                                              double maxDistanceForNearestRoad, int numberOfDigits, double toleranceLevel, boolean generatePeripheralRoad,
+                                              double widthRoad, String name) throws StraightSkeletonException, EdgeException {
+        if (!isEnabled())
+            return new StraightSkeletonDivision(p, roads, roadNameAttribute, roadImportanceAttribute, maxDepth, maxDistanceForNearestRoad, numberOfDigits, toleranceLevel,
+                    generatePeripheralRoad, widthRoad, name);
+        String key = key(p, roads, roadNameAttribute, roadImportanceAttribute, maxDepth, maxDistanceForNearestRoad, numberOfDigits, toleranceLevel, generatePeripheralRoad, widthRoad);
+        File folder = getFolder();
+        byte[] cached = memory.get(key);
+        if (cached == null && folder != null) {
+            cached = read(new File(folder, key + ".skel"));
+            if (cached != null)
+                memory.put(key, cached);
+        }
+        if (cached == FAILED) {
+            hits.incrementAndGet();
+            Metrics.increment("SkeletonCache.hits");
+            throw new StraightSkeletonException();
+        }
+        if (cached != null) {
+            StraightSkeletonDivision decomposition = fromSnapshot(cached, p, numberOfDigits, roadNameAttribute, roadImportanceAttribute, name);
+            if (decomposition != null) {
+                hits.incrementAndGet();
+                Metrics.increment("SkeletonCache.hits");
+                return decomposition;
+            }
+            // unreadable snapshot: decomposed again
+            memory.remove(key);
+        }
+        misses.incrementAndGet();
+        Metrics.increment("SkeletonCache.misses");
+        StraightSkeletonDivision decomposition;
+        try {
+            decomposition = new StraightSkeletonDivision(p, roads, roadNameAttribute, roadImportanceAttribute, maxDepth, maxDistanceForNearestRoad, numberOfDigits, toleranceLevel,
+                    generatePeripheralRoad, widthRoad, name);
+        } catch (CancellationException e) {
+            // a stopped decomposition hasn't failed
+            throw e;
+        } catch (StraightSkeletonException | EdgeException | RuntimeException e) {
+            memory.put(key, FAILED);
+            throw e;
+        }
+        byte[] snapshot = snapshot(decomposition, name);
+        if (snapshot != null) {
+            memory.put(key, snapshot);
+            if (folder != null)
+                write(new File(folder, key + ".skel"), snapshot);
+        }
+        return decomposition;
+    }
+
+    /**
+     * Hash of everything the decomposition depends on. Only the roads whose envelope is closer to the polygon than the search distance (plus the width of a peripheral road) are
+     * taken into account, in the order of the collection.
+     *
+     * @return hexadecimal SHA-256 key
+     */
+    static String key(Polygon p, NearestRoadIndex roads, String roadNameAttribute, String roadImportanceAttribute, double maxDepth, double maxDistanceForNearestRoad,
+                      int numberOfDigits, double toleranceLevel, boolean generatePeripheralRoad, double widthRoad) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        WKBWriter wkb = new WKBWriter();
+        digest.update(wkb.write(p.norm()));
+        digest.update((maxDepth + "|" + maxDistanceForNearestRoad + "|" + numberOfDigits + "|" + toleranceLevel + "|" + generatePeripheralRoad + "|" + widthRoad + "|"
+                + roadNameAttribute + "|" + roadImportanceAttribute).getBytes(StandardCharsets.UTF_8));
+        Envelope env = new Envelope(p.getEnvelopeInternal());
+        env.expandBy(maxDistanceForNearestRoad + widthRoad + 1);
+        for (SimpleFeature road : roads.select(env)) {
+            digest.update(wkb.write((Geometry) road.getDefaultGeometry()));
+            digest.update(("|" + road.getAttribute(roadNameAttribute) + "|" + road.getAttribute(roadImportanceAttribute) + "|").getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * Serialize a decomposition with {@link StraightSkeletonDivision#write(DataOutputStream)}.
+     *
+     * @return the snapshot of the decomposition, or null if it can't be serialized
+     */
+    private static byte[] snapshot(StraightSkeletonDivision decomposition, String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            decomposition.write(out);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("SkeletonCache: cannot serialize the decomposition of " + name);
+            e.printStackTrace();
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a new decomposition from a snapshot.
+     *
+     * @return the decomposition, or null if the snapshot can't be read
+     */
+    private static StraightSkeletonDivision fromSnapshot(byte[] snapshot, Polygon p, int numberOfDigits, String roadNameAttribute, String roadImportanceAttribute, String name) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            return StraightSkeletonDivision.read(in, p.getFactory(), numberOfDigits, roadNameAttribute, roadImportanceAttribute, name);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("SkeletonCache: cannot read the decomposition of " + name);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static byte[] read(File file) {
+        if (!file.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != FORMAT)
+                return null;
+            return in.readAllBytes();
+        } catch (IOException e) {
+            System.out.println("SkeletonCache: cannot read " + file);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void write(File file, byte[] snapshot) {
+        File tmp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(FORMAT);
+                out.write(snapshot);
+            }
+            // another run may be writing the same decomposition: files are replaced at once
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("SkeletonCache: cannot write " + file);
+            e.printStackTrace();
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return true if decompositions are cached in memory or in a folder
+     */
+    public static boolean isEnabled() {
+        return getCacheSize() > 0 || getFolder() != null;
+    }
+
+    public static int getCacheSize() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getSkeletonCacheSize() : cacheSize;
+    }
+
+    /**
+     * Set the number of decompositions kept in memory. The memory cache is shared by every context, but is trimmed to the size of the context that adds a decomposition. If a
+     * {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param cacheSize maximal number of decompositions. 0 (default) disables the memory cache
+     */
+    public static void setCacheSize(int cacheSize) {
+        if (!SimulationContext.update(ctx -> ctx.withSkeletonCacheSize(cacheSize)))
+            SkeletonCache.cacheSize = cacheSize;
+    }
+
+    public static File getFolder() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getSkeletonCacheFolder() : folder;
+    }
+
+    /**
+     * Set the folder where decompositions are written and read. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param folder cache folder. Null (default) disables the disk cache
+     */
+    public static void setFolder(File folder) {
+        if (!SimulationContext.update(ctx -> ctx.withSkeletonCacheFolder(folder)))
+            SkeletonCache.folder = folder;
+    }
+
+    /**
+     * Number of decompositions found in the cache since the last {@link #clear()}.
+     *
+     * @return number of cache hits
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of decompositions computed since the last {@link #clear()}.
+     *
+     * @return number of cache misses
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Empty the memory cache and reset the counters. Files of the cache folder are kept.
+     */
+    public static void clear() {
+        memory.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+}
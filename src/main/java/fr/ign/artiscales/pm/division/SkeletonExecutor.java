@@ -0,0 +1,221 @@
+package fr.ign.artiscales.pm.division;
+
+import fr.ign.artiscales.pm.metrics.Metrics;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Run independent Straight Skeleton tasks (one per polygon or per parcel) with a bounded number of threads and an optional timeout per task. Results are returned in the order
+ * of the tasks, whatever the order they have been computed in. The {@link SimulationContext} of the calling thread is bound to the workers.
+ * <p>
+ * A task that fails or that runs longer than the timeout is replaced by a fallback value. The timeout starts when the task starts, and a timed out task is interrupted: the
+ * decompositions check the interruption between their steps (see {@link StraightSkeletonDivision#checkInterrupted()}) and stop. The skeleton computation itself can't be
+ * interrupted, so a stuck task keeps one of the threads until it ends: no more than the parallelism threads are ever created. If every thread is still busy with a task that
+ * timed out one timeout later, the tasks not started yet get their fallback value. Tasks submitted from a task run sequentially in the worker thread, so nested calls don't
+ * create new pools.
+ */
+public class SkeletonExecutor {
+    /**
+     * True while the current thread is running a task of an executor
+     */
+    private static final ThreadLocal<Boolean> inTask = ThreadLocal.withInitial(() -> false);
+    private final int parallelism;
+    private final long timeoutMillis;
+
+    /**
+     * @param parallelism   maximal number of tasks running concurrently
+     * @param timeoutMillis maximal duration of a task in milliseconds. 0 or less means no timeout
+     */
+    public SkeletonExecutor(int parallelism, long timeoutMillis) {
+        this.parallelism = Math.max(1, parallelism);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return true if the current thread is running a task of an executor
+     */
+    public static boolean isInTask() {
+        return inTask.get();
+    }
+
+    /**
+     * @return true if the tasks given to {@link #invokeAll(List, IntFunction)} would be run by worker threads rather than by the calling thread. Tasks are run by the calling
+     * thread (without timeout) in debug mode.
+     */
+    public boolean isConcurrent() {
+        return (parallelism > 1 || timeoutMillis > 0) && !isInTask() && !Division.isDEBUG();
+    }
+
+    /**
+     * Run the tasks and get their results in the order of the list.
+     *
+     * @param tasks    tasks to run
+     * @param fallback gives the result of the task of the given index if it fails or times out
+     * @param <T>      type of the results
+     * @return the result of each task
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks, IntFunction<T> fallback) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (!isConcurrent()) {
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    results.add(tasks.get(i).call());
+                } catch (CancellationException e) {
+                    // the enclosing task has been stopped
+                    throw e;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    results.add(fallback.apply(i));
+                }
+            }
+            return results;
+        }
+        SimulationContext ctx = SimulationContext.current();
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, daemonThreads("pm-skeleton"));
+        ScheduledExecutorService watchdog = timeoutMillis > 0 ? Executors.newSingleThreadScheduledExecutor(daemonThreads("pm-skeleton-watchdog")) : null;
+        List<Run<T>> runs = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++)
+            runs.add(new Run<>());
+        // number of threads still running a timed out task
+        AtomicInteger stuck = new AtomicInteger();
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                Callable<T> task = tasks.get(i);
+                Run<T> run = runs.get(i);
+                workers.execute(() -> {
+                    if (!run.start())
+                        return;
+                    ScheduledFuture<?> timer = watchdog == null ? null : watchdog.schedule(() -> {
+                        if (!run.stop(new TimeoutException("task longer than " + timeoutMillis + " ms")))
+                            return;
+                        // the task is interrupted: check one timeout later whether it ignored it
+                        watchdog.schedule(() -> {
+                            if (run.markStuck() && stuck.incrementAndGet() >= parallelism)
+                                for (Run<T> waiting : runs)
+                                    waiting.giveUp(new TimeoutException("every thread is stuck with a timed out task"));
+                        }, timeoutMillis, TimeUnit.MILLISECONDS);
+                    }, timeoutMillis, TimeUnit.MILLISECONDS);
+                    inTask.set(true);
+                    try {
+                        run.future.complete(SimulationContext.callWith(ctx, task::call));
+                    } catch (Throwable e) {
+                        run.future.completeExceptionally(e);
+                    } finally {
+                        inTask.set(false);
+                        if (timer != null)
+                            timer.cancel(false);
+                        if (run.end())
+                            stuck.decrementAndGet();
+                    }
+                });
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                try {
+                    results.add(runs.get(i).future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof TimeoutException) {
+                        System.out.println("SkeletonExecutor: task " + i + " stopped: " + e.getCause().getMessage());
+                        Metrics.increment("SkeletonExecutor.timeouts");
+                    } else
+                        e.getCause().printStackTrace();
+                    results.add(fallback.apply(i));
+                } catch (InterruptedException e) {
+                    // tasks not finished yet get their fallback value
+                    Thread.currentThread().interrupt();
+                    results.add(fallback.apply(i));
+                }
+            }
+        } finally {
+            // interrupts the tasks still running, if the caller has been interrupted
+            workers.shutdownNow();
+            if (watchdog != null)
+                watchdog.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * State of a task shared by its worker and the watchdog.
+     */
+    private static class Run<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        /**
+         * Thread running the task, null before it starts and once it has ended
+         */
+        private Thread worker;
+        private boolean stuck;
+
+        /**
+         * @return false if the task has been given up before it started
+         */
+        synchronized boolean start() {
+            if (future.isDone())
+                return false;
+            worker = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * @return true if the task had been marked as stuck
+         */
+        synchronized boolean end() {
+            worker = null;
+            // an interruption sent just before the end must not reach the next task of the thread
+            Thread.interrupted();
+            return stuck;
+        }
+
+        /**
+         * Give the result of the task up and interrupt its thread.
+         *
+         * @return true if the task was running
+         */
+        synchronized boolean stop(Throwable cause) {
+            future.completeExceptionally(cause);
+            if (worker == null)
+                return false;
+            worker.interrupt();
+            return true;
+        }
+
+        /**
+         * @return true if the task is still running (it is then marked as stuck)
+         */
+        synchronized boolean markStuck() {
+            stuck = worker != null;
+            return stuck;
+        }
+
+        /**
+         * Give the result of the task up if it hasn't started yet.
+         */
+        synchronized void giveUp(Throwable cause) {
+            if (worker == null)
+                future.completeExceptionally(cause);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -2,6 +2,7 @@ package fr.ign.artiscales.pm.division;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -97,6 +98,19 @@ public class StraightSkeleton {
     }
   }
 
+  /**
+   * Wrap an already computed straight skeleton (i.e. read by the {@link SkeletonCache}).
+   * 
+   * @param p
+   *          input polygon
+   * @param graph
+   *          graph of the skeleton
+   */
+  StraightSkeleton(Polygon p, TopologicalGraph graph) {
+    this.inputPolygon = p;
+    this.graph = graph;
+  }
+
   public static Skeleton buildSkeleton(Polygon p, double[] angles) {
     return new Skeleton(buildEdgeLoops(p, angles), true);
   }
@@ -138,11 +152,11 @@ public class StraightSkeleton {
     return fromDPLToEdges(coordinates);
   }
 
-  private static Node getNode(Coordinate p, Map<Coordinate, Node> map, TopologicalGraph graph, GeometryFactory factory) {
+  private static Node getNode(Coordinate p, Map<Coordinate, Node> map, SnapGrid grid, TopologicalGraph graph) {
     if (map.containsKey(p)) {
       return map.get(p);
     }
-    Coordinate snapped = snap(p, graph.getEdges().stream().map(HalfEdge::getGeometry).collect(Collectors.toList()), factory);
+    Coordinate snapped = grid.snap(p);
     if (map.containsKey(snapped)) {
       return map.get(snapped);
     }
@@ -153,7 +167,8 @@ public class StraightSkeleton {
   }
 
   /**
-   * Converts the output of the algorithm to a topological graph.
+   * Converts the output of the algorithm to a topological graph. Nodes are snapped on the extremities of the edges already created and twin edges are found with hash maps, so
+   * the conversion doesn't scan the edges of the graph for every new edge.
    * 
    * @param out
    * @return
@@ -162,6 +177,9 @@ public class StraightSkeleton {
     GeometryFactory factory = new GeometryFactory();
     TopologicalGraph graph = new TopologicalGraph();
     Map<Coordinate, Node> nodeMap = new HashMap<>();
+    SnapGrid grid = new SnapGrid();
+    // half-edges by origin and target nodes
+    Map<NodePair, List<HalfEdge>> edgesByNodes = new HashMap<>();
     // For each face
     for (Face face : new HashSet<>(out.faces.values())) {
       // create a corresponding face (if it has points - do not export the infinite face)
@@ -178,17 +196,18 @@ public class StraightSkeleton {
             Coordinate p2 = pointToCoordinate(loopable.getNext().get());
             if (p1 != null && p2 != null) {
               // create or get the nodes
-              Node n1 = getNode(p1, nodeMap, graph, factory), n2 = getNode(p2, nodeMap, graph, factory);
+              Node n1 = getNode(p1, nodeMap, grid, graph), n2 = getNode(p2, nodeMap, grid, graph);
               coord.add(n1.getCoordinate());
               // Create a new halfedge
               HalfEdge a = new HalfEdge(n1, n2, factory.createLineString(new Coordinate[] { n1.getCoordinate(), n2.getCoordinate() }));
               // Add it to the graph
               graph.getEdges().add(a);
-              graph.getEdges().forEach(e -> {
-                if (e.getOrigin() == n2 && e.getTarget() == n1) {
-                  e.setTwin(a);
-                }
-              });
+              grid.add(a.getGeometry());
+              edgesByNodes.computeIfAbsent(new NodePair(n1, n2), k -> new ArrayList<>()).add(a);
+              // the edges going the other way are its twins
+              for (HalfEdge e : edgesByNodes.getOrDefault(new NodePair(n2, n1), Collections.emptyList())) {
+                e.setTwin(a);
+              }
               a.setFace(topoFace);
               if (prev != null)
                 prev.setNext(a);
@@ -248,13 +267,76 @@ public class StraightSkeleton {
     return graph;
   }
 
-  private static Coordinate snap(Coordinate toSnap, List<LineString> existingGeometries, GeometryFactory factory) {
-    Geometry noded = factory.createGeometryCollection(existingGeometries.stream().map(LineString::getBoundary).toArray(Geometry[]::new));
-    for (Coordinate c : noded.getCoordinates()) {
-      if (c.distance(toSnap) < 0.01)
-        return c;
+  /**
+   * Extremities of the edges of a graph, hashed in cells of the snapping distance. A coordinate is snapped on the first extremity (in the order of the edges) that is closer than
+   * the snapping distance, which is only looked for in the neighbouring cells.
+   */
+  private static class SnapGrid {
+    private static final double SNAP_DISTANCE = 0.01;
+    private final Map<Long, List<Coordinate>> cells = new HashMap<>();
+    /**
+     * Rank of each extremity in the order of the edges
+     */
+    private final Map<Coordinate, Integer> ranks = new HashMap<>();
+
+    /**
+     * Add the extremities of an edge. Closed lines have no boundary and are ignored, as when the extremities were taken from the boundaries of the edges.
+     */
+    void add(LineString edge) {
+      if (edge.isClosed())
+        return;
+      add(edge.getCoordinateN(0));
+      add(edge.getCoordinateN(edge.getNumPoints() - 1));
+    }
+
+    private void add(Coordinate c) {
+      if (ranks.putIfAbsent(c, ranks.size()) == null)
+        cells.computeIfAbsent(cell(Math.floor(c.x / SNAP_DISTANCE), Math.floor(c.y / SNAP_DISTANCE)), k -> new ArrayList<>()).add(c);
+    }
+
+    Coordinate snap(Coordinate toSnap) {
+      double cx = Math.floor(toSnap.x / SNAP_DISTANCE), cy = Math.floor(toSnap.y / SNAP_DISTANCE);
+      Coordinate snapped = toSnap;
+      int rank = Integer.MAX_VALUE;
+      for (int i = -1; i <= 1; i++) {
+        for (int j = -1; j <= 1; j++) {
+          for (Coordinate c : cells.getOrDefault(cell(cx + i, cy + j), Collections.emptyList())) {
+            int r = ranks.get(c);
+            if (r < rank && c.distance(toSnap) < SNAP_DISTANCE) {
+              snapped = c;
+              rank = r;
+            }
+          }
+        }
+      }
+      return snapped;
+    }
+
+    private static long cell(double x, double y) {
+      return ((long) x << 32) ^ ((long) y & 0xffffffffL);
+    }
+  }
+
+  /**
+   * Origin and target nodes of a half-edge, compared by identity.
+   */
+  private static class NodePair {
+    private final Node origin, target;
+
+    NodePair(Node origin, Node target) {
+      this.origin = origin;
+      this.target = target;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof NodePair && ((NodePair) o).origin == origin && ((NodePair) o).target == target;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(origin) + System.identityHashCode(target);
     }
-    return toSnap;
   }
 
   /**
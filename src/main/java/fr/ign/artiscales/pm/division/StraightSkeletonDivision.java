@@ -2,15 +2,14 @@ package fr.ign.artiscales.pm.division;
 
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.tools.FeaturePolygonizer;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Lines;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Points;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Polygons;
-import fr.ign.artiscales.tools.graph.analysis.FindObjectInDirection;
 import fr.ign.artiscales.tools.graph.recursiveGraph.Face;
 import fr.ign.artiscales.tools.graph.recursiveGraph.HalfEdge;
 import fr.ign.artiscales.tools.graph.recursiveGraph.Node;
@@ -26,7 +25,9 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.GeometryBuilder;
+import org.geotools.referencing.CRS;
 import org.locationtech.jts.algorithm.Angle;
 import org.locationtech.jts.algorithm.Orientation;
 import org.locationtech.jts.geom.Coordinate;
@@ -39,6 +40,9 @@ import org.locationtech.jts.geom.MultiLineString;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
 import org.locationtech.jts.linearref.LengthIndexedLine;
 import org.locationtech.jts.operation.linemerge.LineMerger;
 import org.locationtech.jts.operation.overlay.snap.GeometrySnapper;
@@ -46,7 +50,10 @@ import org.locationtech.jts.operation.polygonize.Polygonizer;
 import org.locationtech.jts.precision.GeometryPrecisionReducer;
 import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.FactoryException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -56,11 +63,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -97,10 +107,39 @@ public class StraightSkeletonDivision extends Division {
     private static final int RIGHT = 1;
     private static final int LEFT = -1;
     private static final int NEITHER = 0;
+    /**
+     * Root folder of the debug exports. Use {@link #getFolderOutDebug()} to read it, as it can be overridden by a {@link SimulationContext}.
+     */
     public static File FOLDER_OUT_DEBUG = new File("/tmp/skeleton");
+    /**
+     * Folder of the debug exports of the last decomposed polygon.
+     *
+     * @deprecated debug graphs are now written in a {@link TraceSink} (see {@link #getTraceSink()}) and this folder isn't set anymore.
+     */
+    @Deprecated
     public static File FOLDER_PARTICULAR_DEBUG;
+    /**
+     * Sink of the debug graphs set with {@link #setTraceSink(TraceSink)}. If null, a {@link GeopackageTraceSink} is created in debug mode (see {@link #getTraceSink()}).
+     */
+    private static volatile TraceSink traceSink;
+    /**
+     * Sink created for the current run in debug mode. Closed with {@link #closeTraceSink()}.
+     */
+    private static TraceSink defaultTraceSink;
+    /**
+     * Number of runs (i.e. scenarios) using the default sink, counted by {@link #openTraceSink()} and {@link #closeTraceSink()}
+     */
+    private static int traceSinkUsers = 0;
     private static boolean SAVEINTERMEDIATERESULT;
     private static boolean generatePeripheralRoad;
+    /**
+     * Number of parcels (or of polygons of a parcel) decomposed concurrently
+     */
+    private static int parallelism = 1;
+    /**
+     * Maximal duration of the decomposition of a parcel (or of a polygon) in milliseconds. 0 means no timeout
+     */
+    private static long taskTimeout = 0;
     //////////////////////////////////////////////////////
     // Input data parameters
     // Must be a double attribute
@@ -118,7 +157,11 @@ public class StraightSkeletonDivision extends Division {
     private final StraightSkeleton straightSkeleton;
     private final Geometry snapInitialSSFaces;
     private final GeometryFactory factory;
-    private SimpleFeatureCollection roads;
+    /**
+     * Prefix of the layers traced for this decomposition
+     */
+    private final String traceName;
+    private NearestRoadIndex roadIndex;
     private List<HalfEdge> orderedExteriorEdges;
     private TopologicalGraph alphaStrips;
     private TopologicalGraph betaStrips;
@@ -182,27 +225,33 @@ public class StraightSkeletonDivision extends Division {
      */
     public StraightSkeletonDivision(Polygon p, SimpleFeatureCollection roads, String roadNameAttribute, String roadImportanceAttribute, double maxDepth,
                                     double maxDistanceForNearestRoad, int numberOfDigits, double toleranceLevel, boolean generatePeripheralRoad, double widthRoad, String name) throws StraightSkeletonException, EdgeException {
+        this(p, new NearestRoadIndex(roads, roadNameAttribute, roadImportanceAttribute), roadNameAttribute, roadImportanceAttribute, maxDepth, maxDistanceForNearestRoad,
+                numberOfDigits, toleranceLevel, generatePeripheralRoad, widthRoad, name);
+    }
+
+    /**
+     * Constructor decomposing initial polygon with straight skeleton process until beta-stripes, with roads already indexed by the caller (see {@link NearestRoadIndex}).
+     */
+    StraightSkeletonDivision(Polygon p, NearestRoadIndex roadIndex, String roadNameAttribute, String roadImportanceAttribute, double maxDepth,
+                             double maxDistanceForNearestRoad, int numberOfDigits, double toleranceLevel, boolean generatePeripheralRoad, double widthRoad, String name) throws StraightSkeletonException, EdgeException {
         this.tolerance = toleranceLevel / Math.pow(10, numberOfDigits);
         p = (Polygon) TopologyPreservingSimplifier.simplify(p, 10 * tolerance);
         this.precisionReducer = new GeometryPrecisionReducer(new PrecisionModel(Math.pow(10, numberOfDigits)));
-        this.roads = roads;
+        this.roadIndex = roadIndex;
         this.factory = p.getFactory();
         this.NAME_ATT_ROADNAME = roadNameAttribute;
         this.NAME_ATT_LEVELOFATTRACTION = roadImportanceAttribute;
-        FOLDER_PARTICULAR_DEBUG = new File(FOLDER_OUT_DEBUG, "skeleton/" + name + "_" + (generatePeripheralRoad ? "peripheralRoad" : "noPeripheralRoad") + "_" + (maxDepth != 0 ? "offset" : "noOffset"));
-        FOLDER_PARTICULAR_DEBUG.mkdirs();
+        this.traceName = name + "_" + (generatePeripheralRoad ? "peripheralRoad" : "noPeripheralRoad") + "_" + (maxDepth != 0 ? "offset" : "noOffset");
         if (generatePeripheralRoad) {
-            Pair<Polygon, SimpleFeatureCollection> periperalRoad = this.generatePeripheralRoad(p, widthRoad);
+            Pair<Polygon, List<SimpleFeature>> periperalRoad = this.generatePeripheralRoadFeatures(p, widthRoad);
             p = periperalRoad.getLeft();
-            this.roads = periperalRoad.getRight();
-        }
-        if (isSAVEINTERMEDIATERESULT() || isDEBUG()) {
-            try {
-                CollecMgmt.exportSFC(this.roads, new File(FOLDER_PARTICULAR_DEBUG, "roads.gpkg"));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // generated roads are indexed on top of the shared index
+            if (!periperalRoad.getRight().isEmpty())
+                this.roadIndex = roadIndex.withRoads(periperalRoad.getRight());
         }
+        TraceSink sink = getTraceSink();
+        if (sink.isEnabled() && this.roadIndex.getSchema() != null)
+            sink.trace(traceName + "_roads", this.roadIndex.getRoads());
         this.initialPolygon = (Polygon) precisionReducer.reduce(p);
 
         // Create and export skeleton
@@ -212,8 +261,9 @@ public class StraightSkeletonDivision extends Division {
             e.printStackTrace();
             throw new StraightSkeletonException();
         }
+        checkInterrupted();
         TopologicalGraph graph = this.straightSkeleton.getGraph();
-        export(graph, new File(FOLDER_PARTICULAR_DEBUG, "init"));
+        trace(graph, traceName + "_init");
 
         // order edges in list and mark if they are exterior
         this.orderedExteriorEdges = getOrderedExteriorEdges(straightSkeleton.getGraph());
@@ -226,21 +276,181 @@ public class StraightSkeletonDivision extends Division {
         this.frontages = frontageDefinition(maxDistanceForNearestRoad);
         if (this.frontages == null)
             return;
+        checkInterrupted();
 
         // get alpha strips
         this.alphaStrips = mergeSSStripToAlphaStrip();
-        export(alphaStrips, new File(FOLDER_PARTICULAR_DEBUG, "alpha"));
+        trace(alphaStrips, traceName + "_alpha");
+        checkInterrupted();
 
         //get beta stripes
         this.betaStrips = fixDiagonalEdges(alphaStrips, roadAttributes);
-        export(betaStrips, new File(FOLDER_PARTICULAR_DEBUG, "beta"));
+        trace(betaStrips, traceName + "_beta");
+    }
+
+    /**
+     * Constructor of a decomposition read by the {@link SkeletonCache}. Only the fields used to slice the β-strips are set.
+     */
+    private StraightSkeletonDivision(Polygon initialPolygon, Geometry snapInitialSSFaces, StraightSkeleton straightSkeleton, TopologicalGraph betaStrips,
+                                     Map<Face, LineString> psiMap, double tolerance, int numberOfDigits, String roadNameAttribute, String roadImportanceAttribute, String name) {
+        this.initialPolygon = initialPolygon;
+        this.snapInitialSSFaces = snapInitialSSFaces;
+        this.straightSkeleton = straightSkeleton;
+        this.betaStrips = betaStrips;
+        this.psiMap = psiMap;
+        this.tolerance = tolerance;
+        this.precisionReducer = new GeometryPrecisionReducer(new PrecisionModel(Math.pow(10, numberOfDigits)));
+        this.factory = initialPolygon.getFactory();
+        this.NAME_ATT_ROADNAME = roadNameAttribute;
+        this.NAME_ATT_LEVELOFATTRACTION = roadImportanceAttribute;
+        this.traceName = name + "_cached";
+        this.frontages = null;
+    }
+
+    /**
+     * Write what is needed to slice the β-strips: initial polygon, straight skeleton graph, β-strips and their supporting lines. See {@link SkeletonCache}.
+     *
+     * @param out output stream
+     * @throws IOException if the stream can't be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        WKBWriter wkb = new WKBWriter(3);
+        writeGeometry(out, wkb, initialPolygon);
+        writeGeometry(out, wkb, snapInitialSSFaces);
+        out.writeDouble(tolerance);
+        TopologicalGraph graph = straightSkeleton.getGraph();
+        Map<Node, Integer> nodeIds = new IdentityHashMap<>();
+        out.writeInt(graph.getNodes().size());
+        for (Node node : graph.getNodes()) {
+            nodeIds.put(node, nodeIds.size());
+            Coordinate c = node.getCoordinate();
+            out.writeDouble(c.x);
+            out.writeDouble(c.y);
+            out.writeDouble(c.z);
+        }
+        Map<Face, Integer> faceIds = new IdentityHashMap<>();
+        out.writeInt(graph.getFaces().size());
+        for (Face face : graph.getFaces()) {
+            faceIds.put(face, faceIds.size());
+            writeGeometry(out, wkb, face.getGeometry());
+        }
+        Map<HalfEdge, Integer> edgeIds = new IdentityHashMap<>();
+        for (HalfEdge edge : graph.getEdges())
+            edgeIds.put(edge, edgeIds.size());
+        out.writeInt(graph.getEdges().size());
+        for (HalfEdge edge : graph.getEdges()) {
+            out.writeInt(nodeIds.get(edge.getOrigin()));
+            out.writeInt(nodeIds.get(edge.getTarget()));
+            writeGeometry(out, wkb, edge.getGeometry());
+            out.writeInt(edge.getFace() == null ? -1 : faceIds.get(edge.getFace()));
+            out.writeInt(edge.getTwin() == null ? -1 : edgeIds.get(edge.getTwin()));
+            out.writeInt(edge.getNext() == null ? -1 : edgeIds.get(edge.getNext()));
+            Object exterior = edge.getAttribute("EXTERIOR");
+            out.writeBoolean(exterior != null);
+            if (exterior != null)
+                out.writeUTF(exterior.toString());
+        }
+        out.writeBoolean(betaStrips != null);
+        if (betaStrips != null) {
+            out.writeInt(betaStrips.getFaces().size());
+            for (Face strip : betaStrips.getFaces()) {
+                writeGeometry(out, wkb, strip.getGeometry());
+                LineString psi = psiMap == null ? null : psiMap.get(strip);
+                out.writeBoolean(psi != null);
+                if (psi != null)
+                    writeGeometry(out, wkb, psi);
+            }
+        }
+    }
+
+    /**
+     * Read a decomposition written with {@link #write(DataOutputStream)}.
+     *
+     * @param in      input stream
+     * @param factory factory of the read geometries
+     * @return the decomposition, ready to be sliced
+     * @throws IOException if the stream can't be read
+     */
+    static StraightSkeletonDivision read(DataInputStream in, GeometryFactory factory, int numberOfDigits, String roadNameAttribute, String roadImportanceAttribute,
+                                         String name) throws IOException {
+        WKBReader wkb = new WKBReader(factory);
+        Polygon initialPolygon = (Polygon) readGeometry(in, wkb);
+        Geometry snapInitialSSFaces = readGeometry(in, wkb);
+        double tolerance = in.readDouble();
+        TopologicalGraph graph = new TopologicalGraph();
+        List<Node> nodes = new ArrayList<>();
+        int nbNodes = in.readInt();
+        for (int i = 0; i < nbNodes; i++) {
+            Node node = new Node(new Coordinate(in.readDouble(), in.readDouble(), in.readDouble()));
+            graph.addNode(node);
+            nodes.add(node);
+        }
+        List<Face> faces = new ArrayList<>();
+        int nbFaces = in.readInt();
+        for (int i = 0; i < nbFaces; i++) {
+            Face face = new Face();
+            face.setPolygon((Polygon) readGeometry(in, wkb));
+            graph.getFaces().add(face);
+            faces.add(face);
+        }
+        int nbEdges = in.readInt();
+        int[] twins = new int[nbEdges];
+        int[] nexts = new int[nbEdges];
+        for (int i = 0; i < nbEdges; i++) {
+            HalfEdge edge = new HalfEdge(nodes.get(in.readInt()), nodes.get(in.readInt()), (LineString) readGeometry(in, wkb));
+            int face = in.readInt();
+            if (face >= 0)
+                edge.setFace(faces.get(face));
+            twins[i] = in.readInt();
+            nexts[i] = in.readInt();
+            if (in.readBoolean())
+                edge.setAttribute("EXTERIOR", in.readUTF());
+            graph.getEdges().add(edge);
+        }
+        for (int i = 0; i < nbEdges; i++) {
+            if (twins[i] >= 0)
+                graph.getEdges().get(i).setTwin(graph.getEdges().get(twins[i]));
+            if (nexts[i] >= 0)
+                graph.getEdges().get(i).setNext(graph.getEdges().get(nexts[i]));
+        }
+        TopologicalGraph betaStrips = null;
+        Map<Face, LineString> psiMap = new HashMap<>();
+        if (in.readBoolean()) {
+            betaStrips = new TopologicalGraph();
+            int nbStrips = in.readInt();
+            for (int i = 0; i < nbStrips; i++) {
+                Face strip = new Face();
+                strip.setPolygon((Polygon) readGeometry(in, wkb));
+                betaStrips.getFaces().add(strip);
+                if (in.readBoolean())
+                    psiMap.put(strip, (LineString) readGeometry(in, wkb));
+            }
+        }
+        return new StraightSkeletonDivision(initialPolygon, snapInitialSSFaces, new StraightSkeleton(initialPolygon, graph), betaStrips, psiMap, tolerance, numberOfDigits,
+                roadNameAttribute, roadImportanceAttribute, name);
+    }
+
+    private static void writeGeometry(DataOutputStream out, WKBWriter wkb, Geometry geom) throws IOException {
+        byte[] bytes = wkb.write(geom);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Geometry readGeometry(DataInputStream in, WKBReader wkb) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        try {
+            return wkb.read(bytes);
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
     }
 
 
     public static void main(String[] args) throws IOException, EdgeException, StraightSkeletonException {
         File rootFolder = new File("/tmp/");
         File roadFile = new File(rootFolder, "/2AU_R+5/Scenario/InputData/road.gpkg");
-        generatePeripheralRoad = true;
+        setGeneratePeripheralRoad(true);
 
         File parcelFile = new File(rootFolder, "/po.gpkg");
         setDEBUG(true);
@@ -265,7 +475,7 @@ public class StraightSkeletonDivision extends Division {
         DataStore roadDS = CollecMgmt.getDataStore(new File(rootFile, "InputData/road.gpkg"));
         StraightSkeletonDivision decomposition = new StraightSkeletonDivision((Polygon) g, roadDS.getFeatureSource(roadDS.getTypeNames()[0]).getFeatures(), "NOM_VOIE_G", "IMPORTANCE", 0,
                 10, 2, true, 7, "test");
-        export(decomposition.straightSkeleton.getGraph(), new File(FOLDER_OUT_DEBUG, "after_fix"));
+        trace(decomposition.straightSkeleton.getGraph(), decomposition.traceName + "_after_fix");
 
         List<Polygon> globalOutputParcels = new ArrayList<>();
 
@@ -281,6 +491,16 @@ public class StraightSkeletonDivision extends Division {
             System.out.println(text);
     }
 
+    /**
+     * Stop the decomposition if its thread has been interrupted, i.e. by the timeout of a {@link SkeletonExecutor}. The interruption flag is kept.
+     *
+     * @throws CancellationException if the current thread is interrupted
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("decomposition interrupted");
+    }
+
     private static boolean isReflex(Node node, HalfEdge previous, HalfEdge next) {
         return isReflex(node.getCoordinate(), previous.getGeometry(), next.getGeometry());
     }
@@ -476,16 +696,38 @@ public class StraightSkeletonDivision extends Division {
                 System.out.println("runTopologicalStraightSkeletonParcelDecomposition: no parcel marked");
             return sfcParcelIn;
         }
-        DefaultFeatureCollection result = new DefaultFeatureCollection();
-        int i = 0;
+        SkeletonExecutor executor = new SkeletonExecutor(getParallelism(), getTaskTimeout());
+        // roads are loaded in memory and indexed once for every parcel
+        NearestRoadIndex roadIndex = new NearestRoadIndex(roads, NAME_ATT_ROAD, NAME_ATT_IMPORTANCE);
+        List<SimpleFeature> feats = new ArrayList<>();
+        List<Callable<SimpleFeatureCollection>> tasks = new ArrayList<>();
+        Map<String, Integer> occurrences = new HashMap<>();
         try (SimpleFeatureIterator parcelIt = sfcParcelIn.features()) {
-            while (parcelIt.hasNext())
-                result.addAll(runTopologicalStraightSkeletonParcelDecomposition(parcelIt.next(), roads, NAME_ATT_ROAD, NAME_ATT_IMPORTANCE, maxDepth,
-                        maxDistanceForNearestRoad, minimalArea, minWidth, maxWidth, omega, streetWidth, name + i++));
-
+            while (parcelIt.hasNext()) {
+                SimpleFeature feat = parcelIt.next();
+                String featName = name + feats.size();
+                String key = streamKey(feat, occurrences);
+                feats.add(feat);
+                // each parcel draws its widths from its own random stream
+                tasks.add(() -> withRandom(key, () -> runTopologicalStraightSkeletonParcelDecomposition(feat, roadIndex, NAME_ATT_ROAD, NAME_ATT_IMPORTANCE, maxDepth,
+                        maxDistanceForNearestRoad, minimalArea, minWidth, maxWidth, omega, streetWidth, featName)));
+            }
         } catch (Exception problem) {
             problem.printStackTrace();
         }
+        DefaultFeatureCollection result = new DefaultFeatureCollection();
+        // a parcel whose decomposition failed or timed out is kept as it is, but marked as not simulated
+        for (SimpleFeatureCollection parcels : executor.invokeAll(tasks, i -> unsimulated(feats.get(i))))
+            result.addAll(parcels);
+        return result;
+    }
+
+    private static SimpleFeatureCollection unsimulated(SimpleFeature feat) {
+        DefaultFeatureCollection result = new DefaultFeatureCollection();
+        SimpleFeatureBuilder builder = ParcelSchema.addSimulatedField(feat.getFeatureType());
+        Schemas.setFieldsToSFB(builder, feat);
+        builder.set("SIMULATED", 0);
+        result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
         return result;
     }
 
@@ -531,107 +773,227 @@ public class StraightSkeletonDivision extends Division {
         if (oneRoad.size() != 0)
             ls.add(oneRoad.size() == 1 ? Lines.getMultiLineString(oneRoad.get(0)) : (MultiLineString) lr.getFactory().buildGeometry(oneRoad).union());
 
-        if (SAVEINTERMEDIATERESULT) { //save all generated peripheral roads
-            DefaultFeatureCollection tmp = new DefaultFeatureCollection();
-            try {
-                tmp.addAll(Geom.geomsToCollec(ls, Schemas.getBasicMLSSchema("PeripheralRoad")));
-                if (!tmp.isEmpty())
-                    CollecMgmt.exportSFC(tmp, new File(FOLDER_PARTICULAR_DEBUG, "peripheralRoads"), false);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
         return ls;
     }
 
     /**
-     * Class to run an automatic Straight Skeleton application on a set of parcels
+     * Class to run an automatic Straight Skeleton application on a set of parcels. The roads are indexed for this parcel only: to decompose several parcels, index them once with
+     * {@link NearestRoadIndex} and use {@link #runTopologicalStraightSkeletonParcelDecomposition(SimpleFeature, NearestRoadIndex, String, String, double, double, double, double,
+     * double, double, double, String)}.
      */
     public static SimpleFeatureCollection runTopologicalStraightSkeletonParcelDecomposition(SimpleFeature feat, SimpleFeatureCollection roads,
                                                                                             String roadNameAttribute, String roadImportanceAttribute, double maxDepth, double maxDistanceForNearestRoad,
                                                                                             double minimalArea, double minWidth, double maxWidth, double omega, double widthRoad, String name) {
+        return runTopologicalStraightSkeletonParcelDecomposition(feat, new NearestRoadIndex(roads, roadNameAttribute, roadImportanceAttribute), roadNameAttribute,
+                roadImportanceAttribute, maxDepth, maxDistanceForNearestRoad, minimalArea, minWidth, maxWidth, omega, widthRoad, name);
+    }
+
+    /**
+     * Class to run an automatic Straight Skeleton application on a set of parcels, with roads already indexed by the caller.
+     *
+     * @param roadIndex index of the roads, built with the same name and importance attributes. Can be shared by several parcels and threads.
+     */
+    public static SimpleFeatureCollection runTopologicalStraightSkeletonParcelDecomposition(SimpleFeature feat, NearestRoadIndex roadIndex, String roadNameAttribute,
+                                                                                            String roadImportanceAttribute, double maxDepth, double maxDistanceForNearestRoad,
+                                                                                            double minimalArea, double minWidth, double maxWidth, double omega, double widthRoad, String name) {
         DefaultFeatureCollection result = new DefaultFeatureCollection();
         SimpleFeatureBuilder builder = ParcelSchema.addSimulatedField(feat.getFeatureType());
         if (feat.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) == null || !feat.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()).equals(1)) {
             Schemas.setFieldsToSFB(builder, feat);
             builder.set("SIMULATED", 0);
-            result.add(builder.buildFeature(Attribute.makeUniqueId()));
+            result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             return result;
         }
-        List<Polygon> globalOutputParcels = new ArrayList<>();
         List<Polygon> polygons = Polygons.getPolygons((Geometry) feat.getDefaultGeometry());
+        boolean generatePeripheralRoad = isGeneratePeripheralRoad();
+        SkeletonExecutor executor = new SkeletonExecutor(getParallelism(), getTaskTimeout());
+        List<Callable<List<Polygon>>> tasks = new ArrayList<>();
         for (Polygon polygon : polygons) {
+            // each polygon draws from its own stream, so results don't depend on whether polygons are decomposed concurrently
+            long seed = getRandom().nextLong();
+            tasks.add(() -> withRandom(seed, () -> decomposePolygon(feat, polygon, roadIndex, roadNameAttribute, roadImportanceAttribute, maxDepth, maxDistanceForNearestRoad,
+                    minimalArea, minWidth, maxWidth, omega, widthRoad, name, generatePeripheralRoad)));
+        }
+        List<Polygon> globalOutputParcels = new ArrayList<>();
+        // a polygon whose decomposition timed out is kept as it is
+        for (List<Polygon> parcels : executor.invokeAll(tasks, i -> Collections.singletonList(polygons.get(i))))
+            globalOutputParcels.addAll(parcels);
+        TopologicalGraph output = new TopologicalGraph(globalOutputParcels, 0.02);
+        for (Face face : output.getFaces()) {
+            Schemas.setFieldsToSFB(builder, feat);
+            builder.set(CollecMgmt.getDefaultGeomName(), face.getGeometry());
+            builder.set("SIMULATED", 1);
+            result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
+        }
+        return result;
+    }
+
+    /**
+     * Decompose a polygon of a parcel, with less precision if the first try fails.
+     *
+     * @return the parcels of the polygon, which is empty if the polygon is too small or if its decomposition failed
+     */
+    private static List<Polygon> decomposePolygon(SimpleFeature feat, Polygon polygon, NearestRoadIndex roadIndex, String roadNameAttribute, String roadImportanceAttribute,
+                                                  double maxDepth, double maxDistanceForNearestRoad, double minimalArea, double minWidth, double maxWidth, double omega,
+                                                  double widthRoad, String name, boolean generatePeripheralRoad) {
+        List<Polygon> globalOutputParcels = new ArrayList<>();
+        try {
+            if (polygon.getArea() < minimalArea) // if small parcel, we ignore
+                return globalOutputParcels;
+            log("start with polygon " + feat);
+            StraightSkeletonDivision decomposition = SkeletonCache.decompose(polygon, roadIndex,
+                    roadNameAttribute, roadImportanceAttribute, maxDepth, generatePeripheralRoad ? maxDistanceForNearestRoad + widthRoad : maxDistanceForNearestRoad, 2, 2.0, generatePeripheralRoad, widthRoad, name);
+            trace(decomposition.straightSkeleton.getGraph(), decomposition.traceName + "_after_fix");
+            if (decomposition.betaStrips != null)
+                globalOutputParcels.addAll(decomposition.createParcels(minWidth, maxWidth, omega));
+            else
+                globalOutputParcels.add(decomposition.initialPolygon);
+            log("end with polygon " + feat);
+        } catch (CancellationException e) {
+            // the task has been stopped: no second try
+            throw e;
+        } catch (Exception e) {
+            log("error with polygon " + feat + ". Try with less precision");
             try {
                 if (polygon.getArea() < minimalArea) // if small parcel, we ignore
-                    continue;
+                    return globalOutputParcels;
                 log("start with polygon " + feat);
-                StraightSkeletonDivision decomposition = new StraightSkeletonDivision(polygon, roads,
-                        roadNameAttribute, roadImportanceAttribute, maxDepth, generatePeripheralRoad ? maxDistanceForNearestRoad + widthRoad : maxDistanceForNearestRoad, generatePeripheralRoad, widthRoad, name);
-                export(decomposition.straightSkeleton.getGraph(), new File(FOLDER_PARTICULAR_DEBUG, "after_fix"));
+                StraightSkeletonDivision decomposition = SkeletonCache.decompose(polygon, roadIndex,
+                        roadNameAttribute, roadImportanceAttribute, maxDepth, generatePeripheralRoad ? maxDistanceForNearestRoad + widthRoad : maxDistanceForNearestRoad, 1, 3.0, generatePeripheralRoad, widthRoad, name);
+                trace(decomposition.straightSkeleton.getGraph(), decomposition.traceName + "_after_fix");
                 if (decomposition.betaStrips != null)
                     globalOutputParcels.addAll(decomposition.createParcels(minWidth, maxWidth, omega));
                 else
                     globalOutputParcels.add(decomposition.initialPolygon);
                 log("end with polygon " + feat);
-            } catch (Exception e) {
-                log("error with polygon " + feat + ". Try with less precision");
-                try {
-                    if (polygon.getArea() < minimalArea) // if small parcel, we ignore
-                        continue;
-                    log("start with polygon " + feat);
-                    StraightSkeletonDivision decomposition = new StraightSkeletonDivision(polygon, roads,
-                            roadNameAttribute, roadImportanceAttribute, maxDepth, generatePeripheralRoad ? maxDistanceForNearestRoad + widthRoad : maxDistanceForNearestRoad, 1, 3.0, generatePeripheralRoad, widthRoad, name);
-                    export(decomposition.straightSkeleton.getGraph(), new File(FOLDER_PARTICULAR_DEBUG, "after_fix"));
-                    if (decomposition.betaStrips != null)
-                        globalOutputParcels.addAll(decomposition.createParcels(minWidth, maxWidth, omega));
-                    else
-                        globalOutputParcels.add(decomposition.initialPolygon);
-                    log("end with polygon " + feat);
-                } catch (Exception ee) {
-                    System.out.println(("fatal error with polygon " + feat));
-                    ee.printStackTrace();
-                }
+            } catch (CancellationException ee) {
+                throw ee;
+            } catch (Exception ee) {
+                System.out.println(("fatal error with polygon " + feat));
+                ee.printStackTrace();
             }
         }
-        TopologicalGraph output = new TopologicalGraph(globalOutputParcels, 0.02);
-        for (Face face : output.getFaces()) {
-            Schemas.setFieldsToSFB(builder, feat);
-            builder.set(CollecMgmt.getDefaultGeomName(), face.getGeometry());
-            builder.set("SIMULATED", 1);
-            result.add(builder.buildFeature(Attribute.makeUniqueId()));
-        }
-        return result;
+        return globalOutputParcels;
     }
 
-    private static void export(TopologicalGraph graph, File directory) {
-        if (!isSAVEINTERMEDIATERESULT() && !isDEBUG())
+    /**
+     * Trace the faces, edges and nodes of a graph as three layers. Features are built right away (the graph is modified afterwards) and only if the trace sink is enabled.
+     *
+     * @param graph graph to trace
+     * @param layer prefix of the layers
+     */
+    private static void trace(TopologicalGraph graph, String layer) {
+        TraceSink sink = getTraceSink();
+        if (!sink.isEnabled())
             return;
-        for (int id = 0; id < graph.getFaces().size(); id++)
-            graph.getFaces().get(id).setAttribute("ID", id);
-        List<Node> nodes = new ArrayList<>(graph.getNodes());
-        for (int id = 0; id < graph.getNodes().size(); id++)
-            nodes.get(id).setAttribute("ID", id);
-        for (int id = 0; id < graph.getEdges().size(); id++) {
-            HalfEdge edge = graph.getEdges().get(id);
-            edge.setAttribute("ID", id);
-            edge.setAttribute("ORIGIN", edge.getOrigin().getAttribute("ID"));
-            edge.setAttribute("TARGET", edge.getTarget().getAttribute("ID"));
-            if (edge.getFace() != null)
-                edge.setAttribute("FACE", edge.getFace().getAttribute("ID"));
-            else
-                edge.setAttribute("FACE", "");
+        GeometryFactory factory = new GeometryFactory();
+        Map<Face, Integer> faceIds = new IdentityHashMap<>();
+        for (Face face : graph.getFaces())
+            faceIds.put(face, faceIds.size());
+        Map<Node, Integer> nodeIds = new IdentityHashMap<>();
+        for (Node node : graph.getNodes())
+            nodeIds.put(node, nodeIds.size());
+        Map<HalfEdge, Integer> edgeIds = new IdentityHashMap<>();
+        for (HalfEdge edge : graph.getEdges())
+            edgeIds.put(edge, edgeIds.size());
+        SimpleFeatureBuilder faceBuilder = traceBuilder("faces", Polygon.class);
+        DefaultFeatureCollection faces = new DefaultFeatureCollection();
+        for (Face face : graph.getFaces()) {
+            faceBuilder.set(CollecMgmt.getDefaultGeomName(), face.getGeometry());
+            faceBuilder.set("ID", faceIds.get(face));
+            faces.add(faceBuilder.buildFeature(ParcelSchema.makeUniqueId()));
+        }
+        SimpleFeatureBuilder edgeBuilder = traceBuilder("edges", LineString.class, "ORIGIN", "TARGET", "FACE", "TWIN", "NEXT");
+        DefaultFeatureCollection edges = new DefaultFeatureCollection();
+        for (HalfEdge edge : graph.getEdges()) {
+            edgeBuilder.set(CollecMgmt.getDefaultGeomName(), edge.getGeometry());
+            edgeBuilder.set("ID", edgeIds.get(edge));
+            edgeBuilder.set("ORIGIN", nodeIds.get(edge.getOrigin()));
+            edgeBuilder.set("TARGET", nodeIds.get(edge.getTarget()));
+            edgeBuilder.set("FACE", edge.getFace() != null ? faceIds.get(edge.getFace()) : null);
+            edgeBuilder.set("TWIN", edge.getTwin() != null ? edgeIds.get(edge.getTwin()) : null);
+            edgeBuilder.set("NEXT", edge.getNext() != null ? edgeIds.get(edge.getNext()) : null);
+            edges.add(edgeBuilder.buildFeature(ParcelSchema.makeUniqueId()));
+        }
+        SimpleFeatureBuilder nodeBuilder = traceBuilder("nodes", Point.class);
+        DefaultFeatureCollection nodes = new DefaultFeatureCollection();
+        for (Node node : graph.getNodes()) {
+            nodeBuilder.set(CollecMgmt.getDefaultGeomName(), factory.createPoint(node.getCoordinate()));
+            nodeBuilder.set("ID", nodeIds.get(node));
+            nodes.add(nodeBuilder.buildFeature(ParcelSchema.makeUniqueId()));
+        }
+        sink.trace(layer + "_faces", faces);
+        sink.trace(layer + "_edges", edges);
+        sink.trace(layer + "_nodes", nodes);
+    }
+
+    private static SimpleFeatureBuilder traceBuilder(String name, Class<? extends Geometry> geometryClass, String... idFields) {
+        SimpleFeatureTypeBuilder sfTypeBuilder = new SimpleFeatureTypeBuilder();
+        sfTypeBuilder.setName(name);
+        try {
+            sfTypeBuilder.setCRS(CRS.decode(Schemas.getEpsg()));
+        } catch (FactoryException e) {
+            e.printStackTrace();
         }
-        for (int id = 0; id < graph.getEdges().size(); id++) {
-            HalfEdge edge = graph.getEdges().get(id);
-            edge.setAttribute("TWIN", (edge.getTwin() != null) ? edge.getTwin().getAttribute("ID") : null);
-            edge.setAttribute("NEXT", (edge.getNext() != null) ? edge.getNext().getAttribute("ID") : null);
+        sfTypeBuilder.add(CollecMgmt.getDefaultGeomName(), geometryClass);
+        sfTypeBuilder.setDefaultGeometry(CollecMgmt.getDefaultGeomName());
+        sfTypeBuilder.add("ID", Integer.class);
+        for (String field : idFields)
+            sfTypeBuilder.add(field, Integer.class);
+        return new SimpleFeatureBuilder(sfTypeBuilder.buildFeatureType());
+    }
+
+    /**
+     * Get the sink of the debug graphs. If no sink has been set, a {@link GeopackageTraceSink} writing in a new <i>skeletonTrace-(time).gpkg</i> file of the
+     * {@link #getFolderOutDebug()} folder is created when debug or intermediate results are on, and {@link TraceSink#NONE} is returned otherwise.
+     *
+     * @return the trace sink
+     */
+    public static TraceSink getTraceSink() {
+        TraceSink sink = traceSink;
+        if (sink != null)
+            return sink;
+        if (!isDEBUG() && !isSAVEINTERMEDIATERESULT())
+            return TraceSink.NONE;
+        synchronized (StraightSkeletonDivision.class) {
+            if (defaultTraceSink == null)
+                defaultTraceSink = new GeopackageTraceSink(new File(getFolderOutDebug(), "skeletonTrace-" + System.currentTimeMillis() + ".gpkg"));
+            return defaultTraceSink;
         }
-        if (!directory.isDirectory())
-            directory.mkdirs();
-        TopologicalGraph.setSRID(2154);
-        TopologicalGraph.export(graph.getFaces(), new File(directory, "faces.gpkg"), Polygon.class);
-        TopologicalGraph.export(graph.getEdges(), new File(directory, "edges.gpkg"), LineString.class);
-        TopologicalGraph.export(graph.getNodes(), new File(directory, "nodes.gpkg"), Point.class);
+    }
+
+    /**
+     * Set the sink of the debug graphs.
+     *
+     * @param traceSink sink to use, or null to go back to the default behaviour (see {@link #getTraceSink()})
+     */
+    public static void setTraceSink(TraceSink traceSink) {
+        StraightSkeletonDivision.traceSink = traceSink;
+    }
+
+    /**
+     * Register a run using the trace sink created in debug mode. Concurrent runs (i.e. scenarios executed in parallel) share this sink: it is only closed when every run that
+     * opened it has called {@link #closeTraceSink()}.
+     */
+    public static synchronized void openTraceSink() {
+        traceSinkUsers++;
+    }
+
+    /**
+     * Close the trace sink created in debug mode, if any, once the last run registered with {@link #openTraceSink()} ends. Without registered runs, the sink is closed at once.
+     * Called at the end of a scenario; the next traces go to a new file. Pending traces are written without holding the lock of the sink, so other runs can open and use a new sink
+     * meanwhile.
+     */
+    public static void closeTraceSink() {
+        TraceSink toClose;
+        synchronized (StraightSkeletonDivision.class) {
+            if (traceSinkUsers > 0 && --traceSinkUsers > 0)
+                return;
+            toClose = defaultTraceSink;
+            defaultTraceSink = null;
+        }
+        if (toClose != null)
+            toClose.close();
     }
 
     public static boolean isSAVEINTERMEDIATERESULT() {
@@ -642,16 +1004,72 @@ public class StraightSkeletonDivision extends Division {
         SAVEINTERMEDIATERESULT = SAVEINTERMEDIATERES;
     }
 
+    public static int getParallelism() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getSkeletonParallelism() : parallelism;
+    }
+
+    /**
+     * Set the number of parcels decomposed concurrently by {@link #runTopologicalStraightSkeletonParcelDecomposition(SimpleFeatureCollection, SimpleFeatureCollection, String,
+     * String, double, double, double, double, double, double, double, String)}, or of polygons of a multipolygon parcel when a single parcel is decomposed. Each parcel uses its
+     * own random stream and results are collected in the order of the parcels. Debug mode forces a sequential run. If a {@link SimulationContext} is bound to the current thread,
+     * only that context is changed.
+     *
+     * @param parallelism number of threads. 1 by default
+     */
+    public static void setParallelism(int parallelism) {
+        if (!SimulationContext.update(ctx -> ctx.withSkeletonParallelism(parallelism)))
+            StraightSkeletonDivision.parallelism = parallelism;
+    }
+
+    public static long getTaskTimeout() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getSkeletonTaskTimeout() : taskTimeout;
+    }
+
+    /**
+     * Set the maximal duration of the decomposition of a parcel (or of a polygon). A parcel that takes longer is kept as it is. If a {@link SimulationContext} is bound to the
+     * current thread, only that context is changed.
+     *
+     * @param taskTimeout timeout in milliseconds. 0 (default) means no timeout
+     */
+    public static void setTaskTimeout(long taskTimeout) {
+        if (!SimulationContext.update(ctx -> ctx.withSkeletonTaskTimeout(taskTimeout)))
+            StraightSkeletonDivision.taskTimeout = taskTimeout;
+    }
+
     public static boolean isGeneratePeripheralRoad() {
-        return generatePeripheralRoad;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.isGeneratePeripheralRoad() : generatePeripheralRoad;
     }
 
+    /**
+     * Set if a peripheral road is generated around the zones. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param generatePeripheralRoad true to generate the road
+     */
     public static void setGeneratePeripheralRoad(boolean generatePeripheralRoad) {
-        StraightSkeletonDivision.generatePeripheralRoad = generatePeripheralRoad;
+        if (!SimulationContext.update(ctx -> ctx.withGeneratePeripheralRoad(generatePeripheralRoad)))
+            StraightSkeletonDivision.generatePeripheralRoad = generatePeripheralRoad;
+    }
+
+    public static File getFolderOutDebug() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getFolderOutDebug() : FOLDER_OUT_DEBUG;
+    }
+
+    /**
+     * Set the root folder of the debug exports. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param folderOutDebug debug folder
+     */
+    public static void setFolderOutDebug(File folderOutDebug) {
+        if (!SimulationContext.update(ctx -> ctx.withFolderOutDebug(folderOutDebug)))
+            FOLDER_OUT_DEBUG = folderOutDebug;
     }
 
     private Optional<Pair<String, Double>> getRoadAttributes(LineString l, double maxDistanceForNearestRoad) {
-        return FindObjectInDirection.find(l, this.initialPolygon, this.roads, maxDistanceForNearestRoad, this.NAME_ATT_LEVELOFATTRACTION).map(this::getRoadAttributes);
+        return roadIndex.findAttributes(l, this.initialPolygon, maxDistanceForNearestRoad);
     }
 
     private Map<Face, List<HalfEdge>> frontageDefinition(double maxDistanceForNearestRoad) {
@@ -742,12 +1160,6 @@ public class StraightSkeletonDivision extends Division {
         return primary;
     }
 
-    private Pair<String, Double> getRoadAttributes(SimpleFeature s) {
-        String name = (String) s.getAttribute(NAME_ATT_ROADNAME);
-        String impo = (String) s.getAttribute(NAME_ATT_LEVELOFATTRACTION);
-        return new ImmutablePair<>(name == null ? "unknown" : name, Double.parseDouble(impo.replaceAll(",", ".")));
-    }
-
     /**
      * Mark the edges whether they are in the exterior of the polygon or not. Also order the nodes in the list
      * todo move to as-tools
@@ -811,6 +1223,7 @@ public class StraightSkeletonDivision extends Division {
         primaryStrips.add(currentStripHE);
         List<Node> nodes = new ArrayList<>();
         for (int i = 0; i < orderedExteriorEdges.size() - 1; i++) {
+            checkInterrupted();
             HalfEdge e1 = orderedExteriorEdges.get(i), e2 = orderedExteriorEdges.get((i + 1) % orderedExteriorEdges.size());
             Face f1 = e1.getFace(), f2 = e2.getFace();
             boolean p1 = frontages.containsKey(f1) && frontages.get(f1).contains(e1);
@@ -880,6 +1293,7 @@ public class StraightSkeletonDivision extends Division {
         tempGraph.getEdges().addAll(secondaryStrips);
         // In case of multiple frontage, remove secondary strips (they would create multilinestring supporting edges)
         for (Face face : this.facesWithMultipleFrontages) {
+            checkInterrupted();
             // get its primary strip
             Optional<HalfEdge> opPrimaryStrip = primaryStrips.stream()
                     .filter(s -> s.getChildren().stream().map(HalfEdge::getFace).anyMatch(f -> f == face)).findFirst();
@@ -1156,6 +1570,7 @@ public class StraightSkeletonDivision extends Division {
             Polygon remainder = (Polygon) strip.getGeometry().copy();
             // we remove the last width
             for (double w : widths.subList(1, widths.size())) {
+                checkInterrupted();
                 double next = current + w;
                 LineString l = (LineString) lil.extractLine(current, next);
                 // get perpendicular line
@@ -1182,8 +1597,10 @@ public class StraightSkeletonDivision extends Division {
     private List<Polygon> createParcels(double minWidth, double maxWidth, double omega) {
         NormalDistribution nd = new NormalDistribution(getRandom(), (minWidth + maxWidth) / 2, Math.sqrt(3 * omega));
         List<Polygon> result = new ArrayList<>();
-        for (Face face : betaStrips.getFaces())
+        for (Face face : betaStrips.getFaces()) {
+            checkInterrupted();
             result.addAll(slice(minWidth, maxWidth, nd, face));
+        }
         return result;
     }
 
@@ -1207,6 +1624,7 @@ public class StraightSkeletonDivision extends Division {
         log("");
         List<LineString> psiList = new ArrayList<>();
         for (int id = 0; id < alphaStrips.getFaces().size(); id++) {
+            checkInterrupted();
             Face strip = alphaStrips.getFaces().get(id);
             strip.setAttribute("ID", id);
             // create the supporting edge psi
@@ -1223,6 +1641,7 @@ public class StraightSkeletonDivision extends Division {
         psiList.stream().forEach(StraightSkeletonDivision::log);
         // classify supporting vertices
         for (Node n : alphaStrips.getNodes()) {
+            checkInterrupted();
             log("node\n" + n.getGeometry());
             HalfEdge previousEdge = TopologicalGraph.incomingEdgesOf(n, orderedExteriorEdges).get(0);
             HalfEdge nextEdge = TopologicalGraph.outgoingEdgesOf(n, orderedExteriorEdges).get(0);
@@ -1240,6 +1659,7 @@ public class StraightSkeletonDivision extends Division {
             HalfEdge currEdge = TopologicalGraph.next(n, null, edgeList);
             Node currNode = n;
             while (currEdge != null) {
+                checkInterrupted();
                 currNode = currEdge.getTarget();
                 diagonalEdgeList.add(currEdge);
                 currEdge = TopologicalGraph.next(currNode, currEdge, edgeList);
@@ -1322,12 +1742,12 @@ public class StraightSkeletonDivision extends Division {
                 }
             }
         }
-        export(new TopologicalGraph(alphaStrips.getFaces().stream().map(Face::getGeometry).collect(Collectors.toList()), tolerance),
-                new File(FOLDER_PARTICULAR_DEBUG, "beta_before_snap"));
+        if (getTraceSink().isEnabled())
+            trace(new TopologicalGraph(alphaStrips.getFaces().stream().map(Face::getGeometry).collect(Collectors.toList()), tolerance), traceName + "_beta_before_snap");
         // snap everything back to the original graph
         TopologicalGraph result = new TopologicalGraph(
                 alphaStrips.getFaces().stream().map(f -> snapped(f.getGeometry())).collect(Collectors.toList()), tolerance);
-        export(result, new File(FOLDER_PARTICULAR_DEBUG, "beta_after_snap"));
+        trace(result, traceName + "_beta_after_snap");
         // cleanup strips without exterior edge
         orderedExteriorEdges = getOrderedExteriorEdges(result);
         List<Face> toRemove = new ArrayList<>();
@@ -1353,7 +1773,7 @@ public class StraightSkeletonDivision extends Division {
         // modify the snapping geometry to add the new points where necessary
         // snapGeom = factory.createGeometryCollection(result.getFaces().stream().map(f -> f.getGeometry()).collect(Collectors.toList()).toArray(new Geometry[] {}));
         result = new TopologicalGraph(result.getFaces().stream().map(f -> snapped(f.getGeometry())).collect(Collectors.toList()), tolerance);
-        export(result, new File(FOLDER_PARTICULAR_DEBUG, "beta_after_removal"));
+        trace(result, traceName + "_beta_after_removal");
         // cleanup strips without exterior edge
         orderedExteriorEdges = getOrderedExteriorEdges(result);
         // add the initial supporting edges reduced to fit into the final beta strips
@@ -1626,23 +2046,43 @@ public class StraightSkeletonDivision extends Division {
      * TODO remove peripheral road when they touch existing road
      */
     public Pair<Polygon, SimpleFeatureCollection> generatePeripheralRoad(Polygon p, double roadWidth) {
+        Pair<Polygon, List<SimpleFeature>> peripheralRoad = generatePeripheralRoadFeatures(p, roadWidth);
+        DefaultFeatureCollection newRoad = new DefaultFeatureCollection();
+        newRoad.addAll(roadIndex.getRoads());
+        newRoad.addAll(peripheralRoad.getRight());
+        return new ImmutablePair<>(peripheralRoad.getLeft(), newRoad);
+    }
+
+    /**
+     * Creates a road around the parcel and reduce the parcel polygon. See {@link #generatePeripheralRoad(Polygon, double)}.
+     *
+     * @return A pair with the new input polygon to its left and the generated roads only to its right
+     */
+    private Pair<Polygon, List<SimpleFeature>> generatePeripheralRoadFeatures(Polygon p, double roadWidth) {
         Polygon newGeom = Polygons.getPolygon(p.buffer(-roadWidth));
+        List<SimpleFeature> newRoad = new ArrayList<>();
         if (newGeom == null || newGeom.isEmpty())
-            return new ImmutablePair<>(p, this.roads);
-        DefaultFeatureCollection newRoad = new DefaultFeatureCollection();
-        SimpleFeatureBuilder roadSFB = new SimpleFeatureBuilder(roads.getSchema());
-        newRoad.addAll(roads);
+            return new ImmutablePair<>(p, newRoad);
+        SimpleFeatureBuilder roadSFB = new SimpleFeatureBuilder(roadIndex.getSchema());
         List<Polygon> lp = FeaturePolygonizer.getPolygons(Arrays.asList(newGeom, Polygons.getPolygon(p.buffer(-roadWidth / 2))));
         for (Polygon pp : lp) {
             if (newGeom.buffer(0.5).contains(pp)) //skip if the parcel is the interior one
                 continue;
             int nb = 0;
-            for (MultiLineString ls : dividePeripheralRoadInParts(pp.getExteriorRing())) {
-                roadSFB.set(roads.getSchema().getGeometryDescriptor().getLocalName(), ls);
+            List<MultiLineString> parts = dividePeripheralRoadInParts(pp.getExteriorRing());
+            for (MultiLineString ls : parts) {
+                roadSFB.set(roadIndex.getSchema().getGeometryDescriptor().getLocalName(), ls);
                 roadSFB.set(this.NAME_ATT_ROADNAME, "autogenerated" + nb++);
                 roadSFB.set(this.NAME_ATT_LEVELOFATTRACTION, 4);
-                newRoad.add(roadSFB.buildFeature(Attribute.makeUniqueId()));
+                newRoad.add(roadSFB.buildFeature(ParcelSchema.makeUniqueId()));
             }
+            TraceSink sink = getTraceSink();
+            if (sink.isEnabled()) //save all generated peripheral roads
+                try {
+                    sink.trace(traceName + "_peripheralRoads", Geom.geomsToCollec(parts, Schemas.getBasicMLSSchema("PeripheralRoad")));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
         }
         return new ImmutablePair<>(newGeom, newRoad);
     }
@@ -0,0 +1,45 @@
+package fr.ign.artiscales.pm.division;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+
+/**
+ * Destination of the intermediate geometries traced by the division algorithms for debug purposes (i.e. the graphs of {@link StraightSkeletonDivision}). Callers must check
+ * {@link #isEnabled()} before building what they trace, so a disabled sink costs a single call.
+ */
+public interface TraceSink {
+    /**
+     * Sink that traces nothing.
+     */
+    TraceSink NONE = new TraceSink() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void trace(String layer, SimpleFeatureCollection features) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * @return true if the traced features are kept
+     */
+    boolean isEnabled();
+
+    /**
+     * Trace a set of features. The collection must not be changed afterwards, as it can be written later.
+     *
+     * @param layer    name of the layer of the features
+     * @param features features to trace
+     */
+    void trace(String layer, SimpleFeatureCollection features);
+
+    /**
+     * Write the pending features and release the resources of the sink.
+     */
+    void close();
+}
@@ -6,7 +6,6 @@ import fr.ign.artiscales.pm.fields.french.FrenchZoningSchemas;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelAttribute;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -312,7 +311,7 @@ public class GeneralFields {
                 builder.set(ParcelSchema.getParcelCommunityField(), ParcelAttribute.getCommunityCodeFromSFC(sfcWithInfo, feat));
                 builder.set(ParcelSchema.getParcelSectionField(), ParcelAttribute.getSectionCodeFromSFC(sfcWithInfo, feat));
                 builder.set(ParcelSchema.getParcelNumberField(), ParcelAttribute.getNumberCodeFromSFC(sfcWithInfo, feat));
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception problem) {
             problem.printStackTrace();
@@ -347,7 +346,7 @@ public class GeneralFields {
                 sfb = ParcelSchema.setSFBMinParcelWithFeat(feat, ParcelSchema.getSFBMinParcelSplit().getFeatureType());
             else
                 sfb = ParcelSchema.setSFBMinParcelWithFeat(feat, ParcelSchema.getSFBMinParcel().getFeatureType());
-            result.add(sfb.buildFeature(Attribute.makeUniqueId()));
+            result.add(sfb.buildFeature(ParcelSchema.makeUniqueId()));
         });
         return result;
     }
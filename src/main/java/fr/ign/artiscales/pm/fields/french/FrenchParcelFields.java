@@ -3,7 +3,6 @@ package fr.ign.artiscales.pm.fields.french;
 import fr.ign.artiscales.pm.fields.GeneralFields;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecTransform;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -41,7 +40,7 @@ public class FrenchParcelFields {
             try (SimpleFeatureIterator parcelIt = parcels.features()) {
                 while (parcelIt.hasNext()) {
                     SimpleFeature parcel = parcelIt.next();
-                    result.add(ParcelSchema.setSFBMinParcelSplitWithFeat(parcel, builder, builder.getFeatureType(), (int) parcel.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName())).buildFeature(Attribute.makeUniqueId()));
+                    result.add(ParcelSchema.setSFBMinParcelSplitWithFeat(parcel, builder, builder.getFeatureType(), (int) parcel.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName())).buildFeature(ParcelSchema.makeUniqueId()));
                 }
             } catch (Exception problem) {
                 problem.printStackTrace();
@@ -51,7 +50,7 @@ public class FrenchParcelFields {
             try (SimpleFeatureIterator parcelIt = parcels.features()) {
                 while (parcelIt.hasNext()) {
                     SimpleFeature parcel = parcelIt.next();
-                    result.add(ParcelSchema.setSFBMinParcelWithFeat(parcel, builder, builder.getFeatureType()).buildFeature(Attribute.makeUniqueId()));
+                    result.add(ParcelSchema.setSFBMinParcelWithFeat(parcel, builder, builder.getFeatureType()).buildFeature(ParcelSchema.makeUniqueId()));
                 }
             } catch (Exception problem) {
                 problem.printStackTrace();
@@ -101,7 +100,7 @@ public class FrenchParcelFields {
                 featureBuilder.set("FEUILLE", iniParcel.getAttribute("FEUILLE"));
                 featureBuilder.set("NOM_COM", iniParcel.getAttribute("NOM_COM"));
                 featureBuilder.set("CODE_ARR", iniParcel.getAttribute("CODE_ARR"));
-                parcelFinal.add(featureBuilder.buildFeature(Attribute.makeUniqueId()));
+                parcelFinal.add(featureBuilder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception problem) {
             problem.printStackTrace();
@@ -154,7 +153,7 @@ public class FrenchParcelFields {
                 for (AttributeDescriptor attr : feat.getFeatureType().getAttributeDescriptors())
                     builder.set(attr.getName(), feat.getAttribute(attr.getName()));
                 builder.set("CODE", makeFrenchParcelCode(feat));
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception problem) {
             problem.printStackTrace();
@@ -186,7 +185,7 @@ public class FrenchParcelFields {
                 for (AttributeDescriptor attr : feat.getFeatureType().getAttributeDescriptors())
                     builder.set(attr.getName(), feat.getAttribute(attr.getName()));
                 builder.set(GeneralFields.getZoneCommunityCode(), makeDEPCOMCode(feat));
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception problem) {
             problem.printStackTrace();
@@ -0,0 +1,40 @@
+package fr.ign.artiscales.pm.metrics;
+
+import com.opencsv.CSVWriter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Append the metrics to a CSV file, one line per metric and per report. The header is written if the file doesn't exist yet.
+ */
+public class CsvSink implements MetricsSink {
+    private final File csvFile;
+
+    public CsvSink(File csvFile) {
+        this.csvFile = csvFile;
+    }
+
+    @Override
+    public synchronized void report(Collection<Metric> metrics) {
+        boolean header = !csvFile.exists();
+        if (csvFile.getParentFile() != null)
+            csvFile.getParentFile().mkdirs();
+        try (CSVWriter csv = new CSVWriter(new FileWriter(csvFile, true))) {
+            if (header)
+                csv.writeNext(new String[]{"time", "name", "type", "count", "sum", "min", "max", "mean", "p50", "p99"});
+            String time = String.valueOf(System.currentTimeMillis());
+            for (Metric m : metrics)
+                csv.writeNext(new String[]{time, m.getName(), m.getType(), String.valueOf(m.getCount()), String.valueOf(m.getSum()), String.valueOf(m.getMin()),
+                        String.valueOf(m.getMax()), String.valueOf(m.getMean()), String.valueOf(m.getPercentile50()), String.valueOf(m.getPercentile99())});
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public File getCsvFile() {
+        return csvFile;
+    }
+}
@@ -0,0 +1,29 @@
+package fr.ign.artiscales.pm.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+
+/**
+ * Register the metrics in the platform {@link MBeanServer}, under the <i>fr.ign.artiscales.pm</i> domain. Metrics are read live by the JMX clients, so a report only registers the
+ * metrics created since the last one.
+ */
+public class JmxSink implements MetricsSink {
+    private static final String DOMAIN = "fr.ign.artiscales.pm";
+
+    @Override
+    public synchronized void report(Collection<Metric> metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Metric m : metrics)
+            try {
+                ObjectName objectName = new ObjectName(DOMAIN + ":type=Metric,name=" + ObjectName.quote(m.getName()));
+                if (!server.isRegistered(objectName))
+                    server.registerMBean(new StandardMBean(m, MetricMXBean.class, true), objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+    }
+}
@@ -0,0 +1,15 @@
+package fr.ign.artiscales.pm.metrics;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Print every metric on a single line of the standard output.
+ */
+public class LogSink implements MetricsSink {
+    @Override
+    public void report(Collection<Metric> metrics) {
+        if (!metrics.isEmpty())
+            System.out.println("metrics: " + metrics.stream().map(Metric::toString).collect(Collectors.joining(", ")));
+    }
+}
@@ -0,0 +1,153 @@
+package fr.ign.artiscales.pm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named metric. Every recorded value updates the count, sum, minimum and maximum. Timers and histograms also keep a distribution of the values in power of two buckets, from which
+ * approximate percentiles are computed. Values of timers are in nanoseconds. Recording is thread-safe and lock-free.
+ */
+public class Metric implements MetricMXBean {
+    private final String name;
+    private final Type type;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    /**
+     * Bucket i counts the values v such as 2^(i-1) &le; v &lt; 2^i (bucket 0 counts the values &le; 0).
+     */
+    private final AtomicLongArray buckets;
+
+    Metric(String name, Type type) {
+        this.name = name;
+        this.type = type;
+        this.buckets = type == Type.COUNTER ? null : new AtomicLongArray(Long.SIZE + 1);
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value increment of a counter, duration of a timer (in nanoseconds) or value of a histogram
+     */
+    public void add(long value) {
+        count.increment();
+        sum.add(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+        if (buckets != null)
+            buckets.incrementAndGet(value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * Forget every recorded value.
+     */
+    public void reset() {
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+        if (buckets != null)
+            for (int i = 0; i < buckets.length(); i++)
+                buckets.set(i, 0);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getType() {
+        return type.toString();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    @Override
+    public long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    @Override
+    public double getMean() {
+        long c = getCount();
+        return c == 0 ? 0 : (double) getSum() / c;
+    }
+
+    @Override
+    public long getPercentile50() {
+        return getPercentile(0.5);
+    }
+
+    @Override
+    public long getPercentile99() {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * Get an approximation of a percentile of the recorded values: the upper bound of the bucket containing it, capped by the maximum. Counters have no distribution and return their
+     * maximum.
+     *
+     * @param p percentile, between 0 and 1
+     * @return approximate value of the percentile
+     */
+    public long getPercentile(double p) {
+        if (buckets == null)
+            return getMax();
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            total += buckets.get(i);
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0)
+                return i == 0 ? 0 : Math.min(i >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.COUNTER)
+            return name + "=" + getSum();
+        if (type == Type.TIMER)
+            return name + "=[count=" + getCount() + ", totalMs=" + getSum() / 1000000 + ", meanMs=" + Math.round(getMean() / 1000) / 1000.0 + ", maxMs=" + getMax() / 1000000 + "]";
+        return name + "=[count=" + getCount() + ", mean=" + Math.round(getMean() * 100) / 100.0 + ", p50=" + getPercentile50() + ", p99=" + getPercentile99() + ", max=" + getMax() + "]";
+    }
+
+    /**
+     * Kind of metric
+     */
+    public enum Type {
+        /**
+         * Sum of increments
+         */
+        COUNTER,
+        /**
+         * Durations, in nanoseconds
+         */
+        TIMER,
+        /**
+         * Distribution of values
+         */
+        HISTOGRAM
+    }
+}
@@ -0,0 +1,24 @@
+package fr.ign.artiscales.pm.metrics;
+
+/**
+ * Management interface of a {@link Metric}, registered by the {@link JmxSink}.
+ */
+public interface MetricMXBean {
+    String getName();
+
+    String getType();
+
+    long getCount();
+
+    long getSum();
+
+    long getMin();
+
+    long getMax();
+
+    double getMean();
+
+    long getPercentile50();
+
+    long getPercentile99();
+}
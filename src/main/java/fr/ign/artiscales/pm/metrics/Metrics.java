@@ -0,0 +1,184 @@
+package fr.ign.artiscales.pm.metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Registry of the {@link Metric}s of the simulation. Metrics are created on their first record and published to the {@link MetricsSink}s on {@link #report()} (done at the end
+ * of every {@link fr.ign.artiscales.pm.scenario.PMScenario#executeStep()}).
+ * <p>
+ * Metrics are disabled by default: every record method then returns after reading a single volatile flag. They can be enabled with {@link #setEnabled(boolean)} or with the
+ * <i>pm.metrics</i> system property, which contains the sinks to use separated with commas: <i>log</i>, <i>jmx</i> or <i>csv:/path/to/file.csv</i> (i.e.
+ * <i>-Dpm.metrics=log,csv:metrics.csv</i>).
+ * <p>
+ * A timer is used as follows:
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.stop("ZoneDivision.zoneDivision", start);
+ * </pre>
+ */
+public class Metrics {
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+    private static final ConcurrentMap<String, Metric> registry = new ConcurrentHashMap<>();
+    private static final List<MetricsSink> sinks = new CopyOnWriteArrayList<>();
+    private static volatile boolean enabled = false;
+
+    static {
+        configure(System.getProperty("pm.metrics"));
+    }
+
+    /**
+     * Enable the metrics and add sinks from their description.
+     *
+     * @param description sinks separated with commas: <i>log</i>, <i>jmx</i> or <i>csv:/path/to/file.csv</i>. Nothing is done if null or empty.
+     */
+    public static void configure(String description) {
+        if (description == null || description.trim().isEmpty())
+            return;
+        for (String sink : description.split(",")) {
+            sink = sink.trim();
+            if (sink.equals("log"))
+                addSink(new LogSink());
+            else if (sink.equals("jmx"))
+                addSink(new JmxSink());
+            else if (sink.startsWith("csv:"))
+                addSink(new CsvSink(new File(sink.substring(4))));
+            else
+                System.out.println("Metrics: unknown sink " + sink);
+        }
+        setEnabled(true);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the recording of metrics. Already recorded values are kept.
+     *
+     * @param enabled true to record the metrics
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static void addSink(MetricsSink sink) {
+        sinks.add(sink);
+    }
+
+    public static void removeSink(MetricsSink sink) {
+        sinks.remove(sink);
+    }
+
+    /**
+     * Add one to a counter.
+     *
+     * @param name name of the counter
+     */
+    public static void increment(String name) {
+        if (enabled)
+            get(name, Metric.Type.COUNTER).add(1);
+    }
+
+    /**
+     * Add a value to a counter.
+     *
+     * @param name  name of the counter
+     * @param delta value to add
+     */
+    public static void increment(String name, long delta) {
+        if (enabled)
+            get(name, Metric.Type.COUNTER).add(delta);
+    }
+
+    /**
+     * Record a value in a histogram.
+     *
+     * @param name  name of the histogram
+     * @param value value to record
+     */
+    public static void record(String name, long value) {
+        if (enabled)
+            get(name, Metric.Type.HISTOGRAM).add(value);
+    }
+
+    /**
+     * Record a duration in a timer.
+     *
+     * @param name  name of the timer
+     * @param nanos duration in nanoseconds
+     */
+    public static void time(String name, long nanos) {
+        if (enabled)
+            get(name, Metric.Type.TIMER).add(nanos);
+    }
+
+    /**
+     * Start a timer.
+     *
+     * @return the start time to give to {@link #stop(String, long)}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : NOT_STARTED;
+    }
+
+    /**
+     * Stop a timer and record its duration. Nothing is recorded if metrics were disabled when the timer was started.
+     *
+     * @param name  name of the timer
+     * @param start value returned by {@link #start()}
+     */
+    public static void stop(String name, long start) {
+        if (start != NOT_STARTED && enabled)
+            get(name, Metric.Type.TIMER).add(System.nanoTime() - start);
+    }
+
+    /**
+     * Get a metric.
+     *
+     * @param name name of the metric
+     * @return the metric or null if nothing has been recorded with that name
+     */
+    public static Metric getMetric(String name) {
+        return registry.get(name);
+    }
+
+    /**
+     * Get every recorded metric.
+     *
+     * @return the metrics sorted by name
+     */
+    public static List<Metric> getMetrics() {
+        return registry.values().stream().sorted(Comparator.comparing(Metric::getName)).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Publish the metrics to every sink.
+     */
+    public static void report() {
+        if (sinks.isEmpty())
+            return;
+        Collection<Metric> metrics = getMetrics();
+        for (MetricsSink sink : sinks)
+            sink.report(metrics);
+    }
+
+    /**
+     * Forget the recorded values of every metric.
+     */
+    public static void reset() {
+        registry.values().forEach(Metric::reset);
+    }
+
+    private static Metric get(String name, Metric.Type type) {
+        return registry.computeIfAbsent(name, n -> new Metric(n, type));
+    }
+}
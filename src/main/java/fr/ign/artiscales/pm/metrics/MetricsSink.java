@@ -0,0 +1,15 @@
+package fr.ign.artiscales.pm.metrics;
+
+import java.util.Collection;
+
+/**
+ * Destination of the metrics, called by {@link Metrics#report()}.
+ */
+public interface MetricsSink {
+    /**
+     * Publish the current state of the metrics.
+     *
+     * @param metrics every metric recorded so far, sorted by name
+     */
+    void report(Collection<Metric> metrics);
+}
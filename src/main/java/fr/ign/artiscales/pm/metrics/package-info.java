@@ -0,0 +1,4 @@
+/**
+ * Lightweight counters, timers and histograms of the simulation hot paths, reported to pluggable sinks. Disabled by default
+ */
+package fr.ign.artiscales.pm.metrics;
\ No newline at end of file
@@ -1,6 +1,7 @@
 package fr.ign.artiscales.pm.parcel;
 
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
+import fr.ign.artiscales.pm.parcelFunction.ParcelAdjacencyGraph;
+import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import org.geotools.feature.DefaultFeatureCollection;
@@ -15,6 +16,7 @@ import org.opengis.referencing.FactoryException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -29,7 +31,7 @@ public class SyntheticParcel {
     public List<String> lIdNeighborhood;
 
     public SyntheticParcel(Geometry geom, double area, double distanceToCenter, long nbNeighborhood, int ownerID, int regionID) {
-        this.id = "Parcel" + Attribute.makeUniqueId();
+        this.id = "Parcel" + ParcelSchema.makeUniqueId();
         this.geom = geom;
         this.area = area;
         this.distanceToCenter = distanceToCenter;
@@ -60,7 +62,7 @@ public class SyntheticParcel {
             sfb.set("parcelID", sp.id);
             sfb.set("ownerID", sp.ownerID);
             sfb.set("regionID", sp.regionID);
-            result.add(sfb.buildFeature(Attribute.makeUniqueId()));
+            result.add(sfb.buildFeature(ParcelSchema.makeUniqueId()));
         }
         CollecMgmt.exportSFC(result, outFile);
     }
@@ -89,5 +91,16 @@ public class SyntheticParcel {
     public void setIdNeighborhood(List<SyntheticParcel> lSP) {
         lIdNeighborhood = lSP.stream().filter(g -> Geom.safeIntersect(g.geom.buffer(1), geom)).filter(g -> !g.geom.equals(geom)).map(sp -> sp.id).collect(Collectors.toList());
     }
+
+    /**
+     * Set the neighbourhood IDs of every parcel of a list, using a {@link ParcelAdjacencyGraph} built once instead of testing every pair of parcels.
+     *
+     * @param lSP list of synthetic parcels
+     */
+    public static void setIdNeighborhoods(List<SyntheticParcel> lSP) {
+        ParcelAdjacencyGraph graph = new ParcelAdjacencyGraph(lSP.stream().map(sp -> sp.geom).collect(Collectors.toList()));
+        for (int i = 0; i < lSP.size(); i++)
+            lSP.get(i).lIdNeighborhood = Arrays.stream(graph.getNeighbours(i)).sorted().mapToObj(j -> lSP.get(j).id).collect(Collectors.toList());
+    }
 }
 
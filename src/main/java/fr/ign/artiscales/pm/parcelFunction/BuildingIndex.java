@@ -0,0 +1,54 @@
+package fr.ign.artiscales.pm.parcelFunction;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory index of a building collection. Buildings are read once (usually from a geo file) and indexed in a {@link FeatureIndex}, so selecting the buildings around a parcel
+ * doesn't scan the whole collection. Selections keep the order of the input collection. Once built, the index can be queried concurrently.
+ */
+public class BuildingIndex extends FeatureIndex {
+
+    /**
+     * Read and index a building collection.
+     *
+     * @param buildingSFC building collection (can be null)
+     */
+    public BuildingIndex(SimpleFeatureCollection buildingSFC) {
+        super(buildingSFC);
+    }
+
+    /**
+     * Select the buildings intersecting a geometry.
+     *
+     * @param geom geometry (usually a parcel)
+     * @return the intersecting buildings
+     */
+    public SimpleFeatureCollection selectIntersection(Geometry geom) {
+        List<SimpleFeature> result = new ArrayList<>();
+        for (SimpleFeature building : select(geom.getEnvelopeInternal()))
+            if (((Geometry) building.getDefaultGeometry()).intersects(geom))
+                result.add(building);
+        return DataUtilities.collection(result);
+    }
+
+    /**
+     * Select the buildings whose envelope is closer than a distance to the envelope of a geometry. It returns more buildings than a selection with a buffer of the same
+     * distance and is meant to shrink the building collection given to a method that makes its own selection.
+     *
+     * @param geom     geometry (usually a parcel)
+     * @param distance distance around the geometry's envelope
+     * @return the buildings around the geometry
+     */
+    public SimpleFeatureCollection selectAround(Geometry geom, double distance) {
+        Envelope env = new Envelope(geom.getEnvelopeInternal());
+        env.expandBy(distance);
+        return DataUtilities.collection(select(env));
+    }
+}
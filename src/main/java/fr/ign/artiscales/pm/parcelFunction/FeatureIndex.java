@@ -0,0 +1,119 @@
+package fr.ign.artiscales.pm.parcelFunction;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory index of a feature collection. Features are read once and their envelopes are stored in a {@link STRtree}, so selecting the features around a geometry doesn't scan
+ * the whole collection. Features are designated by their position in the input collection and selections can keep that order. Features without geometry are kept but never
+ * selected. Once built, the index can be queried concurrently.
+ */
+public class FeatureIndex {
+    private final List<SimpleFeature> features;
+    private final STRtree index = new STRtree();
+
+    /**
+     * Read and index a feature collection.
+     *
+     * @param sfc feature collection (can be null)
+     */
+    public FeatureIndex(SimpleFeatureCollection sfc) {
+        this(toList(sfc));
+    }
+
+    /**
+     * Index a list of features. The list is not copied and must not be changed.
+     *
+     * @param features features to index
+     */
+    public FeatureIndex(List<SimpleFeature> features) {
+        this.features = features;
+        for (int i = 0; i < features.size(); i++) {
+            Geometry geom = (Geometry) features.get(i).getDefaultGeometry();
+            if (geom != null)
+                index.insert(geom.getEnvelopeInternal(), i);
+        }
+        // build the tree now: the first query would build it otherwise, which isn't thread-safe
+        index.build();
+    }
+
+    /**
+     * Get the positions of the features whose envelope intersects the given one.
+     *
+     * @param env envelope
+     * @return the positions of the features, in the order of the input collection
+     */
+    public List<Integer> candidates(Envelope env) {
+        List<Integer> candidates = new ArrayList<>();
+        for (Object o : index.query(env))
+            candidates.add((Integer) o);
+        Collections.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * Select the features whose envelope intersects the given one.
+     *
+     * @param env envelope
+     * @return the features, in the order of the input collection
+     */
+    public List<SimpleFeature> select(Envelope env) {
+        List<SimpleFeature> result = new ArrayList<>();
+        for (int i : candidates(env))
+            result.add(features.get(i));
+        return result;
+    }
+
+    /**
+     * Select the features whose envelope intersects the given one, in no particular order.
+     *
+     * @param env envelope
+     * @return the features
+     */
+    public List<SimpleFeature> query(Envelope env) {
+        List<SimpleFeature> result = new ArrayList<>();
+        for (Object o : index.query(env))
+            result.add(features.get((Integer) o));
+        return result;
+    }
+
+    /**
+     * @param i position of the feature in the input collection
+     * @return the feature
+     */
+    public SimpleFeature get(int i) {
+        return features.get(i);
+    }
+
+    /**
+     * @return every indexed feature, in the order of the input collection
+     */
+    public List<SimpleFeature> getFeatures() {
+        return Collections.unmodifiableList(features);
+    }
+
+    /**
+     * @return number of indexed features
+     */
+    public int size() {
+        return features.size();
+    }
+
+    private static List<SimpleFeature> toList(SimpleFeatureCollection sfc) {
+        List<SimpleFeature> list = new ArrayList<>();
+        if (sfc != null)
+            try (SimpleFeatureIterator it = sfc.features()) {
+                while (it.hasNext())
+                    list.add(it.next());
+            }
+        return list;
+    }
+}
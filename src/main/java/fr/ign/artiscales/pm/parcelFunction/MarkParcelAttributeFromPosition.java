@@ -2,11 +2,11 @@ package fr.ign.artiscales.pm.parcelFunction;
 
 import fr.ign.artiscales.pm.fields.GeneralFields;
 import fr.ign.artiscales.pm.fields.french.FrenchZoningSchemas;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.pm.workflow.ConsolidationDivision;
 import fr.ign.artiscales.pm.workflow.Densification;
 import fr.ign.artiscales.pm.workflow.WorkflowType;
 import fr.ign.artiscales.pm.workflow.ZoneDivision;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -133,10 +133,10 @@ public class MarkParcelAttributeFromPosition {
                 if (isAlreadyMarked(feat) != 0
                         && ParcelState.isParcelHasRoadAccess(Polygons.getPolygon(geomFeat), CollecTransform.selectIntersection(roads, geomFeat),
                         CollecTransform.fromPolygonSFCtoRingMultiLines(CollecTransform.selectIntersection(block, geomFeat)), exclusionZone))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -184,10 +184,10 @@ public class MarkParcelAttributeFromPosition {
                 if (isAlreadyMarked(feat) != 0
                         && !ParcelState.isParcelHasRoadAccess(Polygons.getPolygon(geomFeat), CollecTransform.selectIntersection(roads, geomFeat),
                         CollecTransform.fromPolygonSFCtoRingMultiLines(CollecTransform.selectIntersection(block, geomFeat)), exclusionZone))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -211,10 +211,10 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && ((Geometry) feat.getDefaultGeometry()).getArea() <= size)
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -238,10 +238,10 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && ((Geometry) feat.getDefaultGeometry()).getArea() > size)
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -287,7 +287,7 @@ public class MarkParcelAttributeFromPosition {
                     result.add(sf);
                     nbParcelToMark--;
                 } else {
-                    sf.setAttribute(markFieldName, 0);
+                    sf.setAttribute(getMarkFieldName(), 0);
                     result.add(sf);
                 }
             }
@@ -338,10 +338,10 @@ public class MarkParcelAttributeFromPosition {
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0
                         && !ParcelState.isAlreadyBuilt(CollecTransform.selectIntersection(buildings, (Geometry) feat.getDefaultGeometry()), feat, -1.0, uncountedBuildingArea))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -382,10 +382,10 @@ public class MarkParcelAttributeFromPosition {
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && ParcelState.isAlreadyBuilt(
                         CollecTransform.selectIntersection(buildings, (Geometry) feat.getDefaultGeometry()), feat, -1.0, uncountedBuildingArea))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -413,10 +413,10 @@ public class MarkParcelAttributeFromPosition {
                         .unionPrecisionReduce(
                                 geoms.stream().filter(g -> g.intersects((Geometry) feat.getDefaultGeometry())).collect(Collectors.toList()), 100)
                         .isEmpty())
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -444,10 +444,10 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && OpOnCollec.isFeatIntersectsSFC(feat, polyCollec))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -476,10 +476,10 @@ public class MarkParcelAttributeFromPosition {
             while (it.hasNext()) {
                 SimpleFeature feat = it.next();
                 if (isAlreadyMarked(feat) != 0 && feat.getAttribute(attributeFieldName).equals(attributeFieldValue))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -522,10 +522,10 @@ public class MarkParcelAttributeFromPosition {
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && genericZoneUsualNames.contains(
                         CollecTransform.getIntersectingFieldFromSFC((Geometry) feat.getDefaultGeometry(), zoningSFC, GeneralFields.getZoneGenericNameField())))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -560,10 +560,10 @@ public class MarkParcelAttributeFromPosition {
                         GeneralFields.getZoneGenericNameField()))
                         && !preciseZone.contains(CollecTransform.getIntersectingFieldFromSFC((Geometry) feat.getDefaultGeometry(), zoningSFC,
                         GeneralFields.getZonePreciseNameField())))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -612,10 +612,10 @@ public class MarkParcelAttributeFromPosition {
                 if (isAlreadyMarked(feat) != 0 && (genericZone == null || genericZone.equals("") ||
                         genericZoneUsualNames.contains(CollecTransform.getIntersectingFieldFromSFC((Geometry) feat.getDefaultGeometry(), zoningSFC, GeneralFields.getZoneGenericNameField())))
                         && preciseZone.equalsIgnoreCase(CollecTransform.getIntersectingFieldFromSFC((Geometry) feat.getDefaultGeometry(), zoningSFC, GeneralFields.getZonePreciseNameField())))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -655,10 +655,10 @@ public class MarkParcelAttributeFromPosition {
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && FrenchZoningSchemas.isUrbanZoneUsuallyAdmitResidentialConstruction(
                         CollecTransform.getIntersectingSimpleFeatureFromSFC((Geometry) feat.getDefaultGeometry(), zoning)))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -705,10 +705,10 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && feat.getAttribute(fieldName).equals(attribute))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -723,16 +723,18 @@ public class MarkParcelAttributeFromPosition {
      * @return the field name
      */
     public static String getMarkFieldName() {
-        return markFieldName;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getMarkFieldName() : markFieldName;
     }
 
     /**
-     * Set the name of the field containing the parcel's mark
+     * Set the name of the field containing the parcel's mark. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
      *
      * @param markFieldName the field name
      */
     public static void setMarkFieldName(String markFieldName) {
-        MarkParcelAttributeFromPosition.markFieldName = markFieldName;
+        if (!SimulationContext.update(ctx -> ctx.withMarkFieldName(markFieldName)))
+            MarkParcelAttributeFromPosition.markFieldName = markFieldName;
     }
 
     /**
@@ -743,7 +745,7 @@ public class MarkParcelAttributeFromPosition {
      * @return {@link SimpleFeatureCollection} of the input parcels with marked parcels on the {@link #markFieldName} field.
      */
     public static SimpleFeatureCollection markAlreadyMarkedParcels(SimpleFeatureCollection parcels, SimpleFeatureCollection parcelsMarked) {
-        if (!CollecMgmt.isCollecContainsAttribute(parcelsMarked, markFieldName)) {
+        if (!CollecMgmt.isCollecContainsAttribute(parcelsMarked, getMarkFieldName())) {
             System.out.println("markAlreadyMarkedParcels: parcelMarked doesn't contain the markFieldName field");
             return parcels;
         }
@@ -761,11 +763,11 @@ public class MarkParcelAttributeFromPosition {
                 try (SimpleFeatureIterator itParcelsMarked = parcelsIntersectRef.features()) {
                     while (itParcelsMarked.hasNext()) {
                         SimpleFeature parcelMarked = itParcelsMarked.next();
-                        if ((int) parcelMarked.getAttribute(markFieldName) == 1 && ((Geometry) parcelMarked.getDefaultGeometry()).buffer(1).contains(geomParcelToMark)) {
+                        if ((int) parcelMarked.getAttribute(getMarkFieldName()) == 1 && ((Geometry) parcelMarked.getDefaultGeometry()).buffer(1).contains(geomParcelToMark)) {
                             for (AttributeDescriptor attr : parcelToMark.getFeatureType().getAttributeDescriptors())
                                 builder.set(attr.getName(), parcelToMark.getAttribute(attr.getName()));
-                            builder.set(markFieldName, 1);
-                            result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                            builder.set(getMarkFieldName(), 1);
+                            result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
                             continue toMarkParcel;
                         }
                     }
@@ -775,8 +777,8 @@ public class MarkParcelAttributeFromPosition {
                 // if we haven't found correspondance
                 for (AttributeDescriptor attr : parcelToMark.getFeatureType().getAttributeDescriptors())
                     builder.set(attr.getName(), parcelToMark.getAttribute(attr.getName()));
-                builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -798,9 +800,9 @@ public class MarkParcelAttributeFromPosition {
         if (builder.getFeatureType().equals(parcels.getSchema())) {
             Arrays.stream(parcels.toArray(new SimpleFeature[0])).forEach(feat -> {
                 if (isAlreadyMarked(feat) != 0 && GeneralFields.isParcelHasSimulatedFields(feat))
-                    feat.setAttribute(markFieldName, 1);
+                    feat.setAttribute(getMarkFieldName(), 1);
                 else
-                    feat.setAttribute(markFieldName, 0);
+                    feat.setAttribute(getMarkFieldName(), 0);
                 result.add(feat);
             });
             return result;
@@ -810,10 +812,10 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 Schemas.setFieldsToSFB(builder, feat);
                 if (isAlreadyMarked(feat) != 0 && GeneralFields.isParcelHasSimulatedFields(feat))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -843,10 +845,10 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 Schemas.setFieldsToSFB(builder, feat);
                 if (markWorkflowSimulatedParcelCondition(feat, workflowName))
-                    builder.set(markFieldName, 1);
+                    builder.set(getMarkFieldName(), 1);
                 else
-                    builder.set(markFieldName, 0);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), 0);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -886,8 +888,8 @@ public class MarkParcelAttributeFromPosition {
                 SimpleFeature feat = it.next();
                 for (AttributeDescriptor attr : feat.getFeatureType().getAttributeDescriptors())
                     builder.set(attr.getName(), feat.getAttribute(attr.getName()));
-                builder.set(markFieldName, 1);
-                result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                builder.set(getMarkFieldName(), 1);
+                result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -908,10 +910,10 @@ public class MarkParcelAttributeFromPosition {
      * </ul>
      */
     public static int isAlreadyMarked(SimpleFeature feat) {
-        if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, markFieldName) && feat.getAttribute(markFieldName) != null) {
-            if ((int) feat.getAttribute(markFieldName) == 0 || (GeneralFields.isParcelHasSimulatedFields(feat) && !postMark))
+        if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, getMarkFieldName()) && feat.getAttribute(getMarkFieldName()) != null) {
+            if ((int) feat.getAttribute(getMarkFieldName()) == 0 || (GeneralFields.isParcelHasSimulatedFields(feat) && !postMark))
                 return 0;
-            else if ((int) feat.getAttribute(markFieldName) == 1)
+            else if ((int) feat.getAttribute(getMarkFieldName()) == 1)
                 return 1;
             else
                 return -1;
@@ -937,7 +939,7 @@ public class MarkParcelAttributeFromPosition {
      * @return true is no parcels are marked, false otherwise
      */
     public static boolean isNoParcelMarked(SimpleFeatureCollection sfcIn) {
-        if (sfcIn == null || sfcIn.isEmpty() || !CollecMgmt.isCollecContainsAttribute(sfcIn, markFieldName))
+        if (sfcIn == null || sfcIn.isEmpty() || !CollecMgmt.isCollecContainsAttribute(sfcIn, getMarkFieldName()))
             return true;
         try {
             return countMarkedParcels(sfcIn) == 0;
@@ -979,7 +981,7 @@ public class MarkParcelAttributeFromPosition {
             return null;
         }
         Arrays.stream(in.toArray(new SimpleFeature[0])).forEach(feat -> {
-            if (marked == ((int) feat.getAttribute(markFieldName) == 1))
+            if (marked == ((int) feat.getAttribute(getMarkFieldName()) == 1))
                 result.add(feat);
         });
         return result;
@@ -993,20 +995,20 @@ public class MarkParcelAttributeFromPosition {
      */
     public static SimpleFeatureCollection resetMarkingField(SimpleFeatureCollection parcels) {
         DefaultFeatureCollection result = new DefaultFeatureCollection();
-        if (!CollecMgmt.isCollecContainsAttribute(parcels, markFieldName)) {
+        if (!CollecMgmt.isCollecContainsAttribute(parcels, getMarkFieldName())) {
             SimpleFeatureBuilder builder = ParcelSchema.addMarkField(parcels.getSchema());
             try (SimpleFeatureIterator featIt = parcels.features()) {
                 while (featIt.hasNext()) {
                     SimpleFeature parcel = featIt.next();
                     for (AttributeDescriptor attr : parcels.getSchema().getAttributeDescriptors())
                         builder.set(attr.getLocalName(), parcel.getAttribute(attr.getLocalName()));
-                    builder.set(markFieldName, null);
-                    result.add(builder.buildFeature(Attribute.makeUniqueId()));
+                    builder.set(getMarkFieldName(), null);
+                    result.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
                 }
             }
         } else {
             Arrays.stream(parcels.toArray(new SimpleFeature[0])).forEach(feat -> {
-                feat.setAttribute(markFieldName, null);
+                feat.setAttribute(getMarkFieldName(), null);
                 result.add(feat);
             });
         }
@@ -1034,7 +1036,7 @@ public class MarkParcelAttributeFromPosition {
             }
             sfb.add(s);
             sfb.set(geomName, g);
-            result.add(sfb.buildFeature(Attribute.makeUniqueId()));
+            result.add(sfb.buildFeature(ParcelSchema.makeUniqueId()));
         }
         Arrays.stream(parcelCollection.toArray(new SimpleFeature[0])).forEach(feat -> {
             if ((int) feat.getAttribute(getMarkFieldName()) != 1) {
@@ -1090,14 +1092,14 @@ public class MarkParcelAttributeFromPosition {
      * @return the parcel marked (possibly with an extra attribute)
      */
     public static SimpleFeature markParcel(SimpleFeature parcel, int value) {
-        if (!CollecMgmt.isSimpleFeatureContainsAttribute(parcel, markFieldName)) {
+        if (!CollecMgmt.isSimpleFeatureContainsAttribute(parcel, getMarkFieldName())) {
             SimpleFeatureBuilder parcelSchema = ParcelSchema.addMarkField(parcel.getFeatureType());
             for (AttributeDescriptor attr : parcelSchema.getFeatureType().getAttributeDescriptors())
                 parcelSchema.set(attr.getLocalName(), parcel.getAttribute(attr.getLocalName()));
-            parcelSchema.set(markFieldName, value);
-            return parcelSchema.buildFeature(Attribute.makeUniqueId());
+            parcelSchema.set(getMarkFieldName(), value);
+            return parcelSchema.buildFeature(ParcelSchema.makeUniqueId());
         } else {
-            parcel.setAttribute(markFieldName, value);
+            parcel.setAttribute(getMarkFieldName(), value);
             return parcel;
         }
     }
@@ -0,0 +1,293 @@
+package fr.ign.artiscales.pm.parcelFunction;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Adjacency graph of a parcel plan, built once with a {@link STRtree}. Two parcels are neighbours if they are closer than a tolerance distance (1 meter by default,
+ * which is the same than the <i>buffer(1)</i> tests used elsewhere). Each edge stores the length of the boundary the two parcels share.
+ * <p>
+ * Parcels are designated by their index in the input list (or in the {@link SimpleFeatureCollection#toArray()} array). Neighbours and shared lengths are stored in
+ * primitive arrays, so neighbourhood queries are done in O(degree). The graph can be updated when parcels are merged or split without being rebuilt.
+ */
+public class ParcelAdjacencyGraph {
+    private final double tolerance;
+    private Geometry[] geoms;
+    private boolean[] removed;
+    private int[][] neighbours;
+    private double[][] sharedLengths;
+    private int[] degrees;
+    private int size;
+
+    /**
+     * Build the graph of a parcel collection with a tolerance of 1 meter.
+     *
+     * @param parcels parcel collection. Index of the parcels are the ones of {@link SimpleFeatureCollection#toArray()}.
+     */
+    public ParcelAdjacencyGraph(SimpleFeatureCollection parcels) {
+        this(Arrays.stream(parcels.toArray(new SimpleFeature[0])).map(f -> (Geometry) f.getDefaultGeometry()).collect(Collectors.toList()), 1);
+    }
+
+    /**
+     * Build the graph of a list of parcel geometries with a tolerance of 1 meter.
+     *
+     * @param parcels parcel geometries
+     */
+    public ParcelAdjacencyGraph(List<? extends Geometry> parcels) {
+        this(parcels, 1);
+    }
+
+    /**
+     * Build the graph of a list of parcel geometries.
+     *
+     * @param parcels   parcel geometries
+     * @param tolerance maximal distance between two parcels to be considered as neighbours
+     */
+    public ParcelAdjacencyGraph(List<? extends Geometry> parcels, double tolerance) {
+        this.tolerance = tolerance;
+        int capacity = Math.max(parcels.size(), 4);
+        geoms = new Geometry[capacity];
+        removed = new boolean[capacity];
+        neighbours = new int[capacity][];
+        sharedLengths = new double[capacity][];
+        degrees = new int[capacity];
+        STRtree index = new STRtree();
+        for (Geometry g : parcels) {
+            int i = addNode(g);
+            index.insert(g.getEnvelopeInternal(), i);
+        }
+        Geometry[] buffers = new Geometry[size];
+        for (int i = 0; i < size; i++) {
+            Envelope env = new Envelope(geoms[i].getEnvelopeInternal());
+            env.expandBy(tolerance);
+            for (Object o : index.query(env)) {
+                int j = (Integer) o;
+                // each pair is only tested once
+                if (j <= i || !geoms[i].isWithinDistance(geoms[j], tolerance))
+                    continue;
+                if (buffers[i] == null)
+                    buffers[i] = geoms[i].buffer(tolerance);
+                addEdge(i, j, sharedLength(buffers[i], geoms[j]));
+            }
+        }
+    }
+
+    /**
+     * Number of parcels ever added to the graph, including the removed ones. Valid indexes go from 0 to size - 1.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the geometry of a parcel. After a merge, it is the geometry of the merged parcel.
+     *
+     * @param i parcel index
+     * @return geometry of the parcel
+     */
+    public Geometry getGeometry(int i) {
+        return geoms[i];
+    }
+
+    /**
+     * Has the parcel been removed, merged or split ?
+     *
+     * @param i parcel index
+     * @return true if the parcel isn't part of the plan anymore
+     */
+    public boolean isRemoved(int i) {
+        return removed[i];
+    }
+
+    /**
+     * Get the number of neighbours of a parcel.
+     *
+     * @param i parcel index
+     * @return number of neighbours
+     */
+    public int getDegree(int i) {
+        return degrees[i];
+    }
+
+    /**
+     * Get the index of the k-th neighbour of a parcel.
+     *
+     * @param i parcel index
+     * @param k rank of the neighbour, between 0 and {@link #getDegree(int)} - 1
+     * @return index of the neighbour
+     */
+    public int getNeighbour(int i, int k) {
+        return neighbours[i][k];
+    }
+
+    /**
+     * Get the length of the boundary shared by a parcel and its k-th neighbour.
+     *
+     * @param i parcel index
+     * @param k rank of the neighbour, between 0 and {@link #getDegree(int)} - 1
+     * @return shared length
+     */
+    public double getSharedLengthWith(int i, int k) {
+        return sharedLengths[i][k];
+    }
+
+    /**
+     * Get the indexes of the neighbours of a parcel.
+     *
+     * @param i parcel index
+     * @return a copy of the neighbour indexes
+     */
+    public int[] getNeighbours(int i) {
+        return Arrays.copyOf(neighbours[i], degrees[i]);
+    }
+
+    /**
+     * Get the length of the boundary shared by two parcels.
+     *
+     * @param i first parcel index
+     * @param j second parcel index
+     * @return shared length, or -1 if the parcels aren't neighbours
+     */
+    public double getSharedLength(int i, int j) {
+        int k = rank(i, j);
+        return k == -1 ? -1 : sharedLengths[i][k];
+    }
+
+    /**
+     * Merge a parcel into another one. The neighbours of the absorbed parcel become the neighbours of the other one and shared lengths are summed.
+     *
+     * @param absorbed index of the parcel that disappears
+     * @param into     index of the parcel that grows
+     * @param merged   geometry of the merged parcel
+     */
+    public void merge(int absorbed, int into, Geometry merged) {
+        removeEdge(absorbed, into);
+        for (int k = 0; k < degrees[absorbed]; k++) {
+            int n = neighbours[absorbed][k];
+            double length = sharedLengths[absorbed][k];
+            removeEdgeFrom(n, absorbed);
+            int rank = rank(into, n);
+            if (rank == -1)
+                addEdge(into, n, length);
+            else {
+                sharedLengths[into][rank] += length;
+                sharedLengths[n][rank(n, into)] += length;
+            }
+        }
+        degrees[absorbed] = 0;
+        removed[absorbed] = true;
+        geoms[into] = merged;
+    }
+
+    /**
+     * Replace a parcel by its parts. Adjacency of the parts is only computed against the former neighbours of the parcel and against each other.
+     *
+     * @param i     index of the split parcel
+     * @param parts geometries of the parts
+     * @return indexes of the parts
+     */
+    public int[] split(int i, List<? extends Geometry> parts) {
+        int[] formerNeighbours = getNeighbours(i);
+        remove(i);
+        int[] result = new int[parts.size()];
+        for (int p = 0; p < parts.size(); p++) {
+            Geometry part = parts.get(p);
+            int idx = addNode(part);
+            result[p] = idx;
+            Geometry buffer = null;
+            for (int n : formerNeighbours)
+                if (part.isWithinDistance(geoms[n], tolerance)) {
+                    if (buffer == null)
+                        buffer = part.buffer(tolerance);
+                    addEdge(idx, n, sharedLength(buffer, geoms[n]));
+                }
+            for (int q = 0; q < p; q++)
+                if (part.isWithinDistance(geoms[result[q]], tolerance)) {
+                    if (buffer == null)
+                        buffer = part.buffer(tolerance);
+                    addEdge(idx, result[q], sharedLength(buffer, geoms[result[q]]));
+                }
+        }
+        return result;
+    }
+
+    /**
+     * Remove a parcel from the graph (i.e. left as a public space).
+     *
+     * @param i parcel index
+     */
+    public void remove(int i) {
+        for (int k = 0; k < degrees[i]; k++)
+            removeEdgeFrom(neighbours[i][k], i);
+        degrees[i] = 0;
+        removed[i] = true;
+    }
+
+    private double sharedLength(Geometry buffer, Geometry other) {
+        try {
+            return buffer.intersection(other.getBoundary()).getLength();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private int addNode(Geometry g) {
+        if (size == geoms.length) {
+            int capacity = size * 2;
+            geoms = Arrays.copyOf(geoms, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+            neighbours = Arrays.copyOf(neighbours, capacity);
+            sharedLengths = Arrays.copyOf(sharedLengths, capacity);
+            degrees = Arrays.copyOf(degrees, capacity);
+        }
+        geoms[size] = g;
+        neighbours[size] = new int[4];
+        sharedLengths[size] = new double[4];
+        return size++;
+    }
+
+    private void addEdge(int i, int j, double length) {
+        addEdgeTo(i, j, length);
+        addEdgeTo(j, i, length);
+    }
+
+    private void addEdgeTo(int i, int j, double length) {
+        if (degrees[i] == neighbours[i].length) {
+            neighbours[i] = Arrays.copyOf(neighbours[i], degrees[i] * 2);
+            sharedLengths[i] = Arrays.copyOf(sharedLengths[i], degrees[i] * 2);
+        }
+        neighbours[i][degrees[i]] = j;
+        sharedLengths[i][degrees[i]++] = length;
+    }
+
+    private void removeEdge(int i, int j) {
+        removeEdgeFrom(i, j);
+        removeEdgeFrom(j, i);
+    }
+
+    private void removeEdgeFrom(int i, int j) {
+        int k = rank(i, j);
+        if (k == -1)
+            return;
+        // the last edge takes the place of the removed one
+        int last = --degrees[i];
+        neighbours[i][k] = neighbours[i][last];
+        sharedLengths[i][k] = sharedLengths[i][last];
+    }
+
+    private int rank(int i, int j) {
+        for (int k = 0; k < degrees[i]; k++)
+            if (neighbours[i][k] == j)
+                return k;
+        return -1;
+    }
+}
@@ -10,7 +10,6 @@ import org.locationtech.jts.geom.Geometry;
 import org.opengis.feature.simple.SimpleFeature;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -100,22 +99,26 @@ public class ParcelAttribute {
      */
     public static List<String> getCityCodesOfParcels(SimpleFeatureCollection parcels) {
         List<String> result = new ArrayList<>();
-        Arrays.stream(parcels.toArray(new SimpleFeature[0])).forEach(feat -> {
-            String code = ((String) feat.getAttribute(ParcelSchema.getParcelCommunityField()));
-            if (code != null && !code.isEmpty()) {
-                if (!result.contains(code)) {
-                    result.add(code);
-                }
-            } else {
-                try {
-                    String c = FrenchParcelFields.makeDEPCOMCode(feat);
-                    if (c != null && !result.contains(c)) {
-                        result.add(c);
+        // features are iterated rather than copied in an array, so the collection can be read straight from a data store
+        try (SimpleFeatureIterator it = parcels.features()) {
+            while (it.hasNext()) {
+                SimpleFeature feat = it.next();
+                String code = ((String) feat.getAttribute(ParcelSchema.getParcelCommunityField()));
+                if (code != null && !code.isEmpty()) {
+                    if (!result.contains(code)) {
+                        result.add(code);
+                    }
+                } else {
+                    try {
+                        String c = FrenchParcelFields.makeDEPCOMCode(feat);
+                        if (c != null && !result.contains(c)) {
+                            result.add(c);
+                        }
+                    } catch (Exception ignored) {
                     }
-                } catch (Exception ignored) {
                 }
             }
-        });
+        }
         return result;
     }
 
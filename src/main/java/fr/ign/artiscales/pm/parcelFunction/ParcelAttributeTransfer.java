@@ -0,0 +1,154 @@
+package fr.ign.artiscales.pm.parcelFunction;
+
+import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copy the attributes of the initial parcels (and of the zones they have been simulated in) to freshly simulated parcels. Initial parcels and zones are put in arrays and indexed
+ * in {@link STRtree}s once, so each simulated parcel is only compared to the features whose envelope intersects it, instead of scanning the whole collections with
+ * {@link fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecTransform#selectWhichIntersectMost(SimpleFeatureCollection, Geometry)}.
+ * <p>
+ * Candidates are always tested in the order of the input collections, so the results are the same than a linear scan. An instance is not thread-safe.
+ */
+public class ParcelAttributeTransfer {
+    private final SimpleFeature[] parcels;
+    private final STRtree parcelIndex = new STRtree();
+    private SimpleFeature[] zones;
+    private STRtree zoneIndex;
+    private PreparedGeometry[] bufferedZones;
+    private double zoneTolerance;
+
+    /**
+     * Index the initial parcels.
+     *
+     * @param parcels parcels to copy the attributes from
+     */
+    public ParcelAttributeTransfer(SimpleFeatureCollection parcels) {
+        this.parcels = parcels.toArray(new SimpleFeature[0]);
+        for (int i = 0; i < this.parcels.length; i++)
+            parcelIndex.insert(((Geometry) this.parcels[i].getDefaultGeometry()).getEnvelopeInternal(), i);
+        parcelIndex.build();
+    }
+
+    /**
+     * Index the zones the parcels have been simulated in, in order to get their section (see {@link #getZoneSection(Geometry)}).
+     *
+     * @param zones     zones with a section attribute
+     * @param tolerance distance under which a parcel is considered inside a zone
+     * @return this transfer
+     */
+    public ParcelAttributeTransfer withZones(SimpleFeatureCollection zones, double tolerance) {
+        this.zones = zones.toArray(new SimpleFeature[0]);
+        this.zoneTolerance = tolerance;
+        this.bufferedZones = new PreparedGeometry[this.zones.length];
+        zoneIndex = new STRtree();
+        for (int i = 0; i < this.zones.length; i++) {
+            Envelope env = new Envelope(((Geometry) this.zones[i].getDefaultGeometry()).getEnvelopeInternal());
+            env.expandBy(tolerance);
+            zoneIndex.insert(env, i);
+        }
+        zoneIndex.build();
+        return this;
+    }
+
+    /**
+     * Get the initial parcel that has the largest intersection area with a geometry. If several parcels have the same area, the first one is returned.
+     *
+     * @param geom simulated parcel
+     * @return the parcel that intersects the most, or null if no parcel intersects the geometry
+     */
+    public SimpleFeature getParcelWhichIntersectMost(Geometry geom) {
+        SimpleFeature best = null;
+        double bestArea = -1;
+        for (int i : candidates(parcelIndex, geom.getEnvelopeInternal())) {
+            Geometry parcelGeom = (Geometry) parcels[i].getDefaultGeometry();
+            if (!parcelGeom.intersects(geom))
+                continue;
+            double area;
+            try {
+                area = parcelGeom.intersection(geom).getArea();
+            } catch (TopologyException e) {
+                area = parcelGeom.buffer(0).intersection(geom.buffer(0)).getArea();
+            }
+            if (area > bestArea) {
+                best = parcels[i];
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the first initial parcel (in the order of the collection) that intersects a geometry.
+     *
+     * @param geom simulated parcel
+     * @return the first intersecting parcel, or null if no parcel intersects the geometry
+     */
+    public SimpleFeature getFirstIntersectingParcel(Geometry geom) {
+        for (int i : candidates(parcelIndex, geom.getEnvelopeInternal()))
+            if (((Geometry) parcels[i].getDefaultGeometry()).intersects(geom))
+                return parcels[i];
+        return null;
+    }
+
+    /**
+     * Get the section of the first zone (in the order of the collection) that contains a geometry, with the tolerance given in {@link #withZones(SimpleFeatureCollection, double)}.
+     *
+     * @param geom simulated parcel
+     * @return the section of the zone, or an empty string if no zone contains the geometry
+     */
+    public String getZoneSection(Geometry geom) {
+        if (zones == null)
+            return "";
+        for (int i : candidates(zoneIndex, geom.getEnvelopeInternal())) {
+            if (bufferedZones[i] == null)
+                bufferedZones[i] = PreparedGeometryFactory.prepare(((Geometry) zones[i].getDefaultGeometry()).buffer(zoneTolerance));
+            if (bufferedZones[i].contains(geom))
+                return (String) zones[i].getAttribute(ParcelSchema.getParcelSectionField());
+        }
+        return "";
+    }
+
+    /**
+     * Build a simulated parcel in one pass: attributes of the initial parcel which intersects the most, section of its zone (if zones are set), community of the first
+     * intersecting initial parcel and a given number.
+     *
+     * @param builder  builder of the final parcels
+     * @param geom     geometry of the simulated parcel
+     * @param geomName name of the geometry attribute
+     * @param num      number of the parcel
+     * @return the simulated parcel with its attributes
+     */
+    public SimpleFeature transfer(SimpleFeatureBuilder builder, Geometry geom, String geomName, int num) {
+        SimpleFeature mostIntersecting = getParcelWhichIntersectMost(geom);
+        if (mostIntersecting != null)
+            Schemas.setFieldsToSFB(builder, mostIntersecting);
+        builder.set(geomName, geom);
+        if (zones != null)
+            builder.set(ParcelSchema.getParcelSectionField(), getZoneSection(geom));
+        SimpleFeature firstIntersecting = getFirstIntersectingParcel(geom);
+        builder.set(ParcelSchema.getParcelCommunityField(), firstIntersecting == null ? null : firstIntersecting.getAttribute(ParcelSchema.getParcelCommunityField()));
+        builder.set(ParcelSchema.getParcelNumberField(), String.valueOf(num));
+        return builder.buildFeature(ParcelSchema.makeUniqueId());
+    }
+
+    private static List<Integer> candidates(STRtree index, Envelope env) {
+        List<Integer> candidates = new ArrayList<>();
+        for (Object o : index.query(env))
+            candidates.add((Integer) o);
+        Collections.sort(candidates);
+        return candidates;
+    }
+}
@@ -1,7 +1,7 @@
 package fr.ign.artiscales.pm.parcelFunction;
 
 import fr.ign.artiscales.pm.fields.artiscales.ArtiScalesSchemas;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
+import fr.ign.artiscales.pm.metrics.Metrics;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -28,11 +28,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -56,7 +56,7 @@ public class ParcelCollection {
         try(SimpleFeatureIterator it = parcels.features()) {
             while (it.hasNext()) {
                 Schemas.setFieldsToSFB(builder, it.next());
-                df.add(builder.buildFeature(Attribute.makeUniqueId()));
+                df.add(builder.buildFeature(ParcelSchema.makeUniqueId()));
             }
         }
         return df;
@@ -177,6 +177,9 @@ public class ParcelCollection {
      * This algorithm merges parcels when they are under an area threshold. It seek the surrounding parcel that share the largest side with the small parcel and merge their
      * geometries. Parcel must touch at least. If no surrounding parcels are found touching (or intersecting) the small parcel, the parcel is deleted and left as a public space.
      * Attributes from the large parcel are kept.
+     * <p>
+     * Done in a single pass: small parcels are taken from the smallest in a priority queue, neighbours are read in a {@link ParcelAdjacencyGraph} and a merged parcel that is
+     * still too small goes back to the queue. As in the former algorithm, the largest side is measured by the area of the neighbour inside the one meter buffer of the small parcel.
      *
      * @param parcelsUnsorted   {@link SimpleFeatureCollection} to check every parcels
      * @param minimalParcelSize Threshold which parcels are under to be merged
@@ -184,93 +187,84 @@ public class ParcelCollection {
      * @return The input {@link SimpleFeatureCollection} with small parcels merged or removed
      */
     public static SimpleFeatureCollection mergeTooSmallParcels(SimpleFeatureCollection parcelsUnsorted, double minimalParcelSize, boolean bufferGeom) {
-        List<Integer> sizeResults = new ArrayList<>();
-        SimpleFeatureCollection result = recursiveMergeTooSmallParcel(parcelsUnsorted, minimalParcelSize, bufferGeom);
-        sizeResults.add(result.size());
-        do { // recursive application of the merge algorithm to merge little parcels to big ones one-by-one
-            result = recursiveMergeTooSmallParcel(result, minimalParcelSize, bufferGeom);
-            sizeResults.add(result.size());
-        } // while parcels are still getting merged, we run the recursive algorithm
-        while (!sizeResults.get(sizeResults.size() - 1).equals(sizeResults.get(sizeResults.size() - 2)));
-        return result;
-    }
-
-    private static SimpleFeatureCollection recursiveMergeTooSmallParcel(SimpleFeatureCollection parcelsUnsorted, double minimalParcelSize, boolean bufferGeom) {
-        DefaultFeatureCollection result = new DefaultFeatureCollection();
-        // we sort the parcel collection to process the smallest parcels in first
-        List<String> ids = new ArrayList<>();
-        //easy hack to sort parcels by their size
-        SortedMap<Double, SimpleFeature> index = new TreeMap<>();
-        try (SimpleFeatureIterator itr = parcelsUnsorted.features()) {
-            while (itr.hasNext()) {
-                SimpleFeature feature = itr.next();
-                //get the area an generate random numbers for the last 4 for out of 14 decimal. this hack is done to avoid exaclty same key area and delete some features
-                index.put(((Geometry) feature.getDefaultGeometry()).getArea() + Math.random() / 1000000, feature);
+        SimpleFeature[] feats = parcelsUnsorted.toArray(new SimpleFeature[0]);
+        Geometry[] geoms = new Geometry[feats.length];
+        for (int i = 0; i < feats.length; i++)
+            geoms[i] = Polygons.getMultiPolygonGeom((Geometry) feats[i].getDefaultGeometry());
+        ParcelAdjacencyGraph graph = new ParcelAdjacencyGraph(Arrays.asList(geoms));
+        boolean[] merged = new boolean[feats.length];
+        Set<Integer> consumed = new HashSet<>();
+        // small parcels are processed from the smallest to the biggest. Index is used to break ties.
+        PriorityQueue<Pair<Double, Integer>> smallParcels = new PriorityQueue<>(Comparator.comparing((Pair<Double, Integer> p) -> p.getLeft()).thenComparing(Pair::getRight));
+        for (int i = 0; i < feats.length; i++)
+            if (geoms[i].getArea() < minimalParcelSize)
+                smallParcels.add(new ImmutablePair<>(geoms[i].getArea(), i));
+        int iterations = 0;
+        while (!smallParcels.isEmpty()) {
+            iterations++;
+            Pair<Double, Integer> small = smallParcels.poll();
+            int i = small.getRight();
+            Geometry geom = geoms[i];
+            // skip parcels that are already merged and outdated entries of parcels that grew
+            if (consumed.contains(i) || geom.getArea() != small.getLeft())
+                continue;
+            // we seek the touching parcel with the largest area in the one meter buffer of the small parcel
+            int idToMerge = -1;
+            double maxShared = -1;
+            Geometry buffer = null;
+            for (int k = 0; k < graph.getDegree(i); k++) {
+                int j = graph.getNeighbour(i, k);
+                if (!Geom.safeIntersect(geoms[j], geom))
+                    continue;
+                if (buffer == null)
+                    buffer = geom.buffer(1);
+                double shared = Geom.safeIntersection(Arrays.asList(geoms[j], buffer)).getArea();
+                if (shared > maxShared || (shared == maxShared && j < idToMerge)) {
+                    maxShared = shared;
+                    idToMerge = j;
+                }
             }
-        } catch (Exception problem) {
-            problem.printStackTrace();
+            consumed.add(i);
+            // if the small parcel doesn't touch any other parcels, we left it as a blank space and will be left as a public space
+            if (idToMerge == -1) {
+                graph.remove(i);
+                continue;
+            }
+            List<Geometry> lG = Arrays.asList(geom, geoms[idToMerge]);
+            Geometry g;
+            try {
+                g = Geom.unionGeom(lG);
+                if (bufferGeom)
+                    g = g.buffer(1).buffer(-1);
+            } catch (TopologyException tp) {
+                System.out.println("problem with +" + lG);
+                g = Geom.safeIntersection(lG);
+            }
+            geoms[idToMerge] = g;
+            graph.merge(i, idToMerge, g);
+            merged[idToMerge] = true;
+            // the grown parcel may still be too small
+            if (g.getArea() < minimalParcelSize)
+                smallParcels.add(new ImmutablePair<>(g.getArea(), idToMerge));
         }
-        for (Entry<Double, SimpleFeature> entry : index.entrySet()) {
-            SimpleFeature feat = entry.getValue();
-            // if the parcel has already been merged with a smaller one, we skip (and we made the hypotheses that a merged parcel will always be bigger than the threshold)
-            if (ids.contains(feat.getID()))
+        Metrics.record("ParcelCollection.mergeTooSmallParcels.iterations", iterations);
+        // we now copy attributes of the parcels that absorbed small ones to new features
+        DefaultFeatureCollection result = new DefaultFeatureCollection();
+        SimpleFeatureBuilder build = Schemas.getSFBSchemaWithMultiPolygon(parcelsUnsorted.getSchema());
+        for (int i = 0; i < feats.length; i++) {
+            if (consumed.contains(i))
                 continue;
-            Geometry geom = Polygons.getMultiPolygonGeom((Geometry) feat.getDefaultGeometry());
-            if (geom.getArea() < minimalParcelSize) {
-                // System.out.println(feat.getID() + " is too small");
-                DefaultFeatureCollection intersect = new DefaultFeatureCollection();
-                Arrays.stream(parcelsUnsorted.toArray(new SimpleFeature[0])).forEach(interParcel -> {
-                    if (Geom.safeIntersect((Geometry) interParcel.getDefaultGeometry(), geom) && !interParcel.getID().equals(feat.getID()))
-                        intersect.add(interParcel);
-                });
-                // if the small parcel is intersecting others and will be merge to them
-                if (intersect.size() > 0) {
-                    // System.out.println(intersect.size() + " intersecting");
-                    // if the tiny parcel intersects a bigger parcel, we seek the longest side to which parcel could be incorporated
-                    HashMap<String, Double> repart = new HashMap<>();
-                    Arrays.stream(intersect.toArray(new SimpleFeature[0])).forEach(interParcel -> repart.put(interParcel.getID(),
-                            Geom.safeIntersection(Arrays.asList((Geometry) interParcel.getDefaultGeometry(), geom.buffer(1)))
-                                    .getArea()));
-                    // we sort to place the biggest intersecting parcel in first
-                    List<Entry<String, Double>> entryList = new ArrayList<>(repart.entrySet());
-                    entryList.sort((obj1, obj2) -> obj2.getValue().compareTo(obj1.getValue()));
-                    String idToMerge = entryList.get(0).getKey();
-                    // if the big parcel has already been merged with a small parcel, we skip it and will return to that small parcel in a future iteration
-                    if (ids.contains(idToMerge)) {
-                        result.add(Schemas.setSFBSchemaWithMultiPolygon(feat).buildFeature(Attribute.makeUniqueId()));
-                        continue;
-                    }
-                    ids.add(idToMerge);
-                    // we now merge geometries and copy attributes to the new Feature
-                    List<Geometry> lG = new ArrayList<>();
-                    lG.add(geom);
-                    SimpleFeatureBuilder build = Schemas.getSFBSchemaWithMultiPolygon(parcelsUnsorted.getSchema());
-                    Arrays.stream(intersect.toArray(new SimpleFeature[0])).forEach(thaParcel -> {
-                        if (thaParcel.getID().equals(idToMerge)) {
-                            for (AttributeDescriptor attr : thaParcel.getFeatureType().getAttributeDescriptors()) {
-                                if (attr.getLocalName().equals(CollecMgmt.getDefaultGeomName()))
-                                    continue;
-                                build.set(attr.getName(), thaParcel.getAttribute(attr.getName()));
-                            }
-                            lG.add(Polygons.getMultiPolygonGeom((Geometry) thaParcel.getDefaultGeometry()));
-                        }
-                    });
-                    Geometry g;
-                    try {
-                        g = Geom.unionGeom(lG);
-                        if (bufferGeom)
-                            g = g.buffer(1).buffer(-1);
-                    } catch (TopologyException tp) {
-                        System.out.println("problem with +" + lG);
-                        g = Geom.safeIntersection(lG);
-                    }
-                    build.set(CollecMgmt.getDefaultGeomName(), g);
-                    SimpleFeature f = build.buildFeature(idToMerge);
-                    result.add(f);
-                }
-                // no else - if the small parcel doesn't touch any other parcels, we left it as a blank space and will be left as a public space
-            } else
-                result.add(Schemas.setSFBSchemaWithMultiPolygon(feat).buildFeature(Attribute.makeUniqueId()));
+            if (!merged[i]) {
+                result.add(Schemas.setSFBSchemaWithMultiPolygon(feats[i]).buildFeature(ParcelSchema.makeUniqueId()));
+                continue;
+            }
+            for (AttributeDescriptor attr : feats[i].getFeatureType().getAttributeDescriptors()) {
+                if (attr.getLocalName().equals(CollecMgmt.getDefaultGeomName()))
+                    continue;
+                build.set(attr.getName(), feats[i].getAttribute(attr.getName()));
+            }
+            build.set(CollecMgmt.getDefaultGeomName(), geoms[i]);
+            result.add(build.buildFeature(feats[i].getID()));
         }
         return result;
     }
@@ -290,7 +284,7 @@ public class ParcelCollection {
             while (parcelAddIt.hasNext()) {
                 SimpleFeature featAdd = parcelAddIt.next();
                 SimpleFeatureBuilder fit = ArtiScalesSchemas.setSFBParcelAsASWithFeat(featAdd);
-                result.add(fit.buildFeature(Attribute.makeUniqueId()));
+                result.add(fit.buildFeature(ParcelSchema.makeUniqueId()));
             }
         } catch (Exception problem) {
             problem.printStackTrace();
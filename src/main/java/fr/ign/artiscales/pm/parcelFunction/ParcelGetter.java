@@ -20,7 +20,9 @@ import org.opengis.filter.FilterFactory2;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Methods to get parcels from collections regarding specific criterion
@@ -193,11 +195,7 @@ public class ParcelGetter {
             while (it.hasNext()) {
                 SimpleFeature feat = it.next();
                 if (((String) feat.getAttribute(firstFieldName)).concat(((String) feat.getAttribute(secondFieldName))).equals(val)) {
-                    Geometry original = (Geometry) feat.getDefaultGeometry();
-                    Geometry g = original.getFactory().createGeometry(original);
-                    g.apply(ParcelGetter::coord2D);
-                    g.geometryChanged();
-                    feat.setDefaultGeometry(g);
+                    setGeometry2D(feat);
                     result.add(feat);
                 }
             }
@@ -207,6 +205,14 @@ public class ParcelGetter {
         return result;
     }
 
+    private static void setGeometry2D(SimpleFeature feat) {
+        Geometry original = (Geometry) feat.getDefaultGeometry();
+        Geometry g = original.getFactory().createGeometry(original);
+        g.apply(ParcelGetter::coord2D);
+        g.geometryChanged();
+        feat.setDefaultGeometry(g);
+    }
+
     private static void coord2D(Coordinate c) {
         if (!(c instanceof CoordinateXY))
             c.setZ(Double.NaN);
@@ -243,6 +249,40 @@ public class ParcelGetter {
         return result;
     }
 
+    /**
+     * Split a parcel collection by community in a single pass. Parcels are matched as in {@link #getParcelByCommunityCode(SimpleFeatureCollection, String)}: with the
+     * community field if it exists, otherwise with the zipcode made of the {@link #getCodeDepFieldName()} and {@link #getCodeComFieldName()} fields for french parcels.
+     *
+     * @param parcelIn Input {@link SimpleFeatureCollection} of parcel
+     * @return the parcels of each community code, in the order the codes are met
+     */
+    public static Map<String, SimpleFeatureCollection> getParcelsByCommunityCode(SimpleFeatureCollection parcelIn) {
+        Map<String, SimpleFeatureCollection> result = new LinkedHashMap<>();
+        if (parcelIn == null || parcelIn.isEmpty())
+            return result;
+        boolean byZip = !CollecMgmt.isCollecContainsAttribute(parcelIn, ParcelSchema.getParcelCommunityField());
+        if (byZip && !GeneralFields.getParcelFieldType().equals("french"))
+            return result;
+        try (SimpleFeatureIterator it = parcelIn.features()) {
+            while (it.hasNext()) {
+                SimpleFeature feat = it.next();
+                Object code;
+                if (byZip) {
+                    Object dep = feat.getAttribute(codeDepFieldName);
+                    Object com = feat.getAttribute(codeComFieldName);
+                    if (!(dep instanceof String) || !(com instanceof String))
+                        continue;
+                    code = ((String) dep).concat((String) com);
+                    setGeometry2D(feat);
+                } else
+                    code = feat.getAttribute(ParcelSchema.getParcelCommunityField());
+                if (code instanceof String)
+                    ((DefaultFeatureCollection) result.computeIfAbsent((String) code, c -> new DefaultFeatureCollection())).add(feat);
+            }
+        }
+        return result;
+    }
+
     /**
      * Get the department code field name that later forms the zipcode.
      *
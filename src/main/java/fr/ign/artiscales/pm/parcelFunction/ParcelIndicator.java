@@ -35,12 +35,9 @@ public class ParcelIndicator {
 
     public static double meanNeighborhood(SimpleFeatureCollection parcels) {
         DescriptiveStatistics lNeigh = new DescriptiveStatistics();
-        try (SimpleFeatureIterator parcelIt = parcels.features()) {
-            while (parcelIt.hasNext())
-                lNeigh.addValue(ParcelState.countParcelNeighborhood((Geometry) parcelIt.next().getDefaultGeometry(), parcels));
-        } catch (Exception problem) {
-            problem.printStackTrace();
-        }
+        ParcelAdjacencyGraph graph = new ParcelAdjacencyGraph(parcels);
+        for (int i = 0; i < graph.size(); i++)
+            lNeigh.addValue(graph.getDegree(i));
         if (lNeigh.getN() == 0)
             return -1d;
         return lNeigh.getMean();
@@ -1,5 +1,7 @@
 package fr.ign.artiscales.pm.parcelFunction;
 
+import fr.ign.artiscales.pm.scenario.SimulationContext;
+import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -54,9 +56,9 @@ public class ParcelSchema {
         }
         sfTypeBuilder.add(CollecMgmt.getDefaultGeomName(), Polygon.class);
         sfTypeBuilder.setDefaultGeometry(CollecMgmt.getDefaultGeomName());
-        sfTypeBuilder.add(parcelSectionField, String.class);
-        sfTypeBuilder.add(parcelNumberField, String.class);
-        sfTypeBuilder.add(parcelCommunityField, String.class);
+        sfTypeBuilder.add(getParcelSectionField(), String.class);
+        sfTypeBuilder.add(getParcelNumberField(), String.class);
+        sfTypeBuilder.add(getParcelCommunityField(), String.class);
         return new SimpleFeatureBuilder(sfTypeBuilder.buildFeatureType());
     }
 
@@ -66,11 +68,11 @@ public class ParcelSchema {
 
     public static SimpleFeatureBuilder setSFBMinParcelWithFeat(SimpleFeature feat, SimpleFeatureBuilder builder, SimpleFeatureType schema) {
         builder.set(schema.getGeometryDescriptor().getName().toString(), feat.getDefaultGeometry());
-        builder.set(parcelSectionField, feat.getAttribute(parcelSectionField));
-        builder.set(parcelNumberField, feat.getAttribute(parcelNumberField));
+        builder.set(getParcelSectionField(), feat.getAttribute(getParcelSectionField()));
+        builder.set(getParcelNumberField(), feat.getAttribute(getParcelNumberField()));
         // setting zipcode
-        if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, parcelCommunityField))
-            builder.set(parcelCommunityField, feat.getAttribute(parcelCommunityField));
+        if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, getParcelCommunityField()))
+            builder.set(getParcelCommunityField(), feat.getAttribute(getParcelCommunityField()));
         else if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, "CODE_DEP")) // if it looks like French parcel
             builder.set(ParcelSchema.getParcelCommunityField(),
                     ((String) feat.getAttribute("CODE_DEP")).concat((String) feat.getAttribute("CODE_COM")));
@@ -87,9 +89,9 @@ public class ParcelSchema {
         }
         sfTypeBuilder.add(CollecMgmt.getDefaultGeomName(), Polygon.class);
         sfTypeBuilder.setDefaultGeometry(CollecMgmt.getDefaultGeomName());
-        sfTypeBuilder.add(parcelSectionField, String.class);
-        sfTypeBuilder.add(parcelCommunityField, String.class);
-        sfTypeBuilder.add(parcelNumberField, String.class);
+        sfTypeBuilder.add(getParcelSectionField(), String.class);
+        sfTypeBuilder.add(getParcelCommunityField(), String.class);
+        sfTypeBuilder.add(getParcelNumberField(), String.class);
         sfTypeBuilder.add(MarkParcelAttributeFromPosition.getMarkFieldName(), Integer.class);
         return new SimpleFeatureBuilder(sfTypeBuilder.buildFeatureType());
     }
@@ -97,11 +99,11 @@ public class ParcelSchema {
     public static SimpleFeatureBuilder setSFBMinParcelSplitWithFeat(SimpleFeature feat, SimpleFeatureBuilder builder, SimpleFeatureType schema, int isSplit) {
         builder.set(schema.getGeometryDescriptor().getName().toString(), feat.getDefaultGeometry());
         builder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), isSplit);
-        builder.set(parcelSectionField, feat.getAttribute(parcelSectionField));
-        builder.set(parcelNumberField, feat.getAttribute(parcelNumberField));
+        builder.set(getParcelSectionField(), feat.getAttribute(getParcelSectionField()));
+        builder.set(getParcelNumberField(), feat.getAttribute(getParcelNumberField()));
 
-        if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, parcelCommunityField)) // setting zipcode
-            builder.set(getParcelCommunityField(), feat.getAttribute(parcelCommunityField));
+        if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, getParcelCommunityField())) // setting zipcode
+            builder.set(getParcelCommunityField(), feat.getAttribute(getParcelCommunityField()));
         else if (CollecMgmt.isSimpleFeatureContainsAttribute(feat, "CODE_DEP")) // if it looks like french parcel
             builder.set(getParcelCommunityField(), ((String) feat.getAttribute("CODE_DEP")).concat((String) feat.getAttribute("CODE_COM")));
         return builder;
@@ -128,28 +130,38 @@ public class ParcelSchema {
 
     }
 
+    /*
+     * Field names are read from the SimulationContext bound to the current thread, if any. Setters then only change that context.
+     */
+
     public static String getParcelNumberField() {
-        return parcelNumberField;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getParcelNumberField() : parcelNumberField;
     }
 
     public static void setParcelNumberField(String parcelNumberField) {
-        ParcelSchema.parcelNumberField = parcelNumberField;
+        if (!SimulationContext.update(ctx -> ctx.withParcelNumberField(parcelNumberField)))
+            ParcelSchema.parcelNumberField = parcelNumberField;
     }
 
     public static String getParcelSectionField() {
-        return parcelSectionField;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getParcelSectionField() : parcelSectionField;
     }
 
     public static void setParcelSectionField(String parcelSectionField) {
-        ParcelSchema.parcelSectionField = parcelSectionField;
+        if (!SimulationContext.update(ctx -> ctx.withParcelSectionField(parcelSectionField)))
+            ParcelSchema.parcelSectionField = parcelSectionField;
     }
 
     public static String getParcelCommunityField() {
-        return parcelCommunityField;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getParcelCommunityField() : parcelCommunityField;
     }
 
     public static void setParcelCommunityField(String parcelCommunityField) {
-        ParcelSchema.parcelCommunityField = parcelCommunityField;
+        if (!SimulationContext.update(ctx -> ctx.withParcelCommunityField(parcelCommunityField)))
+            ParcelSchema.parcelCommunityField = parcelCommunityField;
     }
 
     /**
@@ -159,6 +171,16 @@ public class ParcelSchema {
      * @return new parcel's id.
      */
     public static String getParcelID(SimpleFeature feat) {
-        return String.valueOf(feat.getAttribute(parcelCommunityField)) + '_' + feat.getAttribute(parcelSectionField) + '_' + feat.getAttribute(parcelNumberField);
+        return String.valueOf(feat.getAttribute(getParcelCommunityField())) + '_' + feat.getAttribute(getParcelSectionField()) + '_' + feat.getAttribute(getParcelNumberField());
+    }
+
+    /**
+     * Make a new feature ID with {@link Attribute#makeUniqueId()}. Calls are serialized, so features can be built by concurrent workers (communities, tiles or parcels simulated
+     * in parallel). Use it instead of {@link Attribute#makeUniqueId()}.
+     *
+     * @return a unique feature ID
+     */
+    public static synchronized String makeUniqueId() {
+        return Attribute.makeUniqueId();
     }
 }
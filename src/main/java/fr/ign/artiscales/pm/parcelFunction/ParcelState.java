@@ -23,7 +23,11 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -63,7 +67,30 @@ public class ParcelState {
      * Default width of the road
      */
     private static double defaultWidthRoad = 7.5;
+    /**
+     * Maximal number of buffered road features kept in {@link #roadBufferCache}. 0 disables the cache.
+     */
+    private static int roadBufferCacheSize = 10000;
+    /**
+     * Buffered road features, keyed by feature ID, buffer width, road envelope and number of points. Least recently used buffers are evicted first.
+     */
+    private static final Map<String, Geometry> roadBufferCache = Collections.synchronizedMap(new LinkedHashMap<String, Geometry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Geometry> eldest) {
+            return size() > roadBufferCacheSize;
+        }
+    });
+    private static final AtomicLong roadBufferCacheHits = new AtomicLong();
+    private static final AtomicLong roadBufferCacheMisses = new AtomicLong();
 
+    /**
+     * Count the parcels that are less than a meter away from the given parcel. To count the neighbours of every parcels of a collection, a {@link ParcelAdjacencyGraph}
+     * is much faster.
+     *
+     * @param parcelGeom geometry of the parcel
+     * @param parcels    surrounding parcels
+     * @return number of neighbours
+     */
     public static int countParcelNeighborhood(Geometry parcelGeom, SimpleFeatureCollection parcels) {
         int result = 0;
         try (SimpleFeatureIterator parcelIt = parcels.features()) {
@@ -78,6 +105,14 @@ public class ParcelState {
         return result;
     }
 
+    /**
+     * Count the parcels that are less than a meter away from the given parcel. To count the neighbours of every parcels of a list, a {@link ParcelAdjacencyGraph}
+     * is much faster.
+     *
+     * @param parcelGeom geometry of the parcel
+     * @param parcels    surrounding parcels
+     * @return number of neighbours
+     */
     public static long countParcelNeighborhood(Geometry parcelGeom, List<? extends Geometry> parcels) {
         return parcels.stream().filter(g -> Geom.safeIntersect(g.buffer(1), parcelGeom)).filter(g -> !g.equals(parcelGeom)).count();
     }
@@ -87,6 +122,9 @@ public class ParcelState {
      * <p>
      * The buffer length is calculated with an attribute field. The default name of the field is <i>LARGEUR</i> and can be set with the {@link #setWidthFieldAttribute(String)}
      * method. If no field is found, a default value of 7.5 meters is used (this default value can be set with the {@link #setDefaultWidthRoad(double)} method).
+     * <p>
+     * Buffers are cached (see {@link #setRoadBufferCacheSize(int)}). A cached buffer is reused for a road with the same ID, width, envelope and number of points. Cached buffers
+     * are shared: the returned geometries must not be modified.
      *
      * @param roads collection of road
      * @return The list of the surrounding buffered road segments.
@@ -95,11 +133,27 @@ public class ParcelState {
         // List<Geometry> roadGeom = Arrays.stream(Collec.snapDatas(roads, poly.buffer(5)).toArray(new SimpleFeature[0]))
         // .map(g -> ((Geometry) g.getDefaultGeometry()).buffer((double) g.getAttribute("LARGEUR"))).collect(Collectors.toList());
         List<Geometry> roadGeom = new ArrayList<>();
+        boolean hasWidthField = CollecMgmt.isCollecContainsAttribute(roads, widthFieldAttribute);
         try (SimpleFeatureIterator roadSnapIt = roads.features()) {
             while (roadSnapIt.hasNext()) {
                 SimpleFeature feat = roadSnapIt.next();
-                roadGeom.add(((Geometry) feat.getDefaultGeometry())
-                        .buffer((CollecMgmt.isCollecContainsAttribute(roads, widthFieldAttribute) && feat.getAttribute(widthFieldAttribute) != null ? (double) feat.getAttribute(widthFieldAttribute) + 2.5 : defaultWidthRoad)));
+                Geometry geom = (Geometry) feat.getDefaultGeometry();
+                double width = hasWidthField && feat.getAttribute(widthFieldAttribute) != null ? (double) feat.getAttribute(widthFieldAttribute) + 2.5 : defaultWidthRoad;
+                if (roadBufferCacheSize <= 0) {
+                    roadGeom.add(geom.buffer(width));
+                    continue;
+                }
+                // IDs are only unique in a single road collection: the exact envelope and the number of points tell roads of different collections apart
+                String key = feat.getID() + '|' + width + '|' + geom.getEnvelopeInternal() + '|' + geom.getNumPoints();
+                Geometry buffer = roadBufferCache.get(key);
+                if (buffer != null)
+                    roadBufferCacheHits.incrementAndGet();
+                else {
+                    roadBufferCacheMisses.incrementAndGet();
+                    buffer = geom.buffer(width);
+                    roadBufferCache.put(key, buffer);
+                }
+                roadGeom.add(buffer);
             }
         } catch (Exception problem) {
             problem.printStackTrace();
@@ -107,6 +161,53 @@ public class ParcelState {
         return roadGeom;
     }
 
+    /**
+     * Number of road buffers found in the cache by {@link #getRoadPolygon(SimpleFeatureCollection)} since the last {@link #clearRoadBufferCache()}.
+     *
+     * @return number of cache hits
+     */
+    public static long getRoadBufferCacheHits() {
+        return roadBufferCacheHits.get();
+    }
+
+    /**
+     * Number of road buffers computed by {@link #getRoadPolygon(SimpleFeatureCollection)} since the last {@link #clearRoadBufferCache()}.
+     *
+     * @return number of cache misses
+     */
+    public static long getRoadBufferCacheMisses() {
+        return roadBufferCacheMisses.get();
+    }
+
+    /**
+     * Empty the road buffer cache and reset its counters.
+     */
+    public static void clearRoadBufferCache() {
+        roadBufferCache.clear();
+        roadBufferCacheHits.set(0);
+        roadBufferCacheMisses.set(0);
+    }
+
+    /**
+     * Get the maximal number of buffered road features kept in memory by {@link #getRoadPolygon(SimpleFeatureCollection)}.
+     *
+     * @return maximal number of buffers. 0 means that the cache is disabled.
+     */
+    public static int getRoadBufferCacheSize() {
+        return roadBufferCacheSize;
+    }
+
+    /**
+     * Set the maximal number of buffered road features kept in memory by {@link #getRoadPolygon(SimpleFeatureCollection)}. Default is 10000.
+     *
+     * @param roadBufferCacheSize maximal number of buffers. 0 disables the cache.
+     */
+    public static void setRoadBufferCacheSize(int roadBufferCacheSize) {
+        ParcelState.roadBufferCacheSize = roadBufferCacheSize;
+        if (roadBufferCacheSize <= 0)
+            roadBufferCache.clear();
+    }
+
     /**
      * Determine the width of the parcel on road. We first rely on the absance of parcel. If none found, we rely on the road features.
      *
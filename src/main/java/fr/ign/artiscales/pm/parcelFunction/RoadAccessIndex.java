@@ -0,0 +1,189 @@
+package fr.ign.artiscales.pm.parcelFunction;
+
+import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
+import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Lines;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.quadtree.Quadtree;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Index of the road space surrounding a set of parcels. It is built once (per zone, community or parcel to split) and answers the same questions than
+ * {@link ParcelState#isParcelHasRoadAccess(Polygon, SimpleFeatureCollection, org.locationtech.jts.geom.MultiLineString, Geometry)} and
+ * {@link ParcelState#getParcelFrontSideWidth(Polygon, SimpleFeatureCollection, List)} without buffering and merging the roads at each call.
+ * <p>
+ * The road space is made of the buffered road features (see {@link ParcelState#getRoadPolygon(SimpleFeatureCollection)}), stored in a {@link STRtree}, and of the
+ * exterior lines of the parcel plan. The exterior line list is kept by reference: lines added to it after the creation of the index (i.e. roads generated by the
+ * OBB algorithm) are indexed at the next query. For that reason, an index must not be shared between threads.
+ */
+public class RoadAccessIndex {
+    /**
+     * Exterior lines of the parcel plan
+     */
+    private final List<LineString> ext;
+    /**
+     * True if the index has been built without exterior lines
+     */
+    private final boolean noExt;
+    /**
+     * Number of lines of {@link #ext} already inserted in {@link #extIndex}
+     */
+    private int nbIndexedExt = 0;
+    private final Quadtree extIndex = new Quadtree();
+    private final STRtree roadIndex = new STRtree();
+    private final List<Geometry> roadPolygons;
+    /**
+     * Union of the road polygons. Only computed if needed.
+     */
+    private PreparedGeometry roadUnion;
+    /**
+     * A {@link Geometry} that cannot be considered as absence of road. Can be null
+     */
+    private final Geometry disabledBuffer;
+
+    /**
+     * Build the index with no exclusion zone.
+     *
+     * @param roads road collection (can be null)
+     * @param ext   exterior lines of the parcel plan (can be null)
+     */
+    public RoadAccessIndex(SimpleFeatureCollection roads, List<LineString> ext) {
+        this(roads, ext, null);
+    }
+
+    /**
+     * Build the index.
+     *
+     * @param roads          road collection (can be null)
+     * @param ext            exterior lines of the parcel plan (can be null)
+     * @param disabledBuffer A {@link Geometry} that cannot be considered as absence of road. Can be null
+     */
+    public RoadAccessIndex(SimpleFeatureCollection roads, List<LineString> ext, Geometry disabledBuffer) {
+        this.ext = ext != null ? ext : new ArrayList<>();
+        this.noExt = ext == null;
+        this.disabledBuffer = disabledBuffer;
+        roadPolygons = (roads != null && !roads.isEmpty()) ? ParcelState.getRoadPolygon(roads) : new ArrayList<>();
+        for (Geometry roadPolygon : roadPolygons)
+            roadIndex.insert(roadPolygon.getEnvelopeInternal(), new RoadPolygon(roadPolygon));
+        roadIndex.build();
+    }
+
+    /**
+     * Indicate if the given polygon has a proximity to the road, either represented by the exterior lines or by the road features. Same as
+     * {@link ParcelState#isParcelHasRoadAccess(Polygon, SimpleFeatureCollection, org.locationtech.jts.geom.MultiLineString, Geometry)}.
+     *
+     * @param poly input polygon
+     * @return true is the polygon has a road access
+     */
+    public boolean hasRoadAccess(Polygon poly) {
+        if (isNearExterior(poly))
+            return disabledBuffer == null || !poly.isWithinDistance(disabledBuffer, 1);
+        return isNearRoad(poly);
+    }
+
+    /**
+     * Indicate if the given polygon is less than a meter away from the exterior lines of the parcel plan.
+     *
+     * @param poly input polygon
+     * @return true if the polygon touches the exterior lines
+     */
+    public boolean isNearExterior(Polygon poly) {
+        return getExteriorLinesNear(poly, 1).stream().anyMatch(l -> poly.isWithinDistance(l, 1));
+    }
+
+    /**
+     * Indicate if the given polygon is less than a meter away from a buffered road feature.
+     *
+     * @param poly input polygon
+     * @return true if the polygon touches a road
+     */
+    public boolean isNearRoad(Polygon poly) {
+        return getRoadPolygonsNear(poly, 1).stream().anyMatch(r -> poly.isWithinDistance(r.polygon, 1));
+    }
+
+    /**
+     * Indicate if the union of the buffered road features contains the given line.
+     *
+     * @param ls input line
+     * @return true if the line is inside the road space
+     */
+    public boolean isRoadPolygonContains(LineString ls) {
+        if (roadPolygons.isEmpty())
+            return false;
+        if (roadUnion == null)
+            roadUnion = PreparedGeometryFactory.prepare(Geom.unionGeom(roadPolygons));
+        return roadUnion.contains(ls);
+    }
+
+    /**
+     * Determine the width of the parcel on road. Same as {@link ParcelState#getParcelFrontSideWidth(Polygon, SimpleFeatureCollection, List)}, which is 0 when no exterior
+     * line is given, even if the parcel touches the roads.
+     *
+     * @param p input {@link Polygon}
+     * @return width of the parcel on road
+     */
+    public double getParcelFrontSideWidth(Polygon p) {
+        if (noExt)
+            return 0;
+        try {
+            Geometry buffer = p.buffer(1);
+            double len = buffer.intersection(p.getFactory().createMultiLineString(getExteriorLinesNear(p, 1).toArray(new LineString[0]))).getLength();
+            if (len > 0)
+                return len;
+            if (roadPolygons.isEmpty())
+                return 0;
+            len = buffer.intersection(Lines.getListLineStringAsMultiLS(getRoadPolygonsNear(p, 0).stream().filter(r -> r.prepared.intersects(p))
+                    .flatMap(r -> r.getLines().stream()).collect(Collectors.toList()), new GeometryFactory())).getLength();
+            return Math.max(len, 0);
+        } catch (Exception ee) {
+            return 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<LineString> getExteriorLinesNear(Geometry g, double distance) {
+        // index the lines that have been added since the last query
+        for (; nbIndexedExt < ext.size(); nbIndexedExt++)
+            extIndex.insert(ext.get(nbIndexedExt).getEnvelopeInternal(), ext.get(nbIndexedExt));
+        Envelope env = new Envelope(g.getEnvelopeInternal());
+        env.expandBy(distance);
+        return ((List<LineString>) extIndex.query(env)).stream().filter(l -> l.getEnvelopeInternal().intersects(env)).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<RoadPolygon> getRoadPolygonsNear(Geometry g, double distance) {
+        Envelope env = new Envelope(g.getEnvelopeInternal());
+        env.expandBy(distance);
+        return (List<RoadPolygon>) roadIndex.query(env);
+    }
+
+    /**
+     * A buffered road feature, prepared for intersection tests, with its boundary lines computed on demand.
+     */
+    private static class RoadPolygon {
+        final Geometry polygon;
+        final PreparedGeometry prepared;
+        private List<LineString> lines;
+
+        RoadPolygon(Geometry polygon) {
+            this.polygon = polygon;
+            this.prepared = PreparedGeometryFactory.prepare(polygon);
+        }
+
+        List<LineString> getLines() {
+            if (lines == null)
+                lines = Lines.getLineStrings(polygon);
+            return lines;
+        }
+    }
+}
@@ -3,6 +3,11 @@ package fr.ign.artiscales.pm.scenario;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
+import fr.ign.artiscales.pm.division.Division;
+import fr.ign.artiscales.pm.division.SkeletonCache;
+import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
+import fr.ign.artiscales.pm.metrics.Metrics;
+import fr.ign.artiscales.pm.parcelFunction.ParcelState;
 import fr.ign.artiscales.pm.workflow.Workflow;
 import org.apache.commons.math3.random.MersenneTwister;
 
@@ -30,14 +35,22 @@ public class PMScenario {
      * If true, will save all the intermediate results in the temporary folder
      */
     private static boolean DEBUG = false;
-    private static MersenneTwister random = new MersenneTwister();
     boolean keepExistingRoad = true, adaptAreaOfUrbanFabric = false, generatePeripheralRoad = false;
     private File zoningFile, buildingFile, roadFile, polygonIntersection, zone, predicateFile, parcelFile, profileFolder, outFolder;
     private List<PMStep> stepList = new ArrayList<>();
+    /**
+     * Zones that have already been simulated by the steps of this scenario.
+     */
+    private final List<String> cachePlacesSimulates = new ArrayList<>();
     private boolean fileSet = false;
+    /**
+     * Configuration of the scenario, bound to the thread executing the steps.
+     */
+    private SimulationContext context;
 
     /**
-     * Create new Scenario
+     * Create new Scenario. Its {@link SimulationContext} is a snapshot of the static configuration (field names, division process, etc.) with the files and the optional
+     * execution settings (streaming, number of workers, skeleton cache) of the scenario.
      *
      * @param jSON json file containing every scenario's parameter and list of steps
      * @throws IOException tons of geo files reading.
@@ -46,6 +59,8 @@ public class PMScenario {
         JsonFactory factory = new JsonFactory();
         JsonParser parser = factory.createParser(jSON);
         JsonToken token = parser.nextToken();
+        // execution options only apply to this scenario
+        SimulationContext options = SimulationContext.get();
         while (!parser.isClosed()) {
             token = parser.nextToken();
 //			shortcut if every data is in the same folder
@@ -139,6 +154,35 @@ public class PMScenario {
                                 case "peripheralRoad:false":
                                     generatePeripheralRoad = false;
                                     break;
+                                case "streaming:true":
+                                case "streaming":
+                                    options = options.withStreaming(true);
+                                    break;
+                                case "streaming:false":
+                                    options = options.withStreaming(false);
+                                    break;
+                                case "tiledZone:true":
+                                case "tiledZone":
+                                    options = options.withTiled(true);
+                                    break;
+                                case "tiledZone:false":
+                                    options = options.withTiled(false);
+                                    break;
+                                default:
+                                    if (parser.getText().startsWith("communityParallelism:"))
+                                        options = options.withCommunityParallelism(Integer.parseInt(parser.getText().split(":")[1]));
+                                    else if (parser.getText().startsWith("tileParallelism:"))
+                                        options = options.withTileParallelism(Integer.parseInt(parser.getText().split(":")[1]));
+                                    else if (parser.getText().startsWith("densificationParallelism:"))
+                                        options = options.withDensificationParallelism(Integer.parseInt(parser.getText().split(":")[1]));
+                                    else if (parser.getText().startsWith("skeletonParallelism:"))
+                                        options = options.withSkeletonParallelism(Integer.parseInt(parser.getText().split(":")[1]));
+                                    else if (parser.getText().startsWith("skeletonTimeout:"))
+                                        options = options.withSkeletonTaskTimeout(Long.parseLong(parser.getText().split(":")[1]));
+                                    else if (parser.getText().startsWith("skeletonCache:"))
+                                        options = options.withSkeletonCacheSize(Integer.parseInt(parser.getText().split(":")[1]));
+                                    else if (parser.getText().startsWith("skeletonCacheFolder:"))
+                                        options = options.withSkeletonCacheFolder(new File(parser.getText().substring("skeletonCacheFolder:".length())));
                             }
                         }
                     }
@@ -219,10 +263,16 @@ public class PMScenario {
         parser.close();
         PMStep.setFiles(parcelFile, zoningFile, buildingFile, roadFile, predicateFile, polygonIntersection, zone, outFolder,
                 profileFolder);
+        context = options.withFiles(parcelFile, zoningFile, buildingFile, roadFile, predicateFile, polygonIntersection, zone, outFolder, profileFolder);
     }
 
+    /**
+     * Get the random generator of the current task. See {@link Division#getRandom()}.
+     *
+     * @return the random generator
+     */
     public static MersenneTwister getRandom() {
-        return random;
+        return Division.getRandom();
     }
 
 //    public static void main(String[] args) throws Exception {
@@ -285,28 +335,76 @@ public class PMScenario {
         REUSESIMULATEDPARCELS = reuseSimulatedParcel;
     }
 
+    /**
+     * Set the global seed (see {@link Division#setSeed(long)}). Scenarios take the global seed when they are run. To simulate scenarios concurrently with different seeds, give
+     * each scenario its own seed with <i>scenario.setContext(scenario.getContext().withSeed(seed))</i>.
+     *
+     * @param seed global seed
+     */
     public static void setSeed(long seed) {
-        random = new MersenneTwister(seed);
         Workflow.setSeed(seed);
     }
 
     /**
-     * Run every step that are present in the stepList
+     * Empty the cache of zones that have already been simulated by the steps of this scenario.
+     */
+    public void flushCachePlacesSimulates() {
+        cachePlacesSimulates.clear();
+    }
+
+    /**
+     * Run every step that are present in the stepList. Steps are run with the {@link SimulationContext} of the scenario bound to the current thread, so different scenarios can be
+     * executed concurrently in the same JVM. Metrics are reported to their sinks once every step is done (see {@link Metrics}).
      *
      * @throws IOException tons of reading and writing
      */
     public void executeStep() throws IOException {
-        for (PMStep pmstep : getStepList()) {
-            System.out.println("try " + pmstep);
-            if (isDEBUG())
-                System.out.println(this);
-            if (REUSESIMULATEDPARCELS)
-                PMStep.setParcel(pmstep.execute());
-            else
-                pmstep.execute();
+        // the debug trace file is shared with the scenarios running concurrently and closed by the last one
+        StraightSkeletonDivision.openTraceSink();
+        try {
+            context.call(() -> {
+                for (PMStep pmstep : getStepList()) {
+                    System.out.println("try " + pmstep);
+                    if (isDEBUG())
+                        System.out.println(this);
+                    if (REUSESIMULATEDPARCELS)
+                        PMStep.setParcel(pmstep.execute());
+                    else
+                        pmstep.execute();
+                }
+                if (isDEBUG())
+                    System.out.println("road buffer cache: " + ParcelState.getRoadBufferCacheHits() + " hits, " + ParcelState.getRoadBufferCacheMisses() + " misses");
+                if (isDEBUG() && SkeletonCache.isEnabled())
+                    System.out.println("skeleton cache: " + SkeletonCache.getHits() + " hits, " + SkeletonCache.getMisses() + " misses");
+                // keep the changes made by the steps (i.e. the last simulated parcel file)
+                context = SimulationContext.current();
+                return null;
+            });
+            if (Metrics.isEnabled())
+                Metrics.report();
+        } finally {
+            StraightSkeletonDivision.closeTraceSink();
         }
     }
 
+    /**
+     * Get the configuration used to execute the steps of this scenario.
+     *
+     * @return the scenario's context
+     */
+    public SimulationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Change the configuration used to execute the steps of this scenario.
+     *
+     * @param context new context
+     */
+    public void setContext(SimulationContext context) {
+        this.context = context;
+    }
+
     /**
      * Get the scenario's list of steps
      *
@@ -317,11 +415,12 @@ public class PMScenario {
     }
 
     /**
-     * Define a new list of steps for the scenario
+     * Define a new list of steps for the scenario. The steps share the cache of the zones simulated by the scenario.
      *
      * @param stepList new ordered list of steps
      */
     public void setStepList(List<PMStep> stepList) {
+        stepList.forEach(step -> step.setCachePlacesSimulates(cachePlacesSimulates));
         this.stepList = stepList;
     }
 
@@ -1,9 +1,11 @@
 package fr.ign.artiscales.pm.scenario;
 
 import fr.ign.artiscales.pm.analysis.RealUrbanFabricParameters;
+import fr.ign.artiscales.pm.division.Division;
 import fr.ign.artiscales.pm.division.DivisionType;
 import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
 import fr.ign.artiscales.pm.fields.GeneralFields;
+import fr.ign.artiscales.pm.metrics.Metrics;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelAttribute;
 import fr.ign.artiscales.pm.parcelFunction.ParcelGetter;
@@ -12,6 +14,7 @@ import fr.ign.artiscales.pm.parcelFunction.ParcelState;
 import fr.ign.artiscales.pm.usecase.DensificationStudy;
 import fr.ign.artiscales.pm.workflow.ConsolidationDivision;
 import fr.ign.artiscales.pm.workflow.Densification;
+import fr.ign.artiscales.pm.workflow.Workflow;
 import fr.ign.artiscales.pm.workflow.WorkflowType;
 import fr.ign.artiscales.pm.workflow.ZoneDivision;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -21,16 +24,27 @@ import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.locationtech.jts.geom.Geometry;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.FilterFactory2;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Object representing each step of a Parcel Manager scenario. This object is automatically set by the PMScenario object.
@@ -39,18 +53,29 @@ import java.util.List;
  * @see <a href="https://github.com/ArtiScales/ParcelManager/blob/master/src/main/resources/doc/scenarioCreation.md">scenarioCreation.md</a>
  */
 public class PMStep {
-    private static final List<String> cachePlacesSimulates = new ArrayList<>();
     /**
-     * Geographic files
+     * Geographic files. Use the getters to read them, as they can be overridden by a {@link SimulationContext}.
      */
     private static File PARCELFILE, ZONINGFILE, BUILDINGFILE, ROADFILE, PREDICATEFILE, POLYGONINTERSECTION, ZONE, OUTFOLDER, PROFILEFOLDER;
 
     private static boolean allowIsolatedParcel = false;
-    private static boolean peripheralRoad;
+    /**
+     * If true, parcels are read, simulated and written community by community. False by default.
+     */
+    private static boolean streaming = false;
+    /**
+     * Number of communities simulated concurrently. 1 (sequential) by default.
+     */
+    private static int communityParallelism = 1;
     final private WorkflowType workflow;
     final private DivisionType parcelProcess;
     final private String communityNumber, communityType, urbanFabricType, genericZone, preciseZone, selection;
     List<String> communityNumbers = new ArrayList<>();
+    /**
+     * Zones that have already been simulated by this step and by the previous steps of its scenario. The list is shared by the steps of a {@link PMScenario}.
+     */
+    private List<String> cachePlacesSimulates = new ArrayList<>();
+    private boolean peripheralRoad;
     private ProfileUrbanFabric profile;
     /**
      * If true, will look at the community built parcel's area to adapt the maximal and minimal area (set with the 1st and the 9th decile of the built area's distribution). False by default.
@@ -64,6 +89,19 @@ public class PMStep {
      * The last generated parcel plan file. Could be useful for programs to get it directly
      */
     private File lastOutput;
+    /**
+     * Time spent in each phase of the last execution, in nanoseconds. Keys are the ones of {@link #PHASES}.
+     */
+    private final Map<String, Long> phaseTimes = new LinkedHashMap<>();
+    /**
+     * Wall time of the last execution, in nanoseconds.
+     */
+    private long executionTime;
+    /**
+     * Phases of an execution: reading of the input parcels, selection and marking of the parcels to simulate, run of the workflow, merge of the simulated parcels with the
+     * untouched ones and writing of the output geo file.
+     */
+    public static final String[] PHASES = {"selection", "marking", "division", "merge", "export"};
 
     public PMStep(String workflow, String parcelProcess, String genericZone, String preciseZone, String communityNumber, String communityType, String urbanFabricType, String selection, boolean peripheralRoad, boolean keepExistingRoad, boolean adaptUrbanFabric) {
         this.workflow = WorkflowType.valueOf(workflow);
@@ -83,11 +121,43 @@ public class PMStep {
     }
 
     public static File getOUTFOLDER() {
-        return OUTFOLDER;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getOutFolder() : OUTFOLDER;
     }
 
     public static void setOUTFOLDER(File OUTFOLDER) {
-        PMStep.OUTFOLDER = OUTFOLDER;
+        if (!SimulationContext.update(ctx -> ctx.withOutFolder(OUTFOLDER)))
+            PMStep.OUTFOLDER = OUTFOLDER;
+    }
+
+    public static File getPARCELFILE() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getParcelFile() : PARCELFILE;
+    }
+
+    public static File getZONINGFILE() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getZoningFile() : ZONINGFILE;
+    }
+
+    public static File getBUILDINGFILE() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getBuildingFile() : BUILDINGFILE;
+    }
+
+    public static File getROADFILE() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getRoadFile() : ROADFILE;
+    }
+
+    public static File getPREDICATEFILE() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getPredicateFile() : PREDICATEFILE;
+    }
+
+    public static File getZONE() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getZone() : ZONE;
     }
 
     /**
@@ -105,6 +175,8 @@ public class PMStep {
      * @param profileFolder       folder containing parameter rules
      */
     public static void setFiles(File parcelFile, File zoningFile, File buildingFile, File roadFile, File predicateFile, File polygonIntersection, File zone, File outFolder, File profileFolder) {
+        if (SimulationContext.update(ctx -> ctx.withFiles(parcelFile, zoningFile, buildingFile, roadFile, predicateFile, polygonIntersection, zone, outFolder, profileFolder)))
+            return;
         PARCELFILE = parcelFile;
         ZONINGFILE = zoningFile;
         BUILDINGFILE = buildingFile;
@@ -122,7 +194,8 @@ public class PMStep {
      * @param parcelFile new geo file containing parcel plan
      */
     public static void setParcel(File parcelFile) {
-        PARCELFILE = parcelFile;
+        if (!SimulationContext.update(ctx -> ctx.withParcelFile(parcelFile)))
+            PARCELFILE = parcelFile;
     }
 
     /**
@@ -131,7 +204,8 @@ public class PMStep {
      * @return POLYGONINTERSECTION
      */
     public static File getPOLYGONINTERSECTION() {
-        return POLYGONINTERSECTION;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getPolygonIntersection() : POLYGONINTERSECTION;
     }
 
     /**
@@ -140,7 +214,8 @@ public class PMStep {
      * @param pOLYGONINTERSECTION new geo file containing intersection
      */
     public static void setPOLYGONINTERSECTION(File pOLYGONINTERSECTION) {
-        POLYGONINTERSECTION = pOLYGONINTERSECTION;
+        if (!SimulationContext.update(ctx -> ctx.withPolygonIntersection(pOLYGONINTERSECTION)))
+            POLYGONINTERSECTION = pOLYGONINTERSECTION;
     }
 
     /**
@@ -149,28 +224,83 @@ public class PMStep {
      * @return Is the simulation of new parcels isolated from the road allowed ?
      */
     public static boolean isAllowIsolatedParcel() {
-        return allowIsolatedParcel;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.isAllowIsolatedParcel() : allowIsolatedParcel;
     }
 
     /**
-     * Set if the flag division process allows the creation of porch or flag parcels isolated from the kown road network.
+     * Set if the flag division process allows the creation of porch or flag parcels isolated from the kown road network. If a {@link SimulationContext} is bound to the current
+     * thread, only that context is changed. When a predicate file is set, the value read from it for each community is used instead.
      *
      * @param allowIsolatedParcel Can we simulate new parcels isolated from the road ?
      */
-
     public static void setAllowIsolatedParcel(boolean allowIsolatedParcel) {
-        PMStep.allowIsolatedParcel = allowIsolatedParcel;
+        if (!SimulationContext.update(ctx -> ctx.withAllowIsolatedParcel(allowIsolatedParcel)))
+            PMStep.allowIsolatedParcel = allowIsolatedParcel;
+    }
+
+    /**
+     * Are the steps executed community by community, without loading the whole parcel plan in memory ?
+     *
+     * @return true if the parcels are streamed
+     */
+    public static boolean isStreaming() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.isStreaming() : streaming;
     }
 
     /**
-     * Empty the cache of zones that have already been simulated
+     * Set if the steps are executed community by community. Parcels of each community are read from the parcel file, simulated and appended to the output geo file, so
+     * peak memory is bounded by the biggest community instead of the whole parcel plan. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param streaming Do we need to stream the parcels community by community ?
+     */
+    public static void setStreaming(boolean streaming) {
+        if (!SimulationContext.update(ctx -> ctx.withStreaming(streaming)))
+            PMStep.streaming = streaming;
+    }
+
+    /**
+     * Get the number of communities that are simulated concurrently by a step.
+     *
+     * @return number of workers
      */
-    public static void flushCachePlacesSimulates() {
+    public static int getCommunityParallelism() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getCommunityParallelism() : communityParallelism;
+    }
+
+    /**
+     * Set the number of communities that are simulated concurrently by a step. Communities are independent and each gets its own random stream, so the result doesn't depend on
+     * that number. 1 by default (communities are simulated one after the other). Not used in streaming mode, in debug mode or when intermediate results are saved. If a
+     * {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param communityParallelism number of workers
+     */
+    public static void setCommunityParallelism(int communityParallelism) {
+        if (!SimulationContext.update(ctx -> ctx.withCommunityParallelism(communityParallelism)))
+            PMStep.communityParallelism = communityParallelism;
+    }
+
+    /**
+     * Empty the cache of zones that have already been simulated. As the cache is shared by the steps of a scenario, it is emptied for every step of the scenario.
+     */
+    public void flushCachePlacesSimulates() {
         cachePlacesSimulates.clear();
     }
 
+    /**
+     * Share the cache of zones that have already been simulated with other steps.
+     *
+     * @param cachePlacesSimulates list of the simulated zones
+     */
+    void setCachePlacesSimulates(List<String> cachePlacesSimulates) {
+        this.cachePlacesSimulates = cachePlacesSimulates;
+    }
+
     public static File getPROFILEFOLDER() {
-        return PROFILEFOLDER;
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getProfileFolder() : PROFILEFOLDER;
     }
 
     /**
@@ -205,22 +335,146 @@ public class PMStep {
     }
 
     /**
-     * Execute the current PM Step.
+     * Execute the current PM Step. The step is run with a copy of the current {@link SimulationContext} where the peripheral road generation of the step is set, so that the
+     * configuration of other steps and scenarios is not changed.
      *
      * @return The geo file containing the whole parcels of the given collection, where the simulated parcel have replaced the former parcels.
      * @throws IOException tons of reading and writing
      */
     public File execute() throws IOException {
-        OUTFOLDER.mkdirs();
+        long start = System.nanoTime();
+        phaseTimes.clear();
+        for (String phase : PHASES)
+            phaseTimes.put(phase, 0L);
+        try {
+            return SimulationContext.get().withGeneratePeripheralRoad(isPeripheralRoad()).call(this::executePhases);
+        } finally {
+            executionTime = System.nanoTime() - start;
+            Metrics.time("PMStep.execute", executionTime);
+        }
+    }
+
+    private File executePhases() throws IOException {
+        long lap = System.nanoTime();
+        getOUTFOLDER().mkdirs();
         // get the wanted building profile
-        profile = ProfileUrbanFabric.convertJSONtoProfile(new File(PROFILEFOLDER + "/" + urbanFabricType + ".json"));
-        StraightSkeletonDivision.setGeneratePeripheralRoad(isPeripheralRoad());
+        profile = ProfileUrbanFabric.convertJSONtoProfile(new File(getPROFILEFOLDER() + "/" + urbanFabricType + ".json"));
+        if (isStreaming())
+            return executeStreaming();
         //convert the parcel to a common type
-        DataStore dSParcel = CollecMgmt.getDataStore(PARCELFILE);
+        DataStore dSParcel = CollecMgmt.getDataStore(getPARCELFILE());
         SimpleFeatureCollection parcel = DataUtilities.collection(dSParcel.getFeatureSource(dSParcel.getTypeNames()[0]).getFeatures());
         dSParcel.dispose();
+        lap = lap("selection", lap);
 
         // mark (select) the parcels
+        SimpleFeatureCollection parcelMarked = markParcels(parcel, "");
+        lap = lap("marking", lap);
+        // in case of lot of cities to simulate, we separate the execution of PM simulations for each community
+        List<SimpleFeatureCollection> cuts = simulateCommunities(parcelMarked, parcel);
+        lap = lap("division", lap);
+        // results are merged once every community has been simulated, in the order of the communities
+        DefaultFeatureCollection parcelCut = new DefaultFeatureCollection();
+        if (workflow.equals(WorkflowType.consolidationDivision)) {
+            //there was a problem here when adding different collections - hack to use my custom method
+            if (!cuts.isEmpty())
+                parcelCut = (DefaultFeatureCollection) CollecMgmt.mergeSFC(cuts, true, null);
+        } else
+            cuts.forEach(parcelCut::addAll);
+        // we add the parcels from the communities that haven't been simulated
+        for (String communityCode : ParcelAttribute.getCityCodesOfParcels(parcel))
+            if (!communityNumbers.contains(communityCode))
+                parcelCut.addAll(ParcelGetter.getParcelByCommunityCode(parcel, communityCode));
+        lap = lap("merge", lap);
+
+        lastOutput = makeFileName();
+
+        CollecMgmt.exportSFC(parcelCut, lastOutput);
+        lap("export", lap);
+        //if the step produces no output, we return the input parcels
+        if (!lastOutput.exists()) {
+            System.out.println("PMstep " + this + " returns nothing");
+            return getPARCELFILE();
+        }
+        return lastOutput;
+    }
+
+    /**
+     * Execute the current PM Step community by community, without loading the whole parcel plan in memory. Parcels of each community are read from the {@link DataStore}, marked,
+     * simulated and directly appended to the output geo file. Peak memory is then bounded by the biggest community.
+     * <p>
+     * As each community is marked on its own, zones that are crossing community borders are simulated separately on each side of the border. If the parcel file has no
+     * community field, it can't be queried by community: its parcels are read once and grouped in memory.
+     *
+     * @return The geo file containing the whole parcels, where the simulated parcel have replaced the former parcels.
+     * @throws IOException tons of reading and writing
+     */
+    private File executeStreaming() throws IOException {
+        long lap = System.nanoTime();
+        lastOutput = makeFileName();
+        DataStore dSParcel = CollecMgmt.getDataStore(getPARCELFILE());
+        SimpleFeatureSource source = dSParcel.getFeatureSource(dSParcel.getTypeNames()[0]);
+        // if the community field exists, chunks are directly queried to the data store. Otherwise, the file is read once and its parcels are grouped by community in memory
+        boolean queryable = source.getSchema().getDescriptor(ParcelSchema.getParcelCommunityField()) != null;
+        Map<String, SimpleFeatureCollection> communities = queryable ? null : ParcelGetter.getParcelsByCommunityCode(DataUtilities.collection(source.getFeatures()));
+        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+        // communities that must be simulated. If none is specified, every community is simulated
+        List<String> selectedCommunities = communityNumber != null && !communityNumber.equals("") ? Arrays.asList(communityNumber.split(",")) : null;
+        boolean overwrite = true;
+        for (String code : ParcelAttribute.getCityCodesOfParcels(source.getFeatures())) {
+            SimpleFeatureCollection parcelComm = queryable
+                    ? DataUtilities.collection(source.getFeatures(ff.equals(ff.property(ParcelSchema.getParcelCommunityField()), ff.literal(code))))
+                    : communities.getOrDefault(code, new DefaultFeatureCollection());
+            SimpleFeatureCollection result = parcelComm;
+            lap = lap("selection", lap);
+            if (selectedCommunities == null || selectedCommunities.contains(code)) {
+                communityNumbers.clear();
+                SimpleFeatureCollection parcelMarkedComm = markParcels(parcelComm, code);
+                lap = lap("marking", lap);
+                SimpleFeatureCollection cut = simulateCommunityWithRandom(code, parcelMarkedComm, parcelComm);
+                if (cut != null)
+                    result = cut;
+                lap = lap("division", lap);
+            }
+            if (result.isEmpty())
+                continue;
+            CollecMgmt.exportSFC(result, lastOutput, overwrite);
+            overwrite = false;
+            lap = lap("export", lap);
+        }
+        dSParcel.dispose();
+        //if the step produces no output, we return the input parcels
+        if (!lastOutput.exists()) {
+            System.out.println("PMstep " + this + " returns nothing");
+            return getPARCELFILE();
+        }
+        return lastOutput;
+    }
+
+    /**
+     * Add the time elapsed since the last lap to a phase.
+     *
+     * @param phase one of {@link #PHASES}
+     * @param lap   time of the last lap, from {@link System#nanoTime()}
+     * @return time of this lap
+     */
+    private long lap(String phase, long lap) {
+        long now = System.nanoTime();
+        phaseTimes.merge(phase, now - lap, Long::sum);
+        if (Metrics.isEnabled())
+            Metrics.time("PMStep." + phase, now - lap);
+        return now;
+    }
+
+    /**
+     * Select and mark the parcels to simulate (see {@link #getSimulationParcels(SimpleFeatureCollection)}). Zones are used as parcels for the <i>Zone Division</i> workflow.
+     *
+     * @param parcel parcel plan
+     * @param suffix suffix of the debug file name
+     * @return The parcel collection with a mark for the interesting parcels to simulate.
+     * @throws IOException reading a lot of files
+     */
+    private SimpleFeatureCollection markParcels(SimpleFeatureCollection parcel, String suffix) throws IOException {
         SimpleFeatureCollection parcelMarked;
         //if we work with zones, we put them as parcel input
         if (workflow.equals(WorkflowType.zoneDivision))
@@ -229,75 +483,126 @@ public class PMStep {
             parcelMarked = getSimulationParcels(parcel);
         if (PMScenario.isDEBUG()) {
             System.out.println("parcels marked with " + MarkParcelAttributeFromPosition.countMarkedParcels(parcelMarked) + " marks");
-            File tmpFolder = new File(OUTFOLDER, "tmp");
+            File tmpFolder = new File(getOUTFOLDER(), "tmp");
             tmpFolder.mkdirs();
-            CollecMgmt.exportSFC(parcelMarked, new File(tmpFolder, "parcelMarked" + this.workflow + "-" + this.parcelProcess.toString() + this.preciseZone));
+            CollecMgmt.exportSFC(parcelMarked, new File(tmpFolder, "parcelMarked" + this.workflow + "-" + this.parcelProcess.toString() + this.preciseZone + suffix));
         }
-        DefaultFeatureCollection parcelCut = new DefaultFeatureCollection();
-        // in case of lot of cities to simulate, we separate the execution of PM simulations for each community
-        for (String communityNumber : communityNumbers) {
-            System.out.println("for community " + communityNumber);
-            SimpleFeatureCollection parcelMarkedComm = ParcelGetter.getParcelByCommunityCode(parcelMarked, communityNumber);
-            if (parcelMarkedComm.size() == 0) {
-                System.out.println("No parcels for community " + communityNumber);
-                continue;
-            }
-            //if we adapt parcel's area to the community
-            if (isAdaptAreaOfUrbanFabric()) {
-                RealUrbanFabricParameters rufp = new RealUrbanFabricParameters(parcelMarkedComm, BUILDINGFILE);
-                DescriptiveStatistics stat = rufp.getAreaBuilt();
-                double max = stat.getPercentile(75);
-                double min = max / 2 < stat.getPercentile(10) ? max / 2.5 : stat.getPercentile(10);
-                System.out.println("new parcel MaximalArea: " + max);
-                System.out.println("new parcel MinimalArea: " + min);
-                profile.setMaximalArea(max);
-                profile.setMinimalArea(min);
-            }
-            // If a predicate file has been set
-            if (PREDICATEFILE != null && PREDICATEFILE.exists())
-                setAllowIsolatedParcel(ParcelState.isArt3AllowsIsolatedParcel(parcel.features().next(), PREDICATEFILE));
-            // we choose one of the different workflows
-            switch (workflow) {
-                case zoneDivision:
-                    ZoneDivision.PROCESS = parcelProcess;
-                    parcelCut.addAll((new ZoneDivision()).zoneDivision(parcelMarkedComm,
-                            ParcelGetter.getParcelByCommunityCode(parcel, communityNumber), OUTFOLDER, profile, ROADFILE, BUILDINGFILE, isKeepExistingRoad()));
-                    break;
-                case densification:
-                    parcelCut.addAll((new Densification()).densification(parcelMarkedComm,
-                            CityGeneration.createUrbanBlock(parcelMarkedComm), OUTFOLDER, BUILDINGFILE, ROADFILE, profile.getHarmonyCoeff(),
-                            profile.getIrregularityCoeff(), profile.getMaximalArea(), profile.getMinimalArea(), profile.getMinimalWidthContactRoad(),
-                            profile.getDrivewayWidth(), isAllowIsolatedParcel(), CityGeneration.createBufferBorder(parcelMarkedComm)));
-                    break;
-                case consolidationDivision:
-                    ConsolidationDivision.PROCESS = parcelProcess;
-                    //there was a problem here when adding different collections - hack to use my custom method
-                    SimpleFeatureCollection cut = (new ConsolidationDivision()).consolidationDivision(parcelMarkedComm, ROADFILE, OUTFOLDER, profile);
-                    List<SimpleFeatureCollection> lCol = parcelCut.isEmpty() ? Collections.singletonList(cut) : Arrays.asList(parcelCut, cut);
-                    parcelCut = (DefaultFeatureCollection) CollecMgmt.mergeSFC(lCol, true, null);
-//                    parcelCut.addAll((new ConsolidationDivision()).consolidationDivision(parcelMarkedComm, ROADFILE, OUTFOLDER, profile));
-                    break;
-                case densificationStudy:
-                    DensificationStudy.runDensificationStudy(parcelMarkedComm, BUILDINGFILE, ROADFILE, ZONINGFILE, OUTFOLDER, isAllowIsolatedParcel(), profile);
-                    break;
-                default:
-                    System.out.println(workflow + ": unrecognized workflow");
+        return parcelMarked;
+    }
+
+    /**
+     * Run the workflow on every community of {@link #communityNumbers}. If {@link #getCommunityParallelism()} is greater than 1, communities are simulated concurrently in a
+     * {@link ForkJoinPool}. Each community gets its own random stream derived from the global seed and its code (see {@link Division#withRandom(String, Supplier)}), so the results
+     * don't depend on the number of workers. Communities are simulated one after the other in debug mode or if intermediate results are saved
+     * ({@link Workflow#isSAVEINTERMEDIATERESULT()}), as the workflows write those files in the same geo files.
+     *
+     * @param parcelMarked marked parcels
+     * @param parcel       parcel plan
+     * @return the simulated parcels of each community, in the order of {@link #communityNumbers}. Communities where nothing has been simulated are omitted.
+     * @throws IOException reading and writing geo files
+     */
+    private List<SimpleFeatureCollection> simulateCommunities(SimpleFeatureCollection parcelMarked, SimpleFeatureCollection parcel) throws IOException {
+        List<String> codes = new ArrayList<>(communityNumbers);
+        List<SimpleFeatureCollection> cuts = new ArrayList<>();
+        // the context isn't inherited by the workers. Without a bound context, each worker gets its own copy of the static configuration, so the settings changed while
+        // simulating a community (i.e. the division process) don't leak to the others
+        SimulationContext ctx = SimulationContext.get();
+        int communityParallelism = getCommunityParallelism();
+        if (communityParallelism <= 1 || codes.size() < 2 || PMScenario.isDEBUG() || Workflow.isSAVEINTERMEDIATERESULT()) {
+            for (String code : codes)
+                cuts.add(simulateCommunityWithRandom(code, ParcelGetter.getParcelByCommunityCode(parcelMarked, code), parcel));
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(communityParallelism);
+            try {
+                cuts = pool.submit(() -> codes.parallelStream().map(code -> {
+                    try {
+                        return SimulationContext.callWith(ctx, () -> simulateCommunityWithRandom(code, ParcelGetter.getParcelByCommunityCode(parcelMarked, code), parcel));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).collect(Collectors.toCollection(ArrayList::new))).get();
+            } catch (InterruptedException | ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                throw new IOException(e);
+            } finally {
+                pool.shutdown();
             }
         }
-        // we add the parcels from the communities that haven't been simulated
-        for (String communityCode : ParcelAttribute.getCityCodesOfParcels(parcel))
-            if (!communityNumbers.contains(communityCode))
-                parcelCut.addAll(ParcelGetter.getParcelByCommunityCode(parcel, communityCode));
+        cuts.removeIf(Objects::isNull);
+        return cuts;
+    }
 
-        lastOutput = makeFileName();
+    /**
+     * Run {@link #simulateCommunity(String, SimpleFeatureCollection, SimpleFeatureCollection)} with the random stream of the community.
+     */
+    private SimpleFeatureCollection simulateCommunityWithRandom(String communityNumber, SimpleFeatureCollection parcelMarkedComm, SimpleFeatureCollection parcel) throws IOException {
+        try {
+            return Division.withRandom(communityNumber, () -> {
+                try {
+                    return simulateCommunity(communityNumber, parcelMarkedComm, parcel);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-        CollecMgmt.exportSFC(parcelCut, lastOutput);
-        //if the step produces no output, we return the input parcels
-        if (!lastOutput.exists()) {
-            System.out.println("PMstep " + this + " returns nothing");
-            return PARCELFILE;
+    /**
+     * Run the workflow of the step on the parcels of a single community. The urban fabric profile is copied if it is adapted to the community, so that communities can be simulated
+     * concurrently.
+     *
+     * @param communityNumber  code of the community
+     * @param parcelMarkedComm marked parcels of the community
+     * @param parcel           parcel plan containing (at least) every parcels of the community
+     * @return the simulated parcels of the community, or null if nothing has been simulated
+     * @throws IOException reading and writing geo files
+     */
+    private SimpleFeatureCollection simulateCommunity(String communityNumber, SimpleFeatureCollection parcelMarkedComm, SimpleFeatureCollection parcel) throws IOException {
+        System.out.println("for community " + communityNumber);
+        if (parcelMarkedComm == null || parcelMarkedComm.size() == 0) {
+            System.out.println("No parcels for community " + communityNumber);
+            return null;
+        }
+        ProfileUrbanFabric profile = this.profile;
+        //if we adapt parcel's area to the community
+        if (isAdaptAreaOfUrbanFabric()) {
+            profile = ProfileUrbanFabric.convertJSONtoProfile(new File(getPROFILEFOLDER() + "/" + urbanFabricType + ".json"));
+            RealUrbanFabricParameters rufp = new RealUrbanFabricParameters(parcelMarkedComm, getBUILDINGFILE());
+            DescriptiveStatistics stat = rufp.getAreaBuilt();
+            double max = stat.getPercentile(75);
+            double min = max / 2 < stat.getPercentile(10) ? max / 2.5 : stat.getPercentile(10);
+            System.out.println("new parcel MaximalArea: " + max);
+            System.out.println("new parcel MinimalArea: " + min);
+            profile.setMaximalArea(max);
+            profile.setMinimalArea(min);
+        }
+        // If a predicate file has been set, its rule only applies to this community
+        boolean allowIsolatedParcel = isAllowIsolatedParcel();
+        if (getPREDICATEFILE() != null && getPREDICATEFILE().exists())
+            allowIsolatedParcel = ParcelState.isArt3AllowsIsolatedParcel(DataUtilities.first(parcel), getPREDICATEFILE());
+        // we choose one of the different workflows
+        switch (workflow) {
+            case zoneDivision:
+                ZoneDivision.setProcess(parcelProcess);
+                return (new ZoneDivision()).zoneDivision(parcelMarkedComm, ParcelGetter.getParcelByCommunityCode(parcel, communityNumber), getOUTFOLDER(), profile,
+                        getROADFILE(), getBUILDINGFILE(), isKeepExistingRoad());
+            case densification:
+                return (new Densification()).densification(parcelMarkedComm, CityGeneration.createUrbanBlock(parcelMarkedComm), getOUTFOLDER(), getBUILDINGFILE(), getROADFILE(),
+                        profile.getHarmonyCoeff(), profile.getIrregularityCoeff(), profile.getMaximalArea(), profile.getMinimalArea(),
+                        profile.getMinimalWidthContactRoad(), profile.getDrivewayWidth(), allowIsolatedParcel, CityGeneration.createBufferBorder(parcelMarkedComm));
+            case consolidationDivision:
+                ConsolidationDivision.setProcess(parcelProcess);
+                return (new ConsolidationDivision()).consolidationDivision(parcelMarkedComm, getROADFILE(), getOUTFOLDER(), profile);
+            case densificationStudy:
+                DensificationStudy.runDensificationStudy(parcelMarkedComm, getBUILDINGFILE(), getROADFILE(), getZONINGFILE(), getOUTFOLDER(), allowIsolatedParcel, profile);
+                return null;
+            default:
+                System.out.println(workflow + ": unrecognized workflow");
+                return null;
         }
-        return lastOutput;
     }
 
     /**
@@ -312,6 +617,7 @@ public class PMStep {
      * @throws IOException reading a lot of files
      */
     public SimpleFeatureCollection getSimulationParcels(SimpleFeatureCollection parcelIn) throws IOException {
+        long start = Metrics.start();
         if (workflow.equals(WorkflowType.zoneDivision))
             ParcelSchema.setParcelCommunityField(GeneralFields.getZoneCommunityCode());
         // select the parcels from the interesting communities
@@ -328,13 +634,13 @@ public class PMStep {
             }
         } else if (communityType != null && !communityType.equals("")) {        // if a type of community has been set
             communityNumbers.addAll(ParcelAttribute.getCityCodesOfParcels(parcelIn));
-            parcel = ParcelGetter.getParcelByTypo(communityType, parcelIn, ZONINGFILE);
+            parcel = ParcelGetter.getParcelByTypo(communityType, parcelIn, getZONINGFILE());
         } else { // if the input parcel is just what needs to be simulated, we put them all
             communityNumbers.addAll(ParcelAttribute.getCityCodesOfParcels(parcelIn));
             parcel = parcelIn;
         }
         if (PMScenario.isDEBUG())
-            CollecMgmt.exportSFC(parcel, new File(OUTFOLDER, "selectedParcels"));
+            CollecMgmt.exportSFC(parcel, new File(getOUTFOLDER(), "selectedParcels"));
         // parcels have been selected - now is time to mark them
         // parcel marking with a special rule
         if (selection != null && !selection.equals("") && !workflow.equals(WorkflowType.zoneDivision))
@@ -355,13 +661,15 @@ public class PMStep {
                     System.out.println("getSimulationParcels() : selection type not implemented (yet)");
             }
         // parcel marking with input polygons (disabled if we use a specific zone)
-        if (POLYGONINTERSECTION != null && POLYGONINTERSECTION.exists() && !workflow.equals(WorkflowType.zoneDivision))
-            parcel = MarkParcelAttributeFromPosition.markParcelIntersectPolygonIntersection(parcel, POLYGONINTERSECTION);
+        if (getPOLYGONINTERSECTION() != null && getPOLYGONINTERSECTION().exists() && !workflow.equals(WorkflowType.zoneDivision))
+            parcel = MarkParcelAttributeFromPosition.markParcelIntersectPolygonIntersection(parcel, getPOLYGONINTERSECTION());
         SimpleFeatureCollection result = new DefaultFeatureCollection();
         // parcel marking with a zoning plan (possible to be hacked for any attribute feature selection by setting the field name to the genericZoning scenario parameter)
-        if (ZONINGFILE != null && ZONINGFILE.exists() && genericZone != null && !genericZone.equals(""))
+        if (getZONINGFILE() != null && getZONINGFILE().exists() && genericZone != null && !genericZone.equals(""))
             for (String communityNumber : communityNumbers) { // we proceed for each city
                 SimpleFeatureCollection parcelCity = ParcelGetter.getParcelByCommunityCode(parcel, communityNumber);
+                if (parcelCity == null) // no parcels for that community (can happen when parcels are streamed community by community)
+                    continue;
                 boolean alreadySimuled = false;
                 String place = communityNumber + "-" + genericZone;
                 for (String cachePlaceSimulates : cachePlacesSimulates) // check the cache to see if zone have already been simulated
@@ -372,10 +680,10 @@ public class PMStep {
                     }
                 if (!alreadySimuled) // if that zone has never been simulated, we proceed as usual
                     if (preciseZone == null || preciseZone.equals("")) { // if a generic zone is set and no precise zone set
-                        ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectGenericZoningType(parcelCity, genericZone, ZONINGFILE));
+                        ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectGenericZoningType(parcelCity, genericZone, getZONINGFILE()));
                         cachePlacesSimulates.add(place);
                     } else { // if a generic zone and a precise zone are set
-                        ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectPreciseZoningType(parcelCity, genericZone, preciseZone, ZONINGFILE));
+                        ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectPreciseZoningType(parcelCity, genericZone, preciseZone, getZONINGFILE()));
                         cachePlacesSimulates.add(place + "-" + preciseZone);
                     }
                 else { // the zone has already been simulated, we isolate a small part defined by the preciseZone field
@@ -389,17 +697,17 @@ public class PMStep {
                                     preciseZones.add(p[2]);
                             }
                         if (!preciseZones.isEmpty()) { // if we found specific precise zones that has been simulated, we exclude them from the marking session
-                            ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectZoningWithoutPreciseZonings(parcelCity, genericZone, preciseZones, ZONINGFILE));
+                            ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectZoningWithoutPreciseZonings(parcelCity, genericZone, preciseZones, getZONINGFILE()));
                             if (PMScenario.isDEBUG())
                                 System.out.println("sparedPreciseZones: " + preciseZones);
                         } else { // if no precise zones have been found - this shouldn't happen - but we select zones with generic zoning
-                            ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectGenericZoningType(parcelCity, genericZone, ZONINGFILE));
+                            ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectGenericZoningType(parcelCity, genericZone, getZONINGFILE()));
                             if (PMScenario.isDEBUG())
                                 System.out.println("no precise zones have been found and generic zone " + genericZone + " has already been simulated - this shouldn't happen");
                         }
                         cachePlacesSimulates.add(place);
                     } else { // a precise zone has been specified : we mark them parcels
-                        ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectPreciseZoningType(parcelCity, genericZone, preciseZone, ZONINGFILE));
+                        ((DefaultFeatureCollection) result).addAll(MarkParcelAttributeFromPosition.markParcelIntersectPreciseZoningType(parcelCity, genericZone, preciseZone, getZONINGFILE()));
                         cachePlacesSimulates.add(place + "-" + preciseZone);
                     }
                 }
@@ -421,6 +729,7 @@ public class PMStep {
         // special case where zoneDivision will return other than parcel
         if (workflow.equals(WorkflowType.zoneDivision))
             ParcelSchema.setParcelCommunityField(ParcelSchema.getParcelCommunityField());
+        Metrics.stop("PMStep.getSimulationParcels", start);
         return result;
     }
 
@@ -431,7 +740,7 @@ public class PMStep {
      * @throws IOException reading geo files
      */
     public List<Geometry> getBoundsOfZone() throws IOException {
-        DataStore ds = CollecMgmt.getDataStore(PARCELFILE);
+        DataStore ds = CollecMgmt.getDataStore(getPARCELFILE());
         List<Geometry> lG = new ArrayList<>();
         if (workflow.equals(WorkflowType.zoneDivision)) {
             Arrays.stream(getZone(ds.getFeatureSource(ds.getTypeNames()[0]).getFeatures()).toArray(new SimpleFeature[0])).forEach(parcel -> lG.add((Geometry) parcel.getDefaultGeometry()));
@@ -456,14 +765,14 @@ public class PMStep {
     private SimpleFeatureCollection getZone(SimpleFeatureCollection parcel) throws IOException {
         SimpleFeatureCollection zoneIn;
         // If a specific zone is an input, we take them directly. We also have to set attributes from pre-existing parcel field.
-        if (ZONE != null && ZONE.exists()) {
-            DataStore dsZone = CollecMgmt.getDataStore(ZONE);
+        if (getZONE() != null && getZONE().exists()) {
+            DataStore dsZone = CollecMgmt.getDataStore(getZONE());
             zoneIn = GeneralFields.transformSFCToMinParcel(dsZone.getFeatureSource(dsZone.getTypeNames()[0]).getFeatures(), parcel);
             dsZone.dispose();
         }
         // If no zone have been set, it means we have to use the zoning plan.
         else {
-            DataStore dsZoning = CollecMgmt.getDataStore(ZONINGFILE);
+            DataStore dsZoning = CollecMgmt.getDataStore(getZONINGFILE());
             zoneIn = ZoneDivision.createZoneToCut(genericZone, preciseZone, dsZoning.getFeatureSource(dsZoning.getTypeNames()[0]).getFeatures(), parcel);
             dsZoning.dispose();
         }
@@ -494,6 +803,24 @@ public class PMStep {
         return lastOutput;
     }
 
+    /**
+     * Time spent in each phase of the last execution (see {@link #PHASES}). In streaming mode, the times of every community are summed and there is no merge phase.
+     *
+     * @return phase names and their durations in nanoseconds, in the order of the phases
+     */
+    public Map<String, Long> getPhaseTimes() {
+        return Collections.unmodifiableMap(phaseTimes);
+    }
+
+    /**
+     * Wall time of the last execution.
+     *
+     * @return duration in nanoseconds
+     */
+    public long getExecutionTime() {
+        return executionTime;
+    }
+
     /**
      * It is possible for {@link ZoneDivision} workflow to either work on the integrality of the concerned zone or to keep the parts where parcel doesn't exist and left it as a public space (road in most cases).
      *
@@ -518,6 +845,6 @@ public class PMStep {
      * @return every parameter is parsed into the returned string
      */
     public File makeFileName() {
-        return new File(OUTFOLDER, "parcelCuted-" + workflow + "-" + urbanFabricType + "-" + genericZone + "_" + preciseZone + CollecMgmt.getDefaultGISFileType());
+        return new File(getOUTFOLDER(), "parcelCuted-" + workflow + "-" + urbanFabricType + "-" + genericZone + "_" + preciseZone + CollecMgmt.getDefaultGISFileType());
     }
 }
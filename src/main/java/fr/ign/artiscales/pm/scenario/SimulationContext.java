@@ -0,0 +1,459 @@
+package fr.ign.artiscales.pm.scenario;
+
+import fr.ign.artiscales.pm.division.Division;
+import fr.ign.artiscales.pm.division.DivisionType;
+import fr.ign.artiscales.pm.division.SkeletonCache;
+import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
+import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
+import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
+import fr.ign.artiscales.pm.workflow.Densification;
+import fr.ign.artiscales.pm.workflow.Workflow;
+import fr.ign.artiscales.pm.workflow.ZoneDivision;
+
+import java.io.File;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable configuration of a simulation run: field names of the parcels, division process, straight skeleton options, geographic files of the {@link PMStep}s, seed of
+ * the random streams and execution options (streaming, number of workers, skeleton cache).
+ * <p>
+ * The run configuration used to live only in static fields, so two scenarios couldn't be simulated in the same JVM. A context can now be bound to the current thread with
+ * {@link #call(Task)}. While it is bound, the static getters of the configuration ({@link MarkParcelAttributeFromPosition#getMarkFieldName()}, {@link ParcelSchema#getParcelCommunityField()},
+ * {@link Workflow#getProcess()}, {@link StraightSkeletonDivision#isGeneratePeripheralRoad()}, {@link PMStep#getPARCELFILE()}, etc.) return the values of the context, and the static
+ * setters replace the bound context by a modified copy instead of changing the global values. Once the task is over, the previous context is bound back, so the changes made by
+ * the static setters during the task are dropped (see {@link #call(Task)}). If no context is bound, the static fields are used as before.
+ * <p>
+ * A context with a seed (see {@link #withSeed(long)}) also gets its own random generator (see {@link Division#getRandom()}), so scenarios simulated concurrently with different
+ * seeds are reproducible.
+ * <p>
+ * The bound context is not inherited by other threads. Code that runs tasks in a pool must capture {@link #current()} and bind it in each task.
+ */
+public class SimulationContext {
+    private static final ThreadLocal<SimulationContext> bound = new ThreadLocal<>();
+
+    private String markFieldName;
+    private String parcelNumberField, parcelSectionField, parcelCommunityField;
+    private DivisionType process;
+    private boolean generatePeripheralRoad;
+    private File folderOutDebug;
+    private File parcelFile, zoningFile, buildingFile, roadFile, predicateFile, polygonIntersection, zone, outFolder, profileFolder;
+    /**
+     * Seed of the random streams of the context (see {@link Division#getSeed()}). Null if the global seed is used.
+     */
+    private Long seed;
+    private boolean allowIsolatedParcel;
+    private boolean streaming;
+    private int communityParallelism;
+    private boolean tiled;
+    private int tileParallelism;
+    private int densificationParallelism;
+    private int skeletonParallelism;
+    private long skeletonTaskTimeout;
+    private int skeletonCacheSize;
+    private File skeletonCacheFolder;
+
+    private SimulationContext() {
+    }
+
+    /**
+     * Copy this context and change the copy. Fields are only assigned here and in {@link #fromGlobals()}, so a context never changes once it has been returned.
+     *
+     * @param change modification of the copy
+     * @return the modified copy
+     */
+    private SimulationContext copy(Consumer<SimulationContext> change) {
+        SimulationContext copy = new SimulationContext();
+        copy.markFieldName = markFieldName;
+        copy.parcelNumberField = parcelNumberField;
+        copy.parcelSectionField = parcelSectionField;
+        copy.parcelCommunityField = parcelCommunityField;
+        copy.process = process;
+        copy.generatePeripheralRoad = generatePeripheralRoad;
+        copy.folderOutDebug = folderOutDebug;
+        copy.parcelFile = parcelFile;
+        copy.zoningFile = zoningFile;
+        copy.buildingFile = buildingFile;
+        copy.roadFile = roadFile;
+        copy.predicateFile = predicateFile;
+        copy.polygonIntersection = polygonIntersection;
+        copy.zone = zone;
+        copy.outFolder = outFolder;
+        copy.profileFolder = profileFolder;
+        copy.seed = seed;
+        copy.allowIsolatedParcel = allowIsolatedParcel;
+        copy.streaming = streaming;
+        copy.communityParallelism = communityParallelism;
+        copy.tiled = tiled;
+        copy.tileParallelism = tileParallelism;
+        copy.densificationParallelism = densificationParallelism;
+        copy.skeletonParallelism = skeletonParallelism;
+        copy.skeletonTaskTimeout = skeletonTaskTimeout;
+        copy.skeletonCacheSize = skeletonCacheSize;
+        copy.skeletonCacheFolder = skeletonCacheFolder;
+        change.accept(copy);
+        return copy;
+    }
+
+    /**
+     * Get the context bound to the current thread.
+     *
+     * @return the bound context, or null if the static configuration is used
+     */
+    public static SimulationContext current() {
+        return bound.get();
+    }
+
+    /**
+     * Get the context bound to the current thread or, if none is bound, a snapshot of the static configuration.
+     *
+     * @return the configuration currently in use
+     */
+    public static SimulationContext get() {
+        SimulationContext ctx = bound.get();
+        return ctx != null ? ctx : fromGlobals();
+    }
+
+    /**
+     * Create a context with the values of the static configuration.
+     *
+     * @return a snapshot of the static configuration
+     */
+    public static SimulationContext fromGlobals() {
+        SimulationContext ctx = new SimulationContext();
+        ctx.markFieldName = MarkParcelAttributeFromPosition.getMarkFieldName();
+        ctx.parcelNumberField = ParcelSchema.getParcelNumberField();
+        ctx.parcelSectionField = ParcelSchema.getParcelSectionField();
+        ctx.parcelCommunityField = ParcelSchema.getParcelCommunityField();
+        ctx.process = Workflow.getProcess();
+        ctx.generatePeripheralRoad = StraightSkeletonDivision.isGeneratePeripheralRoad();
+        ctx.folderOutDebug = StraightSkeletonDivision.getFolderOutDebug();
+        ctx.parcelFile = PMStep.getPARCELFILE();
+        ctx.zoningFile = PMStep.getZONINGFILE();
+        ctx.buildingFile = PMStep.getBUILDINGFILE();
+        ctx.roadFile = PMStep.getROADFILE();
+        ctx.predicateFile = PMStep.getPREDICATEFILE();
+        ctx.polygonIntersection = PMStep.getPOLYGONINTERSECTION();
+        ctx.zone = PMStep.getZONE();
+        ctx.outFolder = PMStep.getOUTFOLDER();
+        ctx.profileFolder = PMStep.getPROFILEFOLDER();
+        ctx.allowIsolatedParcel = PMStep.isAllowIsolatedParcel();
+        ctx.streaming = PMStep.isStreaming();
+        ctx.communityParallelism = PMStep.getCommunityParallelism();
+        ctx.tiled = ZoneDivision.isTiled();
+        ctx.tileParallelism = ZoneDivision.getTileParallelism();
+        ctx.densificationParallelism = Densification.getParallelism();
+        ctx.skeletonParallelism = StraightSkeletonDivision.getParallelism();
+        ctx.skeletonTaskTimeout = StraightSkeletonDivision.getTaskTimeout();
+        ctx.skeletonCacheSize = SkeletonCache.getCacheSize();
+        ctx.skeletonCacheFolder = SkeletonCache.getFolder();
+        return ctx;
+    }
+
+    /**
+     * Replace the context bound to the current thread, if any. Used by the static setters of the configuration.
+     *
+     * @param ctx new context
+     * @return false if no context is bound (the static value must then be set)
+     */
+    public static boolean rebind(SimulationContext ctx) {
+        if (bound.get() == null)
+            return false;
+        bound.set(ctx);
+        return true;
+    }
+
+    /**
+     * Replace the context bound to the current thread, if any, by a modified copy. Used by the static setters of the configuration. Nothing is computed if no context is bound.
+     * The change lasts until the end of the innermost {@link #call(Task)} of the current thread.
+     *
+     * @param change modification of the bound context
+     * @return false if no context is bound (the static value must then be set)
+     */
+    public static boolean update(UnaryOperator<SimulationContext> change) {
+        SimulationContext ctx = bound.get();
+        if (ctx == null)
+            return false;
+        bound.set(change.apply(ctx));
+        return true;
+    }
+
+    /**
+     * Run a task with a context bound to the current thread. Calls can be nested. If the given context is null, the task is run with the context already bound (if any).
+     *
+     * @param ctx  context to bind. Can be null
+     * @param task task to run
+     * @param <T>  type of the result
+     * @param <E>  type of the exception thrown by the task
+     * @return the result of the task
+     * @throws E exception thrown by the task
+     */
+    public static <T, E extends Exception> T callWith(SimulationContext ctx, Task<T, E> task) throws E {
+        return ctx == null ? task.run() : ctx.call(task);
+    }
+
+    /**
+     * Run a task with this context bound to the current thread. The previously bound context is restored afterwards. If the context has a seed that isn't the one of the previous
+     * context, the task is run with a random generator seeded with it (see {@link Division#callWithRandom(long, Task)}).
+     * <p>
+     * The context is bound for the task only: if the task changes it with a static setter (i.e. {@link Division#setSeed(long)} or {@link PMStep#setParcel(File)}), the change is
+     * seen by the rest of the task but not by the caller once the task is over. A task that must hand its changes back to its caller returns {@link #current()} (as
+     * {@link PMScenario#executeStep()} does for the simulated parcel file). The random generator of the current thread is restored as well.
+     *
+     * @param task task to run
+     * @param <T>  type of the result
+     * @param <E>  type of the exception thrown by the task
+     * @return the result of the task
+     * @throws E exception thrown by the task
+     */
+    public <T, E extends Exception> T call(Task<T, E> task) throws E {
+        SimulationContext previous = bound.get();
+        bound.set(this);
+        try {
+            if (seed != null && (previous == null || !seed.equals(previous.seed)))
+                return Division.callWithRandom(seed, task);
+            return Division.callKeepingRandom(task);
+        } finally {
+            if (previous == null)
+                bound.remove();
+            else
+                bound.set(previous);
+        }
+    }
+
+    public String getMarkFieldName() {
+        return markFieldName;
+    }
+
+    public String getParcelNumberField() {
+        return parcelNumberField;
+    }
+
+    public String getParcelSectionField() {
+        return parcelSectionField;
+    }
+
+    public String getParcelCommunityField() {
+        return parcelCommunityField;
+    }
+
+    public DivisionType getProcess() {
+        return process;
+    }
+
+    public boolean isGeneratePeripheralRoad() {
+        return generatePeripheralRoad;
+    }
+
+    public File getFolderOutDebug() {
+        return folderOutDebug;
+    }
+
+    public File getParcelFile() {
+        return parcelFile;
+    }
+
+    public File getZoningFile() {
+        return zoningFile;
+    }
+
+    public File getBuildingFile() {
+        return buildingFile;
+    }
+
+    public File getRoadFile() {
+        return roadFile;
+    }
+
+    public File getPredicateFile() {
+        return predicateFile;
+    }
+
+    public File getPolygonIntersection() {
+        return polygonIntersection;
+    }
+
+    public File getZone() {
+        return zone;
+    }
+
+    public File getOutFolder() {
+        return outFolder;
+    }
+
+    public File getProfileFolder() {
+        return profileFolder;
+    }
+
+    /**
+     * @return the seed of the random streams of this context, or null if the global seed is used
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    public boolean isAllowIsolatedParcel() {
+        return allowIsolatedParcel;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public int getCommunityParallelism() {
+        return communityParallelism;
+    }
+
+    public boolean isTiled() {
+        return tiled;
+    }
+
+    public int getTileParallelism() {
+        return tileParallelism;
+    }
+
+    public int getDensificationParallelism() {
+        return densificationParallelism;
+    }
+
+    public int getSkeletonParallelism() {
+        return skeletonParallelism;
+    }
+
+    public long getSkeletonTaskTimeout() {
+        return skeletonTaskTimeout;
+    }
+
+    public int getSkeletonCacheSize() {
+        return skeletonCacheSize;
+    }
+
+    public File getSkeletonCacheFolder() {
+        return skeletonCacheFolder;
+    }
+
+    public SimulationContext withMarkFieldName(String markFieldName) {
+        return copy(c -> c.markFieldName = markFieldName);
+    }
+
+    public SimulationContext withParcelNumberField(String parcelNumberField) {
+        return copy(c -> c.parcelNumberField = parcelNumberField);
+    }
+
+    public SimulationContext withParcelSectionField(String parcelSectionField) {
+        return copy(c -> c.parcelSectionField = parcelSectionField);
+    }
+
+    public SimulationContext withParcelCommunityField(String parcelCommunityField) {
+        return copy(c -> c.parcelCommunityField = parcelCommunityField);
+    }
+
+    public SimulationContext withProcess(DivisionType process) {
+        return copy(c -> c.process = process);
+    }
+
+    public SimulationContext withGeneratePeripheralRoad(boolean generatePeripheralRoad) {
+        return copy(c -> c.generatePeripheralRoad = generatePeripheralRoad);
+    }
+
+    public SimulationContext withFolderOutDebug(File folderOutDebug) {
+        return copy(c -> c.folderOutDebug = folderOutDebug);
+    }
+
+    public SimulationContext withParcelFile(File parcelFile) {
+        return copy(c -> c.parcelFile = parcelFile);
+    }
+
+    public SimulationContext withPolygonIntersection(File polygonIntersection) {
+        return copy(c -> c.polygonIntersection = polygonIntersection);
+    }
+
+    public SimulationContext withOutFolder(File outFolder) {
+        return copy(c -> c.outFolder = outFolder);
+    }
+
+    /**
+     * Copy the context with a new set of geographic files. See {@link PMStep#setFiles(File, File, File, File, File, File, File, File, File)}.
+     */
+    public SimulationContext withFiles(File parcelFile, File zoningFile, File buildingFile, File roadFile, File predicateFile, File polygonIntersection, File zone, File outFolder,
+                                       File profileFolder) {
+        return copy(c -> {
+            c.parcelFile = parcelFile;
+            c.zoningFile = zoningFile;
+            c.buildingFile = buildingFile;
+            c.roadFile = roadFile;
+            c.predicateFile = predicateFile;
+            c.polygonIntersection = polygonIntersection;
+            c.zone = zone;
+            c.outFolder = outFolder;
+            c.profileFolder = profileFolder;
+        });
+    }
+
+    /**
+     * Copy the context with a seed of its own. Random streams derived while it is bound don't depend on the global seed (see {@link Division#streamSeed(String)}).
+     *
+     * @param seed seed of the random streams
+     * @return the copied context
+     */
+    public SimulationContext withSeed(long seed) {
+        return copy(c -> c.seed = seed);
+    }
+
+    public SimulationContext withAllowIsolatedParcel(boolean allowIsolatedParcel) {
+        return copy(c -> c.allowIsolatedParcel = allowIsolatedParcel);
+    }
+
+    public SimulationContext withStreaming(boolean streaming) {
+        return copy(c -> c.streaming = streaming);
+    }
+
+    public SimulationContext withCommunityParallelism(int communityParallelism) {
+        return copy(c -> c.communityParallelism = communityParallelism);
+    }
+
+    public SimulationContext withTiled(boolean tiled) {
+        return copy(c -> c.tiled = tiled);
+    }
+
+    public SimulationContext withTileParallelism(int tileParallelism) {
+        return copy(c -> c.tileParallelism = tileParallelism);
+    }
+
+    public SimulationContext withDensificationParallelism(int densificationParallelism) {
+        return copy(c -> c.densificationParallelism = densificationParallelism);
+    }
+
+    public SimulationContext withSkeletonParallelism(int skeletonParallelism) {
+        return copy(c -> c.skeletonParallelism = skeletonParallelism);
+    }
+
+    public SimulationContext withSkeletonTaskTimeout(long skeletonTaskTimeout) {
+        return copy(c -> c.skeletonTaskTimeout = skeletonTaskTimeout);
+    }
+
+    public SimulationContext withSkeletonCacheSize(int skeletonCacheSize) {
+        return copy(c -> c.skeletonCacheSize = skeletonCacheSize);
+    }
+
+    public SimulationContext withSkeletonCacheFolder(File skeletonCacheFolder) {
+        return copy(c -> c.skeletonCacheFolder = skeletonCacheFolder);
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationContext [markFieldName=" + markFieldName + ", parcelCommunityField=" + parcelCommunityField + ", process=" + process + ", generatePeripheralRoad="
+                + generatePeripheralRoad + ", parcelFile=" + parcelFile + ", outFolder=" + outFolder + ", seed=" + seed + ", streaming=" + streaming + ", tiled=" + tiled + "]";
+    }
+
+    /**
+     * A task run with a bound context.
+     *
+     * @param <T> type of the result
+     * @param <E> type of the exception thrown by the task
+     */
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T run() throws E;
+    }
+}
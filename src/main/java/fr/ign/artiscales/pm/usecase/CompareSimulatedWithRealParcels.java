@@ -81,7 +81,7 @@ public class CompareSimulatedWithRealParcels extends UseCase {
         PMStep.setParcel(parcelRefFile);
         PMStep.setPOLYGONINTERSECTION(null);
         // we proceed with an analysis made for each steps
-        PMStep.flushCachePlacesSimulates();
+        pm.flushCachePlacesSimulates();
         MarkParcelAttributeFromPosition.setPostMark(true);
 
         // specially analyze the parcels that have been reshaped by the densification algorihtm
@@ -91,19 +91,19 @@ public class CompareSimulatedWithRealParcelsOM {
     public static void setProcess(int processNb) {
         switch (processNb) {
             case 0:
-                Workflow.PROCESS = DivisionType.SSoffset;
+                Workflow.setProcess(DivisionType.SSoffset);
                 break;
             case 1:
-                Workflow.PROCESS = DivisionType.SS;
+                Workflow.setProcess(DivisionType.SS);
                 break;
             case 2:
-                Workflow.PROCESS = DivisionType.OBBThenSS;
+                Workflow.setProcess(DivisionType.OBBThenSS);
                 break;
             case 3:
-                Workflow.PROCESS = DivisionType.OBB;
+                Workflow.setProcess(DivisionType.OBB);
                 break;
             case 4:
-                Workflow.PROCESS = DivisionType.FlagDivision;
+                Workflow.setProcess(DivisionType.FlagDivision);
                 break;
             default:
                 throw new IllegalArgumentException("setProcess : not supposed to have upper values");
@@ -120,7 +120,7 @@ public class CompareSimulatedWithRealParcelsOM {
         List<Integer> listId = Arrays.asList(0, 12);
         int i = 0;
         for (String[] line : r.readAll()) {
-            Workflow.PROCESS = DivisionType.valueOf(process);
+            Workflow.setProcess(DivisionType.valueOf(process));
             CollecMgmt.exportSFC((new ZoneDivision()).zoneDivision(zoneFile, parcelFile, outFolder, new ProfileUrbanFabric(firstLine, line), roadFile, buildingFile),
                     new File(outFolder, i++ + CsvTransformation.makeLine(listId, line)));
 
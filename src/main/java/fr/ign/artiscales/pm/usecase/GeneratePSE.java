@@ -33,7 +33,7 @@ public class GeneratePSE {
         DataStore parcelDS = CollecMgmt.getDataStore(parcelFile);
         SimpleFeatureCollection parcel = parcelDS.getFeatureSource(parcelDS.getTypeNames()[0]).getFeatures();
         int i = 0;
-        Workflow.PROCESS = DivisionType.valueOf(process);
+        Workflow.setProcess(DivisionType.valueOf(process));
         for (String[] line : r.readAll()) {
             ProfileUrbanFabric p = new ProfileUrbanFabric(firstLine, line);
             setFixParameters(DivisionType.valueOf(process), p);
@@ -3,7 +3,7 @@ package fr.ign.artiscales.pm.usecase;
 import fr.ign.artiscales.pm.division.Division;
 import fr.ign.artiscales.pm.division.OBBDivision;
 import fr.ign.artiscales.pm.parcel.SyntheticParcel;
-import fr.ign.artiscales.pm.parcelFunction.ParcelState;
+import fr.ign.artiscales.pm.parcelFunction.ParcelAdjacencyGraph;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Lines;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.geom.Polygons;
 import fr.ign.artiscales.tools.indicator.Dispertion;
@@ -57,9 +57,12 @@ public class GenerateSyntheticParcel {
             lP.remove(lP.stream().filter(p -> p.getArea() == subRegion.getArea()).findFirst().get());
             regionIDS.put(i++, subRegion);
             List<SyntheticParcel> lSPsubregion = new ArrayList<>();
-            for (Polygon p : lP)
-                lSPsubregion.add(new SyntheticParcel(p, p.getArea(), p.distance(iniZone.getCentroid()), ParcelState.countParcelNeighborhood(p, lP), 0,
+            ParcelAdjacencyGraph graph = new ParcelAdjacencyGraph(lP);
+            for (int j = 0; j < lP.size(); j++) {
+                Polygon p = lP.get(j);
+                lSPsubregion.add(new SyntheticParcel(p, p.getArea(), p.distance(iniZone.getCentroid()), graph.getDegree(j), 0,
                         regionIDS.keySet().stream().filter(regionID -> regionIDS.get(regionID).buffer(1).contains(p)).findFirst().get()));
+            }
 
             // initialize parcel ownership : everybody must and will have at least a parcel in every subregion
             if (!initializeOwnership(lSPsubregion, nbOwner))
@@ -85,8 +88,7 @@ public class GenerateSyntheticParcel {
         }
 
         //set parcel neighborhood number
-        for (SyntheticParcel sp : lSP)
-            sp.setIdNeighborhood(lSP);
+        SyntheticParcel.setIdNeighborhoods(lSP);
 
         // not really needed infos
         if (DEBUG)
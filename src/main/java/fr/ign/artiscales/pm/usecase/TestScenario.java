@@ -59,19 +59,19 @@ public class TestScenario extends UseCase {
 //        for (int i = 3; i <= 3; i++) {
 //          multiple process calculation
             String ext = "offset";
-            Workflow.PROCESS = DivisionType.SSoffset;
+            Workflow.setProcess(DivisionType.SSoffset);
             if (i == 1) {
-                Workflow.PROCESS = DivisionType.SS;
+                Workflow.setProcess(DivisionType.SS);
                 ext = "StraightSkeletonPeripheralRoad";
             } else if (i == 2) {
-                Workflow.PROCESS = DivisionType.SS;
+                Workflow.setProcess(DivisionType.SS);
                 ext = "StraightSkeleton";
                 StraightSkeletonDivision.setGeneratePeripheralRoad(false);
             } else if (i == 3) {
-                Workflow.PROCESS = DivisionType.OBB;
+                Workflow.setProcess(DivisionType.OBB);
                 ext = "OBB";
             } else if (i == 4) {
-                Workflow.PROCESS = DivisionType.OBBThenSS;
+                Workflow.setProcess(DivisionType.OBBThenSS);
                 ext = "OBBThenSS";
             }
             System.out.println("PROCESS: " + ext);
@@ -2,13 +2,17 @@ package fr.ign.artiscales.pm.workflow;
 
 import fr.ign.artiscales.pm.division.DivisionType;
 import fr.ign.artiscales.pm.division.FlagDivision;
+import fr.ign.artiscales.pm.division.NearestRoadIndex;
 import fr.ign.artiscales.pm.division.OBBDivision;
 import fr.ign.artiscales.pm.division.OBBThenSS;
 import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
+import fr.ign.artiscales.pm.metrics.Metrics;
+import fr.ign.artiscales.pm.parcelFunction.BuildingIndex;
+import fr.ign.artiscales.pm.parcelFunction.FeatureIndex;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
+import fr.ign.artiscales.pm.parcelFunction.ParcelAttributeTransfer;
 import fr.ign.artiscales.pm.parcelFunction.ParcelCollection;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -19,13 +23,11 @@ import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LineString;
 import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.filter.FilterFactory2;
 
 import java.io.File;
 import java.io.IOException;
@@ -72,7 +74,7 @@ public class ConsolidationDivision extends Workflow {
                     CollecTransform.getIntersectingFieldFromSFC(multiGeom.getGeometryN(i), parcels, ParcelSchema.getParcelCommunityField()));
             sfBuilder.set(ParcelSchema.getParcelNumberField(), "0");
             sfBuilder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), 1);
-            mergedParcels.add(sfBuilder.buildFeature(Attribute.makeUniqueId()));
+            mergedParcels.add(sfBuilder.buildFeature(ParcelSchema.makeUniqueId()));
         }
         return mergedParcels;
     }
@@ -103,6 +105,7 @@ public class ConsolidationDivision extends Workflow {
      * @throws IOException Writing files in debug modes
      */
     public SimpleFeatureCollection consolidationDivision(SimpleFeatureCollection parcels, File roadFile, File buildingFile, List<LineString> extLines, Geometry exclusionZone, File outFolder, ProfileUrbanFabric profile) throws IOException {
+        long start = Metrics.start();
         if (!CollecMgmt.isCollecContainsAttribute(parcels, MarkParcelAttributeFromPosition.getMarkFieldName())) {
             if (isDEBUG())
                 System.out.println("consolidationDivision: no marking (" + MarkParcelAttributeFromPosition.getMarkFieldName() + ") field/");
@@ -149,21 +152,18 @@ public class ConsolidationDivision extends Workflow {
         ////////////////
         // third step : cut the parcels
         ////////////////
-        SimpleFeatureCollection roads;
-        if (roadFile != null && roadFile.exists()) {
-            DataStore dsRoad = CollecMgmt.getDataStore(roadFile);
-            roads = DataUtilities.collection(CollecTransform.selectIntersection(dsRoad.getFeatureSource(dsRoad.getTypeNames()[0]).getFeatures(), Geom.safeUnion(mergedParcels).buffer(30)));
-            if (isDEBUG())
-                CollecMgmt.exportSFC(roads, new File(tmpFolder, "roads"));
-            dsRoad.dispose();
-        } else
-            roads = null;
+        // roads, buildings and blocks are loaded once and reused for every merged parcel
+        ConsolidationLayers layers = new ConsolidationLayers(roadFile, getProcess() == DivisionType.FlagDivision ? buildingFile : null,
+                CityGeneration.createUrbanBlock(parcels), mergedParcels);
+        SimpleFeatureCollection roads = layers.roads;
+        if (isDEBUG() && roads != null)
+            CollecMgmt.exportSFC(roads, new File(tmpFolder, "roads"));
+        NearestRoadIndex roadIndex = getProcess() == DivisionType.SS || getProcess() == DivisionType.SSoffset ? new NearestRoadIndex(roads, "NOM_VOIE_G", "IMPORTANCE") : null;
 
         //setting final schema. If no split field at first, we don't add it in the final collection.
         SimpleFeatureBuilder sfBuilderFinalParcel = ParcelSchema.getSFBWithoutSplit(parcels.getSchema());
 
-        SimpleFeatureCollection blockCollection = CityGeneration.createUrbanBlock(parcels);
-        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+        ParcelAttributeTransfer attributeTransfer = new ParcelAttributeTransfer(parcels);
         SimpleFeatureCollection result = new DefaultFeatureCollection();
         try (SimpleFeatureIterator itInitialParcel = mergedParcels.features()) {
             while (itInitialParcel.hasNext()) {
@@ -172,34 +172,33 @@ public class ConsolidationDivision extends Workflow {
                 if (((Geometry) feat.getDefaultGeometry()).getArea() > profile.getMaximalArea()) { // Parcel big enough, we cut it
                     try {
                         SimpleFeatureCollection freshCutParcel = new DefaultFeatureCollection();
-                        switch (PROCESS) {
+                        switch (getProcess()) {
                             case OBB:
                                 freshCutParcel = OBBDivision.splitParcel(feat,
                                         roads == null || roads.isEmpty() ? null : CollecTransform.selectIntersection(roads, ((Geometry) feat.getDefaultGeometry()).buffer(profile.getMaxDistanceForNearestRoad())),
                                         profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
-                                        CollecTransform.fromPolygonSFCtoListRingLines(blockCollection.subCollection(ff.bbox(ff.property(feat.getFeatureType().getGeometryDescriptor().getLocalName()), feat.getBounds()))),
+                                        layers.getBlockLines((Geometry) feat.getDefaultGeometry()),
                                         profile.getLaneWidth(), profile.getStreetLane(), profile.getStreetWidth(), true, profile.getBlockShape());
                                 break;
                             case SS:
                             case SSoffset:
-                                StraightSkeletonDivision.FOLDER_OUT_DEBUG = tmpFolder;
-                                freshCutParcel = StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(feat, roads, "NOM_VOIE_G", "IMPORTANCE", PROCESS.equals(DivisionType.SSoffset) ? profile.getMaxDepth() : 0,
+                                StraightSkeletonDivision.setFolderOutDebug(tmpFolder);
+                                freshCutParcel = StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(feat, roadIndex, "NOM_VOIE_G", "IMPORTANCE", getProcess().equals(DivisionType.SSoffset) ? profile.getMaxDepth() : 0,
                                         profile.getMaxDistanceForNearestRoad(), profile.getMinimalArea(), profile.getMinimalWidthContactRoad(), profile.getMaxWidth(),
                                         (profile.getIrregularityCoeff() == 0) ? 0.1 : profile.getIrregularityCoeff(), profile.getLaneWidth(), ParcelSchema.getParcelID(feat));
                                 break;
                             case OBBThenSS:
                                 freshCutParcel = OBBThenSS.applyOBBThenSS(feat,
                                         roads == null || roads.isEmpty() ? null : CollecTransform.selectIntersection(roads, ((Geometry) feat.getDefaultGeometry()).buffer(profile.getMaxDistanceForNearestRoad())),
-                                        profile, CollecTransform.fromPolygonSFCtoListRingLines(blockCollection.subCollection(ff.bbox(ff.property(feat.getFeatureType().getGeometryDescriptor().getLocalName()), feat.getBounds()))));
+                                        profile, layers.getBlockLines((Geometry) feat.getDefaultGeometry()));
                                 break;
                             case FlagDivision:
-                                if (buildingFile != null && buildingFile.exists()) {
+                                if (layers.buildings != null)
+                                    // the flag division selects the buildings closer than 30 meters
+                                    freshCutParcel = FlagDivision.doFlagDivision(feat, roads, layers.buildings.selectAround((Geometry) feat.getDefaultGeometry(), 30), profile.getHarmonyCoeff(),
+                                            profile.getIrregularityCoeff(), profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getDrivewayWidth(), extLines, exclusionZone);
+                                else
                                     System.out.println("ConsolidationDivision Critic error : cannot use FlagDivision process without building set");
-                                    DataStore dsBuilding = CollecMgmt.getDataStore(buildingFile);
-                                    freshCutParcel = FlagDivision.doFlagDivision(feat, roads, dsBuilding.getFeatureSource(dsBuilding.getTypeNames()[0]).getFeatures(), profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
-                                            profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getDrivewayWidth(), extLines, exclusionZone);
-                                    dsBuilding.dispose();
-                                }
                                 break;
                         }
                         if (!freshCutParcel.isEmpty() && freshCutParcel.size() > 0) {
@@ -207,12 +206,12 @@ public class ConsolidationDivision extends Workflow {
                                 // every single parcel goes into new collection
                                 while (it.hasNext()) {
                                     SimpleFeature freshCut = it.next();
-                                    Schemas.setFieldsToSFB(sfBuilderFinalParcel, CollecTransform.selectWhichIntersectMost(parcels, (Geometry) freshCut.getDefaultGeometry()));
+                                    Schemas.setFieldsToSFB(sfBuilderFinalParcel, attributeTransfer.getParcelWhichIntersectMost((Geometry) freshCut.getDefaultGeometry()));
                                     sfBuilderFinalParcel.set(CollecMgmt.getDefaultGeomName(), freshCut.getDefaultGeometry());
                                     sfBuilderFinalParcel.set(ParcelSchema.getParcelSectionField(), makeNewSection((String) feat.getAttribute(ParcelSchema.getParcelSectionField())));
                                     sfBuilderFinalParcel.set(ParcelSchema.getParcelNumberField(), String.valueOf(i++));
                                     sfBuilderFinalParcel.set(ParcelSchema.getParcelCommunityField(), feat.getAttribute(ParcelSchema.getParcelCommunityField()));
-                                    ((DefaultFeatureCollection) result).add(sfBuilderFinalParcel.buildFeature(Attribute.makeUniqueId()));
+                                    ((DefaultFeatureCollection) result).add(sfBuilderFinalParcel.buildFeature(ParcelSchema.makeUniqueId()));
                                 }
                             }
                         }
@@ -220,20 +219,22 @@ public class ConsolidationDivision extends Workflow {
                         e.printStackTrace();
                     }
                 } else {// parcel not big enough, we directly put it in the collection
-                    Schemas.setFieldsToSFB(sfBuilderFinalParcel, CollecTransform.selectWhichIntersectMost(parcels, (Geometry) feat.getDefaultGeometry()));
+                    Schemas.setFieldsToSFB(sfBuilderFinalParcel, attributeTransfer.getParcelWhichIntersectMost((Geometry) feat.getDefaultGeometry()));
                     sfBuilderFinalParcel.set(CollecMgmt.getDefaultGeomName(), feat.getDefaultGeometry());
                     sfBuilderFinalParcel.set(ParcelSchema.getParcelSectionField(), makeNewSection((String) feat.getAttribute(ParcelSchema.getParcelSectionField())));
                     sfBuilderFinalParcel.set(ParcelSchema.getParcelNumberField(), String.valueOf(i));
                     sfBuilderFinalParcel.set(ParcelSchema.getParcelCommunityField(), feat.getAttribute(ParcelSchema.getParcelCommunityField()));
-                    ((DefaultFeatureCollection) result).add(sfBuilderFinalParcel.buildFeature(Attribute.makeUniqueId()));
+                    ((DefaultFeatureCollection) result).add(sfBuilderFinalParcel.buildFeature(ParcelSchema.makeUniqueId()));
                 }
             }
         }
         // merge small parcels
-        result = ParcelCollection.mergeTooSmallParcels(result, (int) profile.getMinimalArea(), PROCESS.equals(DivisionType.SS));
+        result = ParcelCollection.mergeTooSmallParcels(result, (int) profile.getMinimalArea(), getProcess().equals(DivisionType.SS));
 
-        if (result.isEmpty())
+        if (result.isEmpty()) {
+            Metrics.stop("ConsolidationDivision.consolidationDivision", start);
             return ParcelCollection.getParcelWithoutSplitField(parcels);
+        }
         if (isSAVEINTERMEDIATERESULT()) {
             CollecMgmt.exportSFC(result, new File(outFolder, "parcelConsolidationOnly"), OVERWRITEGEOPACKAGE);
             OVERWRITEGEOPACKAGE = false;
@@ -242,13 +243,14 @@ public class ConsolidationDivision extends Workflow {
         try (SimpleFeatureIterator it = parcelSaved.features()) {
             while (it.hasNext()) {
                 Schemas.setFieldsToSFB(sfBuilderFinalParcel, it.next());
-                ((DefaultFeatureCollection) result).add(sfBuilderFinalParcel.buildFeature(Attribute.makeUniqueId()));
+                ((DefaultFeatureCollection) result).add(sfBuilderFinalParcel.buildFeature(ParcelSchema.makeUniqueId()));
             }
         }
         if (isDEBUG()) {
             CollecMgmt.exportSFC(result, new File(tmpFolder, "step3"));
             System.out.println("done step 3");
         }
+        Metrics.stop("ConsolidationDivision.consolidationDivision", start);
         return result;
     }
 
@@ -272,4 +274,48 @@ public class ConsolidationDivision extends Workflow {
         String section = (String) feat.getAttribute(ParcelSchema.getParcelSectionField());
         return section.startsWith("newSection") && section.endsWith("ConsolidationDivision");
     }
+
+    /**
+     * Layers shared by every merged parcel of a consolidation run. They are read once: roads are loaded in memory (only around the merged parcels), buildings are indexed in a
+     * {@link BuildingIndex} and the morphological blocks are indexed in a {@link FeatureIndex} to get the block lines around a parcel without filtering the whole block collection.
+     */
+    private static class ConsolidationLayers {
+        /**
+         * Roads around the merged parcels. Null if no road file is given.
+         */
+        final SimpleFeatureCollection roads;
+        /**
+         * Buildings. Null if no building file is given or if they are not needed.
+         */
+        final BuildingIndex buildings;
+        private final FeatureIndex blocks;
+
+        ConsolidationLayers(File roadFile, File buildingFile, SimpleFeatureCollection blockCollection, SimpleFeatureCollection mergedParcels) throws IOException {
+            if (roadFile != null && roadFile.exists()) {
+                DataStore dsRoad = CollecMgmt.getDataStore(roadFile);
+                roads = DataUtilities.collection(CollecTransform.selectIntersection(dsRoad.getFeatureSource(dsRoad.getTypeNames()[0]).getFeatures(), Geom.safeUnion(mergedParcels).buffer(30)));
+                dsRoad.dispose();
+            } else
+                roads = null;
+            if (buildingFile != null && buildingFile.exists()) {
+                DataStore dsBuilding = CollecMgmt.getDataStore(buildingFile);
+                buildings = new BuildingIndex(dsBuilding.getFeatureSource(dsBuilding.getTypeNames()[0]).getFeatures());
+                dsBuilding.dispose();
+            } else
+                buildings = null;
+            blocks = new FeatureIndex(blockCollection);
+        }
+
+        /**
+         * Get the ring lines of the blocks whose envelope intersects the envelope of a geometry.
+         *
+         * @param geom geometry of a merged parcel
+         * @return the lines of the surrounding blocks
+         */
+        List<LineString> getBlockLines(Geometry geom) {
+            DefaultFeatureCollection selection = new DefaultFeatureCollection();
+            selection.addAll(blocks.query(geom.getEnvelopeInternal()));
+            return CollecTransform.fromPolygonSFCtoListRingLines(selection);
+        }
+    }
 }
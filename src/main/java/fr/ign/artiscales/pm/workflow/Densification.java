@@ -1,12 +1,15 @@
 package fr.ign.artiscales.pm.workflow;
 
+import fr.ign.artiscales.pm.division.Division;
 import fr.ign.artiscales.pm.division.FlagDivision;
 import fr.ign.artiscales.pm.division.OBBDivision;
 import fr.ign.artiscales.pm.fields.GeneralFields;
+import fr.ign.artiscales.pm.metrics.Metrics;
+import fr.ign.artiscales.pm.parcelFunction.BuildingIndex;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
 import fr.ign.artiscales.pm.parcelFunction.ParcelState;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -22,11 +25,22 @@ import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LineString;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.FilterFactory2;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Simulation following that workflow divides parcels to ensure that they could be densified. The
@@ -40,6 +54,10 @@ import java.util.List;
 public class Densification extends Workflow {
 
     static double uncountedBuildingArea = 20;
+    /**
+     * Number of parcels densified concurrently
+     */
+    private static int parallelism = 1;
 
     public Densification() {
     }
@@ -108,6 +126,7 @@ public class Densification extends Workflow {
     public SimpleFeatureCollection densification(SimpleFeatureCollection parcelCollection, SimpleFeatureCollection blockCollection, File outFolder,
                                                  File buildingFile, File roadFile, double harmonyCoeff, double irregularityCoeff, double maximalArea, double minimalArea,
                                                  double minContactWithRoad, double lenDriveway, boolean allowIsolatedParcel, Geometry exclusionZone) throws IOException {
+        long start = Metrics.start();
         // if parcels doesn't contains the markParcelAttribute field or have no marked parcels
         if (MarkParcelAttributeFromPosition.isNoParcelMarked(parcelCollection)) {
             System.out.println("Densification : unmarked parcels");
@@ -116,137 +135,167 @@ public class Densification extends Workflow {
         checkFields(parcelCollection.getSchema());
         // preparation of the builder and empty collections
         final String geomName = parcelCollection.getSchema().getGeometryDescriptor().getLocalName();
-        FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
         DefaultFeatureCollection onlyCutedParcels = new DefaultFeatureCollection();
         DefaultFeatureCollection resultParcels = new DefaultFeatureCollection();
-        SimpleFeatureBuilder sFBParcel = ParcelSchema.getSFBWithoutSplit(parcelCollection.getSchema());
-        DataStore roadDS = null;
+        SimpleFeatureType finalType = ParcelSchema.getSFBWithoutSplit(parcelCollection.getSchema()).getFeatureType();
+        // roads and buildings are loaded in memory once, to be read concurrently and without a file scan per parcel
         SimpleFeatureCollection road = null;
         if (roadFile != null) {
-            roadDS = CollecMgmt.getDataStore(roadFile);
-            road = roadDS.getFeatureSource(roadDS.getTypeNames()[0]).getFeatures();
+            DataStore roadDS = CollecMgmt.getDataStore(roadFile);
+            road = DataUtilities.collection(roadDS.getFeatureSource(roadDS.getTypeNames()[0]).getFeatures());
+            roadDS.dispose();
         }
         DataStore buildingDS = CollecMgmt.getDataStore(buildingFile);
-        SimpleFeatureCollection building = buildingDS.getFeatureSource(buildingDS.getTypeNames()[0]).getFeatures();
-        try (SimpleFeatureIterator iterator = parcelCollection.features()) {
-            while (iterator.hasNext()) {
-                SimpleFeature initialParcel = iterator.next();
-                // if the parcel is selected for the simulation and bigger than the limit size
-                if (initialParcel.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) != null
-                        && initialParcel.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()).equals(1)
-                        && ((Geometry) initialParcel.getDefaultGeometry()).getArea() > maximalArea) {
-                    List<LineString> lines = CollecTransform.fromPolygonSFCtoListRingLines(blockCollection.subCollection(ff.bbox(ff.property(initialParcel.getFeatureType().getGeometryDescriptor().getLocalName()), initialParcel.getBounds())));
-                    // we get the needed block lines
-                    // we flag cut the parcel (differently regarding whether they have optional data or not)
-                    SimpleFeatureCollection unsortedFlagParcel = FlagDivision.doFlagDivision(initialParcel, road, building, harmonyCoeff, irregularityCoeff, maximalArea, minContactWithRoad, lenDriveway, lines, exclusionZone);
-                    // we check if the cut parcels are meeting the expectations
-                    boolean add = true;
-                    // If it returned a collection of 1, it was impossible to flag split the parcel. If allowed, we cut the parcel with regular OBB
-                    if (unsortedFlagParcel.size() == 1)
-                        if (allowIsolatedParcel)
-                            unsortedFlagParcel = OBBDivision.splitParcels(initialParcel, maximalArea, minContactWithRoad, 0.5, irregularityCoeff, lines, 0, true, 99);
-                        else
-                            add = false;
-                    // If the flag cut parcel size is too small, we won't add anything
-                    try (SimpleFeatureIterator parcelIt = unsortedFlagParcel.features()) {
-                        while (parcelIt.hasNext())
-                            if (((Geometry) parcelIt.next().getDefaultGeometry()).getArea() < minimalArea) {
-                                add = false;
-                                break;
-                            }
-                    } catch (Exception problem) {
-                        System.out.println("problem" + problem + "for " + initialParcel + " feature densification");
-                        problem.printStackTrace();
+        BuildingIndex buildings = new BuildingIndex(buildingDS.getFeatureSource(buildingDS.getTypeNames()[0]).getFeatures());
+        buildingDS.dispose();
+        SimpleFeature[] parcels = parcelCollection.toArray(new SimpleFeature[0]);
+        final SimpleFeatureCollection roads = road;
+        List<List<SimpleFeature>> densifiedParcels;
+        int parallelism = getParallelism();
+        if (parallelism <= 1 || parcels.length < 2 || isDEBUG()) {
+            densifiedParcels = new ArrayList<>(parcels.length);
+            for (SimpleFeature initialParcel : parcels)
+                densifiedParcels.add(densifyParcel(initialParcel, blockCollection, roads, buildings, finalType, geomName, harmonyCoeff, irregularityCoeff, maximalArea,
+                        minimalArea, minContactWithRoad, lenDriveway, allowIsolatedParcel, exclusionZone));
+        } else {
+            // each parcel gets its own random stream, so the result doesn't depend on the execution order
+            Map<String, Integer> occurrences = new HashMap<>();
+            long[] seeds = new long[parcels.length];
+            for (int i = 0; i < parcels.length; i++)
+                seeds[i] = Division.streamSeed(Division.streamKey(parcels[i], occurrences));
+            // the context isn't inherited by the workers
+            SimulationContext ctx = SimulationContext.current();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                densifiedParcels = pool.submit(() -> IntStream.range(0, parcels.length).parallel()
+                        .mapToObj(i -> SimulationContext.callWith(ctx, () -> Division.withRandom(seeds[i], () -> densifyParcel(parcels[i], blockCollection, roads, buildings,
+                                finalType, geomName, harmonyCoeff, irregularityCoeff, maximalArea, minimalArea, minContactWithRoad, lenDriveway, allowIsolatedParcel, exclusionZone))))
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException(e);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        // results are merged in the order of the input parcels
+        SimpleFeatureBuilder sFBParcel = new SimpleFeatureBuilder(finalType);
+        for (int i = 0; i < parcels.length; i++) {
+            List<SimpleFeature> cutParcels = densifiedParcels.get(i);
+            if (cutParcels == null) { // if no simulation needed or possible, we add the normal parcel
+                Schemas.setFieldsToSFB(sFBParcel, parcels[i]);
+                resultParcels.add(sFBParcel.buildFeature(ParcelSchema.makeUniqueId()));
+            } else {
+                resultParcels.addAll(cutParcels);
+                if (isSAVEINTERMEDIATERESULT())
+                    onlyCutedParcels.addAll(cutParcels);
+            }
+        }
+        if (isSAVEINTERMEDIATERESULT()) {
+            CollecMgmt.exportSFC(onlyCutedParcels, new File(outFolder, "parcelDensificationOnly"), OVERWRITEGEOPACKAGE);
+            OVERWRITEGEOPACKAGE = false;
+        }
+        Metrics.stop("Densification.densification", start);
+        return resultParcels.collection();
+    }
+
+    /**
+     * Densify a single parcel. See {@link #densification(SimpleFeatureCollection, SimpleFeatureCollection, File, File, File, double, double, double, double, double, double, boolean, Geometry)}.
+     *
+     * @return the simulated parcels, or null if the parcel isn't simulated or if its densification is impossible
+     */
+    private List<SimpleFeature> densifyParcel(SimpleFeature initialParcel, SimpleFeatureCollection blockCollection, SimpleFeatureCollection road, BuildingIndex buildings,
+                                              SimpleFeatureType finalType, String geomName, double harmonyCoeff, double irregularityCoeff, double maximalArea,
+                                              double minimalArea, double minContactWithRoad, double lenDriveway, boolean allowIsolatedParcel, Geometry exclusionZone) {
+        // if the parcel is selected for the simulation and bigger than the limit size
+        if (initialParcel.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()) == null
+                || !initialParcel.getAttribute(MarkParcelAttributeFromPosition.getMarkFieldName()).equals(1)
+                || ((Geometry) initialParcel.getDefaultGeometry()).getArea() <= maximalArea)
+            return null;
+        try {
+            FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+            // we get the needed block lines
+            List<LineString> lines = CollecTransform.fromPolygonSFCtoListRingLines(blockCollection.subCollection(ff.bbox(ff.property(initialParcel.getFeatureType().getGeometryDescriptor().getLocalName()), initialParcel.getBounds())));
+            // we flag cut the parcel (differently regarding whether they have optional data or not). The flag division selects the buildings closer than 30 meters.
+            SimpleFeatureCollection unsortedFlagParcel = FlagDivision.doFlagDivision(initialParcel, road, buildings.selectAround((Geometry) initialParcel.getDefaultGeometry(), 30),
+                    harmonyCoeff, irregularityCoeff, maximalArea, minContactWithRoad, lenDriveway, lines, exclusionZone);
+            // If it returned a collection of 1, it was impossible to flag split the parcel. If allowed, we cut the parcel with regular OBB
+            if (unsortedFlagParcel.size() == 1)
+                if (allowIsolatedParcel)
+                    unsortedFlagParcel = OBBDivision.splitParcels(initialParcel, maximalArea, minContactWithRoad, 0.5, irregularityCoeff, lines, 0, true, 99);
+                else
+                    return null;
+            // If the flag cut parcel size is too small, we won't add anything
+            try (SimpleFeatureIterator parcelIt = unsortedFlagParcel.features()) {
+                while (parcelIt.hasNext())
+                    if (((Geometry) parcelIt.next().getDefaultGeometry()).getArea() < minimalArea)
+                        return null;
+            } catch (Exception problem) {
+                System.out.println("problem" + problem + "for " + initialParcel + " feature densification");
+                problem.printStackTrace();
+            }
+            // We check existing buildings are constructed across two cut parcels. If true, me merge those parcels together
+            DefaultFeatureCollection toMerge = new DefaultFeatureCollection();
+            Set<SimpleFeature> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+            try (SimpleFeatureIterator parcelIt = unsortedFlagParcel.features()) {
+                while (parcelIt.hasNext()) {
+                    SimpleFeature parcel = parcelIt.next();
+                    if (ParcelState.isAlreadyBuilt(buildings.selectIntersection((Geometry) parcel.getDefaultGeometry()), parcel, -1, uncountedBuildingArea)) { // parcel is built, we try to merge
+                        toMerge.add(parcel);
+                        merged.add(parcel);
                     }
-                    if (add) { // We check existing buildings are constructed across two cut parcels. If true, me merge those parcels together
-                        DefaultFeatureCollection toMerge = new DefaultFeatureCollection();
-                        try (SimpleFeatureIterator parcelIt = unsortedFlagParcel.features()) {
-                            while (parcelIt.hasNext()) {
-                                SimpleFeature parcel = parcelIt.next();
-                                if (ParcelState.isAlreadyBuilt(CollecTransform.selectIntersection(building, parcel), parcel, -1, uncountedBuildingArea)) // parcel is built, we try to merge
-                                    toMerge.add(parcel);
-                            }
-                        } catch (Exception problem) {
-                            problem.printStackTrace();
-                        }
-                        // if buildings are present on every cut parts of the parcel, we cancel densification
-                        if (toMerge.size() == unsortedFlagParcel.size())
-                            add = false;
-                        else if (toMerge.size() > 1) { // merge the parcel that are built upon a building (we assume that it must be the same building)
-                            // tmp save the collection of output parcels
-                            DefaultFeatureCollection tmpUnsortedFlagParcel = new DefaultFeatureCollection(unsortedFlagParcel);
-                            unsortedFlagParcel = new DefaultFeatureCollection();
-                            // we add the merged parcels
-                            SimpleFeatureBuilder builder = Schemas.getSFBSchemaWithMultiPolygon(toMerge.getSchema());
-                            builder.set(toMerge.getSchema().getGeometryDescriptor().getLocalName(), Geom.safeUnion(toMerge).buffer(0.1).buffer(-0.1));
-                            ((DefaultFeatureCollection) unsortedFlagParcel).add(builder.buildFeature(Attribute.makeUniqueId()));
-                            // we check if the flag cut parcels have been merged or if they need to be put on the new collection
-                            try (SimpleFeatureIterator parcelIt = tmpUnsortedFlagParcel.features()) {
-                                while (parcelIt.hasNext()) {
-                                    SimpleFeature parcel = parcelIt.next();
-                                    boolean complete = true;
-                                    // we now iterate on the parcel that we have merged
-                                    try (SimpleFeatureIterator parcelIt2 = toMerge.features()) {
-                                        while (parcelIt2.hasNext())
-                                            // if the initial parcel has been merged, we don't add it to the new collection
-                                            if (parcel.getDefaultGeometry().equals(parcelIt2.next().getDefaultGeometry())) {
-                                                complete = false;
-                                                break;
-                                            }
-                                    } catch (Exception problem) {
-                                        problem.printStackTrace();
-                                    }
-                                    // if at least one parcel is unbuilt, then the decomposition is not in vain
-                                    if (complete) {
-                                        Schemas.setFieldsToSFB(builder, parcel);
-                                        ((DefaultFeatureCollection) unsortedFlagParcel).add(builder.buildFeature(Attribute.makeUniqueId()));
-                                    }
-                                }
-                            } catch (Exception problem) {
-                                problem.printStackTrace();
-                            }
+                }
+            } catch (Exception problem) {
+                problem.printStackTrace();
+            }
+            // if buildings are present on every cut parts of the parcel, we cancel densification
+            if (toMerge.size() == unsortedFlagParcel.size())
+                return null;
+            else if (toMerge.size() > 1) { // merge the parcel that are built upon a building (we assume that it must be the same building)
+                // tmp save the collection of output parcels
+                DefaultFeatureCollection tmpUnsortedFlagParcel = new DefaultFeatureCollection(unsortedFlagParcel);
+                unsortedFlagParcel = new DefaultFeatureCollection();
+                // we add the merged parcels
+                SimpleFeatureBuilder builder = Schemas.getSFBSchemaWithMultiPolygon(toMerge.getSchema());
+                builder.set(toMerge.getSchema().getGeometryDescriptor().getLocalName(), Geom.safeUnion(toMerge).buffer(0.1).buffer(-0.1));
+                ((DefaultFeatureCollection) unsortedFlagParcel).add(builder.buildFeature(ParcelSchema.makeUniqueId()));
+                // the flag cut parcels that haven't been merged are put on the new collection
+                try (SimpleFeatureIterator parcelIt = tmpUnsortedFlagParcel.features()) {
+                    while (parcelIt.hasNext()) {
+                        SimpleFeature parcel = parcelIt.next();
+                        // if at least one parcel is unbuilt, then the decomposition is not in vain
+                        if (!merged.contains(parcel)) {
+                            Schemas.setFieldsToSFB(builder, parcel);
+                            ((DefaultFeatureCollection) unsortedFlagParcel).add(builder.buildFeature(ParcelSchema.makeUniqueId()));
                         }
                     }
-                    if (add) { // if we are okay to add parts : we construct the new parcels
-                        int i = 1;
-                        try (SimpleFeatureIterator parcelCutedIt = unsortedFlagParcel.features()) {
-                            while (parcelCutedIt.hasNext()) {
-                                Geometry pGeom = (Geometry) parcelCutedIt.next().getDefaultGeometry();
-                                for (int ii = 0; ii < pGeom.getNumGeometries(); ii++) {
-                                    Schemas.setFieldsToSFB(sFBParcel, initialParcel);
-                                    sFBParcel.set(geomName, pGeom.getGeometryN(ii));
-                                    sFBParcel.set(ParcelSchema.getParcelSectionField(), makeNewSection(initialParcel.getAttribute(ParcelSchema.getParcelSectionField()) + "-" + i++));
-                                    sFBParcel.set(ParcelSchema.getParcelNumberField(), initialParcel.getAttribute(ParcelSchema.getParcelNumberField() + "-" + i));
-                                    sFBParcel.set(ParcelSchema.getParcelCommunityField(), initialParcel.getAttribute(ParcelSchema.getParcelCommunityField()));
-                                    SimpleFeature cutedParcel = sFBParcel.buildFeature(Attribute.makeUniqueId());
-                                    resultParcels.add(cutedParcel);
-                                    if (isSAVEINTERMEDIATERESULT())
-                                        onlyCutedParcels.add(cutedParcel);
-                                }
-                            }
-                        } catch (Exception problem) {
-                            problem.printStackTrace();
-                        }
-                    } else {
+                } catch (Exception problem) {
+                    problem.printStackTrace();
+                }
+            }
+            // we are okay to add parts : we construct the new parcels
+            List<SimpleFeature> result = new ArrayList<>();
+            SimpleFeatureBuilder sFBParcel = new SimpleFeatureBuilder(finalType);
+            int i = 1;
+            try (SimpleFeatureIterator parcelCutedIt = unsortedFlagParcel.features()) {
+                while (parcelCutedIt.hasNext()) {
+                    Geometry pGeom = (Geometry) parcelCutedIt.next().getDefaultGeometry();
+                    for (int ii = 0; ii < pGeom.getNumGeometries(); ii++) {
                         Schemas.setFieldsToSFB(sFBParcel, initialParcel);
-                        resultParcels.add(sFBParcel.buildFeature(Attribute.makeUniqueId()));
+                        sFBParcel.set(geomName, pGeom.getGeometryN(ii));
+                        sFBParcel.set(ParcelSchema.getParcelSectionField(), makeNewSection(initialParcel.getAttribute(ParcelSchema.getParcelSectionField()) + "-" + i++));
+                        sFBParcel.set(ParcelSchema.getParcelNumberField(), initialParcel.getAttribute(ParcelSchema.getParcelNumberField() + "-" + i));
+                        sFBParcel.set(ParcelSchema.getParcelCommunityField(), initialParcel.getAttribute(ParcelSchema.getParcelCommunityField()));
+                        result.add(sFBParcel.buildFeature(ParcelSchema.makeUniqueId()));
                     }
-                } else {  // if no simulation needed, we add the normal parcel
-                    Schemas.setFieldsToSFB(sFBParcel, initialParcel);
-                    resultParcels.add(sFBParcel.buildFeature(Attribute.makeUniqueId()));
                 }
+            } catch (Exception problem) {
+                problem.printStackTrace();
             }
+            return result;
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
-        if (isSAVEINTERMEDIATERESULT()) {
-            CollecMgmt.exportSFC(onlyCutedParcels, new File(outFolder, "parcelDensificationOnly"), OVERWRITEGEOPACKAGE);
-            OVERWRITEGEOPACKAGE = false;
-        }
-        buildingDS.dispose();
-        if (roadFile != null)
-            roadDS.dispose();
-        return resultParcels.collection();
     }
 
     /**
@@ -399,6 +448,27 @@ public class Densification extends Workflow {
     }
 
 
+    /**
+     * Get the number of parcels densified concurrently.
+     *
+     * @return number of workers
+     */
+    public static int getParallelism() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getDensificationParallelism() : parallelism;
+    }
+
+    /**
+     * Set the number of parcels densified concurrently. Each parcel then gets its own random stream (see {@link Division#streamSeed(String)}). 1 by default, and ignored in
+     * debug mode. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param parallelism number of workers
+     */
+    public static void setParallelism(int parallelism) {
+        if (!SimulationContext.update(ctx -> ctx.withDensificationParallelism(parallelism)))
+            Densification.parallelism = parallelism;
+    }
+
     /**
      * Create a new section name following a precise rule.
      *
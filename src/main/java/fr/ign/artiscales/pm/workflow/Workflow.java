@@ -4,8 +4,8 @@ import fr.ign.artiscales.pm.division.Division;
 import fr.ign.artiscales.pm.division.DivisionType;
 import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
-import org.apache.commons.math3.random.MersenneTwister;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -14,14 +14,13 @@ import org.opengis.feature.simple.SimpleFeatureType;
  */
 public abstract class Workflow {
     /**
-     * The process used to divide the parcels
+     * The process used to divide the parcels. Use {@link #getProcess()} to read it, as it can be overridden by a {@link SimulationContext}.
      */
-    public static DivisionType PROCESS = DivisionType.OBB;
+    private static DivisionType PROCESS = DivisionType.OBB;
     /**
      * If true, overwrite the output saved Geopackages. If false, append the simulated parcels to a potential already existing Geopackage.
      */
     public static boolean OVERWRITEGEOPACKAGE = true;
-    public static MersenneTwister random = new MersenneTwister();
     /**
      * If true, will save a Geopackage containing only the simulated parcels in the temporary folder.
      */
@@ -31,6 +30,26 @@ public abstract class Workflow {
      */
     private static boolean DEBUG = false;
 
+    /**
+     * Get the process used to divide the parcels. If a {@link SimulationContext} is bound to the current thread, its process is returned.
+     *
+     * @return the division process
+     */
+    public static DivisionType getProcess() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getProcess() : PROCESS;
+    }
+
+    /**
+     * Set the process used to divide the parcels. If a {@link SimulationContext} is bound to the current thread, only that context is changed.
+     *
+     * @param process the division process
+     */
+    public static void setProcess(DivisionType process) {
+        if (!SimulationContext.update(ctx -> ctx.withProcess(process)))
+            PROCESS = process;
+    }
+
     public static boolean isSAVEINTERMEDIATERESULT() {
         return SAVEINTERMEDIATERESULT;
     }
@@ -63,8 +82,12 @@ public abstract class Workflow {
             System.out.println("Parcel collection doesn't contain the needed Section Field.  Set a " + ParcelSchema.getParcelSectionField() + " field or change the default name");
     }
 
+    /**
+     * Set the global seed. Random streams of every parcel are derived from it (see {@link Division#streamSeed(String)}).
+     *
+     * @param seed global seed
+     */
     public static void setSeed(long seed) {
-        random = new MersenneTwister(seed);
         Division.setSeed(seed);
     }
 
@@ -1,16 +1,21 @@
 package fr.ign.artiscales.pm.workflow;
 
+import fr.ign.artiscales.pm.division.Division;
 import fr.ign.artiscales.pm.division.DivisionType;
 import fr.ign.artiscales.pm.division.FlagDivision;
+import fr.ign.artiscales.pm.division.NearestRoadIndex;
 import fr.ign.artiscales.pm.division.OBBDivision;
 import fr.ign.artiscales.pm.division.OBBThenSS;
 import fr.ign.artiscales.pm.division.StraightSkeletonDivision;
 import fr.ign.artiscales.pm.fields.GeneralFields;
+import fr.ign.artiscales.pm.metrics.Metrics;
+import fr.ign.artiscales.pm.parcelFunction.FeatureIndex;
 import fr.ign.artiscales.pm.parcelFunction.MarkParcelAttributeFromPosition;
+import fr.ign.artiscales.pm.parcelFunction.ParcelAttributeTransfer;
 import fr.ign.artiscales.pm.parcelFunction.ParcelCollection;
 import fr.ign.artiscales.pm.parcelFunction.ParcelSchema;
+import fr.ign.artiscales.pm.scenario.SimulationContext;
 import fr.ign.artiscales.tools.FeaturePolygonizer;
-import fr.ign.artiscales.tools.geoToolsFunctions.Attribute;
 import fr.ign.artiscales.tools.geoToolsFunctions.Schemas;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.Geom;
 import fr.ign.artiscales.tools.geoToolsFunctions.vectors.collec.CollecMgmt;
@@ -21,22 +26,42 @@ import fr.ign.artiscales.tools.geometryGeneration.CityGeneration;
 import fr.ign.artiscales.tools.parameter.ProfileUrbanFabric;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.precision.GeometryPrecisionReducer;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This workflow operates on a zone rather than on parcels. Zones can either be taken from a zoning plan or from a ready-to-use zone collection (which can be made out of parcels).
@@ -46,6 +71,14 @@ import java.util.stream.Collectors;
  * @author Maxime Colomb
  */
 public class ZoneDivision extends Workflow {
+    /**
+     * If true, the zones are prepared cluster by cluster (see {@link #setTiled(boolean)})
+     */
+    private static boolean tiled = false;
+    /**
+     * Number of clusters of zones prepared concurrently in tiled mode
+     */
+    private static int tileParallelism = 1;
 
     public ZoneDivision() {
     }
@@ -57,7 +90,7 @@ public class ZoneDivision extends Workflow {
 //        DataStore roadDS = CollecMgmt.getDataStore(new File(rootFolder, "InputData/road.gpkg"));
 //        File outFolder = new File("/tmp");
 //        setDEBUG(false);
-//        Workflow.PROCESS = DivisionType.OBBThenSS;
+//        Workflow.setProcess(DivisionType.OBBThenSS);
 //        SimpleFeatureCollection zone = createZoneToCut("AU", "AU1", zoningDS.getFeatureSource(zoningDS.getTypeNames()[0]).getFeatures(), parcelDS.getFeatureSource(parcelDS.getTypeNames()[0]).getFeatures());
 //        CollecMgmt.exportSFC(zone, new File(outFolder, "zone"));
 //        SimpleFeatureCollection z = new ZoneDivision().zoneDivision(zone, parcelDS.getFeatureSource(parcelDS.getTypeNames()[0]).getFeatures(), roadDS.getFeatureSource(roadDS.getTypeNames()[0]).getFeatures(), outFolder,
@@ -235,145 +268,71 @@ public class ZoneDivision extends Workflow {
      * @throws IOException from marking parcel
      */
     public SimpleFeatureCollection zoneDivision(SimpleFeatureCollection initialZone, SimpleFeatureCollection parcels, SimpleFeatureCollection roads, SimpleFeatureCollection buildings, File outFolder, ProfileUrbanFabric profile, boolean keepExistingRoads, List<LineString> extLines, Geometry exclusionZone) throws IOException {
+        long start = Metrics.start();
         File tmpFolder = new File(outFolder, "tmp");
         if (isDEBUG())
             tmpFolder.mkdirs();
         // parcel geometry name for all
         String geomName = parcels.getSchema().getGeometryDescriptor().getLocalName();
         checkFields(parcels.getSchema());
-        final Geometry geomZone = Geom.safeUnion(initialZone);
         //setting final schema. If no split field at first, we don't add it in the final collection.
         final SimpleFeatureBuilder finalParcelBuilder = Schemas.isSchemaContainsAttribute(parcels.getSchema(), MarkParcelAttributeFromPosition.getMarkFieldName()) ?
                 new SimpleFeatureBuilder(parcels.getSchema()) : ParcelSchema.getSFBWithoutSplit(parcels.getSchema());
-        // sort in two different collections, the ones that matters and the ones that will be saved for future purposes
-        DefaultFeatureCollection parcelsInZone = new DefaultFeatureCollection();
+        // zones are prepared either as a whole or cluster by cluster. Parts of parcel outside the zones must not be cut by the algorithm and keep their attributes
+        List<ZoneTile> tiles;
+        List<SimpleFeature> parcelList = Arrays.asList(parcels.toArray(new SimpleFeature[0]));
+        if (isTiled())
+            tiles = prepareTiles(initialZone, parcelList, geomName, keepExistingRoads, finalParcelBuilder.getFeatureType(), tmpFolder);
+        else {
+            final Geometry geomZone = Geom.safeUnion(initialZone);
+            // sort in two different collections, the ones that matters and the ones that will be saved for future purposes
+            List<SimpleFeature> parcelsInZone = parcelList.stream().filter(parcel -> ((Geometry) parcel.getDefaultGeometry()).intersects(geomZone)).collect(Collectors.toList());
+            List<SimpleFeature> zones = Arrays.asList(initialZone.toArray(new SimpleFeature[0]));
+            tiles = Collections.singletonList(prepareZones(zones, IntStream.range(0, zones.size()).boxed().collect(Collectors.toList()), parcelsInZone, parcels, geomName,
+                    keepExistingRoads, finalParcelBuilder.getFeatureType(), tmpFolder, ""));
+        }
+        // stitch the tiles. Zones are kept in their initial order
+        Set<SimpleFeature> parcelsInZone = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Pair<Integer, SimpleFeature>> zoneParts = new ArrayList<>();
+        for (ZoneTile tile : tiles) {
+            parcelsInZone.addAll(tile.parcelsInZone);
+            zoneParts.addAll(tile.zoneParts);
+        }
+        zoneParts.sort(Comparator.comparing(Pair::getLeft));
+        // a list collection keeps the zones in that order (a default collection would iterate them in the order of their IDs)
+        ListFeatureCollection goOdZone = new ListFeatureCollection(ParcelSchema.getSFBMinParcelSplit().getFeatureType());
+        zoneParts.forEach(part -> goOdZone.add(part.getRight()));
         // parcels to save for after and convert them to the minimal attribute
         DefaultFeatureCollection savedParcels = new DefaultFeatureCollection();
-        Arrays.stream(parcels.toArray(new SimpleFeature[0])).forEach(parcel -> {
-            if (((Geometry) parcel.getDefaultGeometry()).intersects(geomZone))
-                parcelsInZone.add(parcel);
-            else
-                savedParcels.add(parcel);
-        });
+        parcelList.stream().filter(parcel -> !parcelsInZone.contains(parcel)).forEach(savedParcels::add);
+        for (ZoneTile tile : tiles)
+            savedParcels.addAll(tile.savedParts);
         if (isDEBUG())
-            CollecMgmt.exportSFC(parcelsInZone, new File(tmpFolder, "parcelsInZone"));
-        //We prepare the zones
-        int numZone = 0;
-        DefaultFeatureCollection goOdZone = new DefaultFeatureCollection();
-        if (keepExistingRoads) {// select zone that covers parcel rather than the actual zone.
-            Geometry unionParcel = Geom.safeUnion(parcels);
-            SimpleFeatureBuilder sfBuilder = ParcelSchema.getSFBMinParcelSplit();
-            try (SimpleFeatureIterator zoneIt = initialZone.features()) {
-                while (zoneIt.hasNext()) {
-                    numZone++;
-                    SimpleFeature zone = zoneIt.next();
-                    // avoid most of tricky geometry problems
-                    Geometry intersection = Geom.safeIntersection(Arrays.asList(((Geometry) zone.getDefaultGeometry()), unionParcel));
-                    if (!intersection.isEmpty()) {
-                        List<Polygon> geomsZone = Polygons.getPolygons(intersection);
-                        for (Geometry geomPartZone : geomsZone) {
-                            Geometry geom = GeometryPrecisionReducer.reduce(geomPartZone, new PrecisionModel(100));
-                            // avoid silvers (plants the code)
-                            if (geom.getArea() > 10) {
-                                sfBuilder.set(geomName, geom);
-                                sfBuilder.set(ParcelSchema.getParcelSectionField(), makeNewSection(String.valueOf(numZone)));
-                                sfBuilder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), 1);
-//                                sfBuilder.set(ParcelSchema.getMinParcelCommunityField(), zone.getAttribute(ParcelSchema.getMinParcelCommunityField()));
-                                goOdZone.add(sfBuilder.buildFeature(Attribute.makeUniqueId()));
-                            }
-                        }
-                    }
-                }
-            } catch (Exception problem) {
-                problem.printStackTrace();
-            }
-            // zone verification
-            if (goOdZone.isEmpty() || OpOnCollec.area(goOdZone) < profile.getMinimalArea()) {
-                System.out.println("ZoneDivision: no zones to cut or zone is too small to be taken into consideration");
-                return parcels;
-            }
-        } else { // we mark and add all zones
-            SimpleFeatureBuilder sfBuilder = ParcelSchema.getSFBMinParcelSplit();
-            try (SimpleFeatureIterator zoneIt = initialZone.features()) {
-                while (zoneIt.hasNext()) {
-                    sfBuilder.set(geomName, zoneIt.next().getDefaultGeometry());
-                    sfBuilder.set(ParcelSchema.getParcelSectionField(), makeNewSection(String.valueOf(numZone++)));
-                    sfBuilder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), 1);
-                    goOdZone.add(sfBuilder.buildFeature(Attribute.makeUniqueId()));
-                }
-            } catch (Exception problem) {
-                problem.printStackTrace();
-            }
-        }
-        // parts of parcel outside the zone must not be cut by the algorithm and keep their attributes
-        List<Geometry> geomList = Arrays.stream(parcelsInZone.toArray(new SimpleFeature[0]))
-                .map(x -> (Geometry) x.getDefaultGeometry()).collect(Collectors.toList());
-        geomList.addAll(Arrays.stream(goOdZone.toArray(new SimpleFeature[0])).map(x -> (Geometry) x.getDefaultGeometry()).collect(Collectors.toList()));
-        List<Polygon> polygons = FeaturePolygonizer.getPolygons(geomList);
-        Geometry geomSelectedZone = Geom.safeUnion(goOdZone);
-        if (isDEBUG()) {
-            Geom.exportGeom(geomSelectedZone, new File(tmpFolder, "geomSelectedZone"));
-            Geom.exportGeom(polygons, new File(tmpFolder, "polygons"));
-            System.out.println("geomz and polygonz exported");
-        }
-        // Big loop on each generated geometry to save the parts that are not contained in the zones.
-        // We add them to the savedParcels collection.
-        for (Geometry poly : polygons) {
-            // if the polygons are not included on the zone, we check to which parcel do they belong
-            if (!geomSelectedZone.buffer(0.01).contains(poly)) {
-                try (SimpleFeatureIterator parcelIt = parcelsInZone.features()) {
-                    while (parcelIt.hasNext()) {
-                        SimpleFeature feat = parcelIt.next();
-                        // if that original parcel contains that piece of parcel, we copy the previous parcels information
-                        if (((Geometry) feat.getDefaultGeometry()).buffer(0.01).contains(poly)) {
-                            Schemas.setFieldsToSFB(finalParcelBuilder, feat);
-                            finalParcelBuilder.set(geomName, poly);
-                            savedParcels.add(finalParcelBuilder.buildFeature(Attribute.makeUniqueId()));
-                        }
-                    }
-                } catch (Exception problem) {
-                    problem.printStackTrace();
-                }
-            }
+            CollecMgmt.exportSFC(DataUtilities.collection(new ArrayList<>(parcelsInZone)), new File(tmpFolder, "parcelsInZone"));
+        // zone verification
+        if (keepExistingRoads && (goOdZone.isEmpty() || OpOnCollec.area(goOdZone) < profile.getMinimalArea())) {
+            System.out.println("ZoneDivision: no zones to cut or zone is too small to be taken into consideration");
+            Metrics.stop("ZoneDivision.zoneDivision", start);
+            return parcels;
         }
         if (isDEBUG())
             CollecMgmt.exportSFC(savedParcels, new File(tmpFolder, "parcelsSaved"));
         // Parcel subdivision
         SimpleFeatureCollection splitParcels = new DefaultFeatureCollection();
         SimpleFeatureCollection blockCollection = CityGeneration.createUrbanBlock(parcels);
+        // each zone is divided with its own random stream, so the result doesn't depend on the zones divided before it. Zones have no parcel ID of their own: their streams
+        // are scoped by a draw of the caller's stream (the stream of the community in a PMStep), so they differ from a community or a call to the other
+        String scope = Long.toHexString(Division.getRandom().nextLong());
+        // roads are indexed once for every zone decomposed with the straight skeleton
+        NearestRoadIndex roadIndex = getProcess() == DivisionType.SS || getProcess() == DivisionType.SSoffset ? new NearestRoadIndex(roads, "NOM_VOIE_G", "IMPORTANCE") : null;
+        Map<String, Integer> occurrences = new HashMap<>();
         try (SimpleFeatureIterator it = goOdZone.features()) {
             while (it.hasNext()) {
                 SimpleFeature zone = it.next();
-                switch (PROCESS) {
-                    case OBB:
-                        ((DefaultFeatureCollection) splitParcels)
-                                .addAll(OBBDivision.splitParcel(zone, roads, profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
-                                        CollecTransform.fromPolygonSFCtoListRingLines(CollecTransform.selectIntersection(blockCollection, (Geometry) zone.getDefaultGeometry())),
-                                        profile.getLaneWidth(), profile.getStreetLane(), profile.getStreetWidth(), true, profile.getBlockShape()));
-                        break;
-                    case SS:
-                    case SSoffset:
-                        StraightSkeletonDivision.FOLDER_OUT_DEBUG = tmpFolder;
-                        ((DefaultFeatureCollection) splitParcels)
-                                .addAll(StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(zone, roads,
-                                        "NOM_VOIE_G", "IMPORTANCE", PROCESS.equals(DivisionType.SSoffset) ? profile.getMaxDepth() : 0, profile.getMaxDistanceForNearestRoad(), profile.getMinimalArea(), profile.getMinimalWidthContactRoad(), profile.getMaxWidth(),
-                                        profile.getIrregularityCoeff() == 0 ? 0.1 : profile.getIrregularityCoeff(), profile.getLaneWidth(), ParcelSchema.getParcelID(zone)));
-                        break;
-                    case OBBThenSS:
-                        ((DefaultFeatureCollection) splitParcels)
-                                .addAll(OBBThenSS.applyOBBThenSS(zone,
-                                        roads == null || roads.isEmpty() ? null : CollecTransform.selectIntersection(roads, ((Geometry) zone.getDefaultGeometry()).buffer(30))
-                                        , profile, CollecTransform.fromPolygonSFCtoListRingLines(CollecTransform.selectIntersection(blockCollection, (Geometry) zone.getDefaultGeometry()))));
-                        break;
-                    case FlagDivision:
-                        ((DefaultFeatureCollection) splitParcels)
-                                .addAll(FlagDivision.doFlagDivision(zone, roads, buildings, profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
-                                        profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getDrivewayWidth(), extLines, exclusionZone));
-                        break;
-                    case MS:
-                        System.out.println("not implemented yet");
-                        break;
-                }
+                SimpleFeatureCollection zoneParcels = Division.callWithRandom(Division.streamSeed(Division.streamKey(scope, zone, occurrences)),
+                        () -> divideZone(zone, roads, roadIndex, buildings, profile, blockCollection, tmpFolder, extLines, exclusionZone));
+                if (zoneParcels != null)
+                    ((DefaultFeatureCollection) splitParcels).addAll(zoneParcels);
             }
         } catch (Exception problem) {
             problem.printStackTrace();
@@ -383,22 +342,14 @@ public class ZoneDivision extends Workflow {
             System.out.println("fresh cuted parcels exported");
         }
         // merge the small parcels to bigger ones
-        splitParcels = ParcelCollection.mergeTooSmallParcels(splitParcels, profile.getMinimalArea(), PROCESS.equals(DivisionType.SS));
+        splitParcels = ParcelCollection.mergeTooSmallParcels(splitParcels, profile.getMinimalArea(), getProcess().equals(DivisionType.SS));
         DefaultFeatureCollection result = new DefaultFeatureCollection();
         int num = 0;
-        // set attribute for the simulated parcels
+        // set attribute for the simulated parcels (section name of the corresponding zone and community of the initial parcel)
+        ParcelAttributeTransfer attributeTransfer = new ParcelAttributeTransfer(parcels).withZones(goOdZone, 2);
         try (SimpleFeatureIterator itParcel = splitParcels.features()) {
-            while (itParcel.hasNext()) {
-                SimpleFeature parcel = itParcel.next();
-                Geometry parcelGeom = (Geometry) parcel.getDefaultGeometry();
-                Schemas.setFieldsToSFB(finalParcelBuilder, CollecTransform.selectWhichIntersectMost(parcels, parcelGeom));
-                finalParcelBuilder.set(geomName, parcelGeom);
-                // get the section name of the corresponding zone
-                finalParcelBuilder.set(ParcelSchema.getParcelSectionField(), Arrays.stream(goOdZone.toArray(new SimpleFeature[0])).filter(z -> ((Geometry) z.getDefaultGeometry()).buffer(2).contains(parcelGeom)).map(z -> (String) z.getAttribute(ParcelSchema.getParcelSectionField())).findFirst().orElse(""));
-                finalParcelBuilder.set(ParcelSchema.getParcelCommunityField(), Arrays.stream(parcels.toArray(new SimpleFeature[0])).filter(g -> ((Geometry) g.getDefaultGeometry()).intersects((Geometry) parcel.getDefaultGeometry())).findFirst().get().getAttribute(ParcelSchema.getParcelCommunityField()));
-                finalParcelBuilder.set(ParcelSchema.getParcelNumberField(), String.valueOf(num++));
-                result.add(finalParcelBuilder.buildFeature(Attribute.makeUniqueId()));
-            }
+            while (itParcel.hasNext())
+                result.add(attributeTransfer.transfer(finalParcelBuilder, (Geometry) itParcel.next().getDefaultGeometry(), geomName, num++));
         } catch (Exception problem) {
             problem.printStackTrace();
         }
@@ -415,6 +366,7 @@ public class ZoneDivision extends Workflow {
         } catch (Exception problem) {
             problem.printStackTrace();
         }
+        Metrics.stop("ZoneDivision.zoneDivision", start);
         return result;
     }
 
@@ -438,4 +390,331 @@ public class ZoneDivision extends Workflow {
         String section = (String) feat.getAttribute(ParcelSchema.getParcelSectionField());
         return section.startsWith("New") && section.endsWith("Section");
     }
-}
\ No newline at end of file
+
+    /**
+     * Divide a zone with the process set by {@link Workflow#setProcess(DivisionType)}.
+     *
+     * @param zone            zone to divide
+     * @param roads           road features (can be null)
+     * @param roadIndex       index of the roads for the straight skeleton processes (null for the other processes)
+     * @param buildings       for densification only (can be null)
+     * @param profile         {@link ProfileUrbanFabric} contains the parameters of the wanted urban scene
+     * @param blockCollection urban blocks of the parcels
+     * @param tmpFolder       folder to write debug geofiles
+     * @param extLines        for densification only (can be null)
+     * @param exclusionZone   for densification only (can be null)
+     * @return the parcels of the zone, or null if the process isn't implemented
+     * @throws Exception from the division processes
+     */
+    private SimpleFeatureCollection divideZone(SimpleFeature zone, SimpleFeatureCollection roads, NearestRoadIndex roadIndex, SimpleFeatureCollection buildings, ProfileUrbanFabric profile,
+                                               SimpleFeatureCollection blockCollection, File tmpFolder, List<LineString> extLines, Geometry exclusionZone) throws Exception {
+        switch (getProcess()) {
+            case OBB:
+                return OBBDivision.splitParcel(zone, roads, profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
+                        CollecTransform.fromPolygonSFCtoListRingLines(CollecTransform.selectIntersection(blockCollection, (Geometry) zone.getDefaultGeometry())),
+                        profile.getLaneWidth(), profile.getStreetLane(), profile.getStreetWidth(), true, profile.getBlockShape());
+            case SS:
+            case SSoffset:
+                StraightSkeletonDivision.setFolderOutDebug(tmpFolder);
+                return StraightSkeletonDivision.runTopologicalStraightSkeletonParcelDecomposition(zone, roadIndex,
+                        "NOM_VOIE_G", "IMPORTANCE", getProcess().equals(DivisionType.SSoffset) ? profile.getMaxDepth() : 0, profile.getMaxDistanceForNearestRoad(), profile.getMinimalArea(), profile.getMinimalWidthContactRoad(), profile.getMaxWidth(),
+                        profile.getIrregularityCoeff() == 0 ? 0.1 : profile.getIrregularityCoeff(), profile.getLaneWidth(), ParcelSchema.getParcelID(zone));
+            case OBBThenSS:
+                return OBBThenSS.applyOBBThenSS(zone,
+                        roads == null || roads.isEmpty() ? null : CollecTransform.selectIntersection(roads, ((Geometry) zone.getDefaultGeometry()).buffer(30))
+                        , profile, CollecTransform.fromPolygonSFCtoListRingLines(CollecTransform.selectIntersection(blockCollection, (Geometry) zone.getDefaultGeometry())));
+            case FlagDivision:
+                return FlagDivision.doFlagDivision(zone, roads, buildings, profile.getHarmonyCoeff(), profile.getIrregularityCoeff(),
+                        profile.getMaximalArea(), profile.getMinimalWidthContactRoad(), profile.getDrivewayWidth(), extLines, exclusionZone);
+            case MS:
+                System.out.println("not implemented yet");
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * Prepare a set of zones: zones are marked and given a new section name, and the parts of the parcels that are outside the zones are saved with their attributes.
+     *
+     * @param zones              zones to prepare
+     * @param zoneIndexes        index of each zone in the initial zone collection (used to name the new sections)
+     * @param parcelsInZone      parcels intersecting the zones
+     * @param parcelsForUnion    parcels whose union bounds the zones if existing roads are kept. Must contain every parcel intersecting the zones.
+     * @param geomName           name of the geometry attribute
+     * @param keepExistingRoads  If true, zones are bounded by the parcels
+     * @param finalParcelType    schema of the saved parcel parts
+     * @param tmpFolder          folder for debug geo files
+     * @param suffix             suffix of the debug files
+     * @return the prepared zones and parcel parts
+     * @throws IOException writing debug geo files
+     */
+    private ZoneTile prepareZones(List<SimpleFeature> zones, List<Integer> zoneIndexes, List<SimpleFeature> parcelsInZone, SimpleFeatureCollection parcelsForUnion, String geomName,
+                                  boolean keepExistingRoads, SimpleFeatureType finalParcelType, File tmpFolder, String suffix) throws IOException {
+        ZoneTile tile = new ZoneTile(parcelsInZone);
+        SimpleFeatureBuilder sfBuilder = ParcelSchema.getSFBMinParcelSplit();
+        if (keepExistingRoads) {// select zone that covers parcel rather than the actual zone.
+            Geometry unionParcel = Geom.safeUnion(parcelsForUnion);
+            try {
+                for (int i = 0; i < zones.size(); i++) {
+                    int numZone = zoneIndexes.get(i) + 1;
+                    SimpleFeature zone = zones.get(i);
+                    // avoid most of tricky geometry problems
+                    Geometry intersection = Geom.safeIntersection(Arrays.asList(((Geometry) zone.getDefaultGeometry()), unionParcel));
+                    if (!intersection.isEmpty()) {
+                        List<Polygon> geomsZone = Polygons.getPolygons(intersection);
+                        for (Geometry geomPartZone : geomsZone) {
+                            Geometry geom = GeometryPrecisionReducer.reduce(geomPartZone, new PrecisionModel(100));
+                            // avoid silvers (plants the code)
+                            if (geom.getArea() > 10) {
+                                sfBuilder.set(geomName, geom);
+                                sfBuilder.set(ParcelSchema.getParcelSectionField(), makeNewSection(String.valueOf(numZone)));
+                                sfBuilder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), 1);
+                                tile.zoneParts.add(new ImmutablePair<>(zoneIndexes.get(i), sfBuilder.buildFeature(ParcelSchema.makeUniqueId())));
+                            }
+                        }
+                    }
+                }
+            } catch (Exception problem) {
+                problem.printStackTrace();
+            }
+        } else { // we mark and add all zones
+            try {
+                for (int i = 0; i < zones.size(); i++) {
+                    sfBuilder.set(geomName, zones.get(i).getDefaultGeometry());
+                    sfBuilder.set(ParcelSchema.getParcelSectionField(), makeNewSection(String.valueOf(zoneIndexes.get(i))));
+                    sfBuilder.set(MarkParcelAttributeFromPosition.getMarkFieldName(), 1);
+                    tile.zoneParts.add(new ImmutablePair<>(zoneIndexes.get(i), sfBuilder.buildFeature(ParcelSchema.makeUniqueId())));
+                }
+            } catch (Exception problem) {
+                problem.printStackTrace();
+            }
+        }
+        if (tile.zoneParts.isEmpty())
+            return tile;
+        List<Geometry> geomList = parcelsInZone.stream().map(x -> (Geometry) x.getDefaultGeometry()).collect(Collectors.toList());
+        List<SimpleFeature> zoneFeatures = tile.zoneParts.stream().map(Pair::getRight).collect(Collectors.toList());
+        geomList.addAll(zoneFeatures.stream().map(x -> (Geometry) x.getDefaultGeometry()).collect(Collectors.toList()));
+        List<Polygon> polygons = FeaturePolygonizer.getPolygons(geomList);
+        Geometry geomSelectedZone = Geom.safeUnion(DataUtilities.collection(zoneFeatures));
+        if (isDEBUG()) {
+            Geom.exportGeom(geomSelectedZone, new File(tmpFolder, "geomSelectedZone" + suffix));
+            Geom.exportGeom(polygons, new File(tmpFolder, "polygons" + suffix));
+            System.out.println("geomz and polygonz exported");
+        }
+        // Save the parts that are not contained in the zones.
+        SimpleFeatureBuilder finalParcelBuilder = new SimpleFeatureBuilder(finalParcelType);
+        tile.savedParts.addAll(saveOutsideParts(polygons, geomSelectedZone, parcelsInZone, finalParcelBuilder, geomName));
+        return tile;
+    }
+
+    /**
+     * Copy the attributes of the parcels to the polygons that are not contained in the zones. A polygon gets the attributes of every parcel that contains it (with a tolerance of 1 cm).
+     * Parcels are indexed in a {@link FeatureIndex} and their buffered geometries are prepared once, on their first test, so each polygon is only tested against the parcels whose
+     * envelope covers it.
+     *
+     * @param polygons           polygons made of the parcels and the zones
+     * @param geomSelectedZone   union of the zones
+     * @param parcelsInZone      parcels intersecting the zones
+     * @param finalParcelBuilder builder of the saved parcels
+     * @param geomName           name of the geometry attribute
+     * @return the parts of the parcels outside the zones, in the order of the polygons
+     */
+    private static List<SimpleFeature> saveOutsideParts(List<Polygon> polygons, Geometry geomSelectedZone, List<SimpleFeature> parcelsInZone,
+                                                        SimpleFeatureBuilder finalParcelBuilder, String geomName) {
+        List<SimpleFeature> savedParts = new ArrayList<>();
+        PreparedGeometry zone = PreparedGeometryFactory.prepare(geomSelectedZone.buffer(0.01));
+        FeatureIndex parcelIndex = new FeatureIndex(parcelsInZone);
+        PreparedGeometry[] bufferedParcels = new PreparedGeometry[parcelsInZone.size()];
+        for (Polygon poly : polygons) {
+            // if the polygons are not included on the zone, we check to which parcel do they belong
+            if (zone.contains(poly))
+                continue;
+            // candidates are tested in the order of the parcels
+            Envelope env = new Envelope(poly.getEnvelopeInternal());
+            env.expandBy(0.01);
+            try {
+                for (int i : parcelIndex.candidates(env)) {
+                    if (bufferedParcels[i] == null)
+                        bufferedParcels[i] = PreparedGeometryFactory.prepare(((Geometry) parcelsInZone.get(i).getDefaultGeometry()).buffer(0.01));
+                    // if that original parcel contains that piece of parcel, we copy the previous parcels information
+                    if (bufferedParcels[i].contains(poly)) {
+                        Schemas.setFieldsToSFB(finalParcelBuilder, parcelsInZone.get(i));
+                        finalParcelBuilder.set(geomName, poly);
+                        savedParts.add(finalParcelBuilder.buildFeature(ParcelSchema.makeUniqueId()));
+                    }
+                }
+            } catch (Exception problem) {
+                problem.printStackTrace();
+            }
+        }
+        Metrics.increment("ZoneDivision.savedParts", savedParts.size());
+        return savedParts;
+    }
+
+    /**
+     * Split the zones into independent clusters and prepare each of them (see {@link #prepareZones(List, List, List, SimpleFeatureCollection, String, boolean, SimpleFeatureType, File, String)}).
+     * Two zones are in the same cluster if they intersect or if they intersect the same parcel, so every parcel is prepared with a single cluster and the unions and polygonization
+     * are only made on the geometries of a cluster. Clusters are prepared in parallel if {@link #getTileParallelism()} is greater than 1 (but not in debug mode).
+     *
+     * @return the prepared clusters, in the order of their first zone
+     * @throws IOException writing debug geo files
+     */
+    private List<ZoneTile> prepareTiles(SimpleFeatureCollection initialZone, List<SimpleFeature> parcels, String geomName, boolean keepExistingRoads, SimpleFeatureType finalParcelType,
+                                        File tmpFolder) throws IOException {
+        SimpleFeature[] zones = initialZone.toArray(new SimpleFeature[0]);
+        int[] cluster = IntStream.range(0, zones.length).toArray();
+        STRtree zoneIndex = new STRtree();
+        for (int i = 0; i < zones.length; i++)
+            zoneIndex.insert(((Geometry) zones[i].getDefaultGeometry()).getEnvelopeInternal(), i);
+        zoneIndex.build();
+        for (int i = 0; i < zones.length; i++) {
+            Geometry zoneGeom = (Geometry) zones[i].getDefaultGeometry();
+            for (Object o : zoneIndex.query(zoneGeom.getEnvelopeInternal())) {
+                int j = (Integer) o;
+                if (j > i && zoneGeom.intersects((Geometry) zones[j].getDefaultGeometry()))
+                    union(cluster, i, j);
+            }
+        }
+        // zone of the parcels (-1 if the parcel doesn't intersect any zone)
+        int[] parcelZone = new int[parcels.size()];
+        Arrays.fill(parcelZone, -1);
+        for (int p = 0; p < parcels.size(); p++) {
+            Geometry parcelGeom = (Geometry) parcels.get(p).getDefaultGeometry();
+            for (Object o : zoneIndex.query(parcelGeom.getEnvelopeInternal())) {
+                int j = (Integer) o;
+                if (!parcelGeom.intersects((Geometry) zones[j].getDefaultGeometry()))
+                    continue;
+                if (parcelZone[p] == -1)
+                    parcelZone[p] = j;
+                else
+                    union(cluster, parcelZone[p], j);
+            }
+        }
+        // gather zones and parcels by cluster
+        Map<Integer, List<Integer>> zonesOfCluster = new LinkedHashMap<>();
+        for (int i = 0; i < zones.length; i++)
+            zonesOfCluster.computeIfAbsent(find(cluster, i), k -> new ArrayList<>()).add(i);
+        Map<Integer, List<SimpleFeature>> parcelsOfCluster = new HashMap<>();
+        for (int p = 0; p < parcels.size(); p++)
+            if (parcelZone[p] != -1)
+                parcelsOfCluster.computeIfAbsent(find(cluster, parcelZone[p]), k -> new ArrayList<>()).add(parcels.get(p));
+        List<Integer> roots = new ArrayList<>(zonesOfCluster.keySet());
+        if (isDEBUG())
+            System.out.println("ZoneDivision: " + roots.size() + " clusters of zones");
+        SimulationContext ctx = SimulationContext.current();
+        ThrowingFunction<Integer, ZoneTile> prepare = root -> {
+            List<Integer> zoneIndexes = zonesOfCluster.get(root);
+            List<SimpleFeature> parcelsInZone = parcelsOfCluster.getOrDefault(root, new ArrayList<>());
+            return SimulationContext.callWith(ctx, () -> prepareZones(zoneIndexes.stream().map(i -> zones[i]).collect(Collectors.toList()), zoneIndexes, parcelsInZone,
+                    DataUtilities.collection(parcelsInZone), geomName, keepExistingRoads, finalParcelType, tmpFolder, "-" + zoneIndexes.get(0)));
+        };
+        List<ZoneTile> tiles = new ArrayList<>();
+        int tileParallelism = getTileParallelism();
+        if (tileParallelism <= 1 || roots.size() < 2 || isDEBUG()) {
+            for (int root : roots)
+                tiles.add(prepare.apply(root));
+            return tiles;
+        }
+        ForkJoinPool pool = new ForkJoinPool(tileParallelism);
+        try {
+            return pool.submit(() -> roots.parallelStream().map(root -> {
+                try {
+                    return prepare.apply(root);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw new IOException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int find(int[] cluster, int i) {
+        while (cluster[i] != i) {
+            cluster[i] = cluster[cluster[i]];
+            i = cluster[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] cluster, int i, int j) {
+        int ri = find(cluster, i);
+        int rj = find(cluster, j);
+        // the smallest index is the root, so clusters are ordered by their first zone
+        if (ri < rj)
+            cluster[rj] = ri;
+        else if (rj < ri)
+            cluster[ri] = rj;
+    }
+
+    /**
+     * Are the zones prepared cluster by cluster ?
+     *
+     * @return true if tiled
+     */
+    public static boolean isTiled() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.isTiled() : tiled;
+    }
+
+    /**
+     * Prepare the zones cluster by cluster. Zones that don't intersect each other or a common parcel are independent: unions of zones and parcels and polygonization of the
+     * parcels are then made per cluster instead of on the whole zoning plan, which bounds their cost on very large zone sets. False by default. If a {@link SimulationContext} is
+     * bound to the current thread, only that context is changed.
+     *
+     * @param tiled Do we split the zones into clusters ?
+     */
+    public static void setTiled(boolean tiled) {
+        if (!SimulationContext.update(ctx -> ctx.withTiled(tiled)))
+            ZoneDivision.tiled = tiled;
+    }
+
+    /**
+     * Get the number of clusters of zones that are prepared concurrently in tiled mode.
+     *
+     * @return number of workers
+     */
+    public static int getTileParallelism() {
+        SimulationContext ctx = SimulationContext.current();
+        return ctx != null ? ctx.getTileParallelism() : tileParallelism;
+    }
+
+    /**
+     * Set the number of clusters of zones that are prepared concurrently in tiled mode. 1 by default. If a {@link SimulationContext} is bound to the current thread, only that
+     * context is changed.
+     *
+     * @param tileParallelism number of workers
+     */
+    public static void setTileParallelism(int tileParallelism) {
+        if (!SimulationContext.update(ctx -> ctx.withTileParallelism(tileParallelism)))
+            ZoneDivision.tileParallelism = tileParallelism;
+    }
+
+    /**
+     * Zones of a cluster, ready to be divided, and saved parts of the parcels that intersect them.
+     */
+    private static class ZoneTile {
+        final List<SimpleFeature> parcelsInZone;
+        /**
+         * Marked zones, with the index of the initial zone they come from
+         */
+        final List<Pair<Integer, SimpleFeature>> zoneParts = new ArrayList<>();
+        /**
+         * Parts of the parcels outside the zones
+         */
+        final List<SimpleFeature> savedParts = new ArrayList<>();
+
+        ZoneTile(List<SimpleFeature> parcelsInZone) {
+            this.parcelsInZone = parcelsInZone;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThrowingFunction<T, R> {
+        R apply(T t) throws IOException;
+    }
+}